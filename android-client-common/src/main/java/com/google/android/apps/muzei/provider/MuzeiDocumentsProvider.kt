@@ -33,6 +33,7 @@ import android.util.Log
 import com.google.android.apps.muzei.render.ImageLoader
 import com.google.android.apps.muzei.room.Artwork
 import com.google.android.apps.muzei.room.MuzeiDatabase
+import com.google.android.apps.muzei.util.BitmapPool
 import kotlinx.coroutines.runBlocking
 import net.nurik.roman.muzei.androidclientcommon.BuildConfig
 import net.nurik.roman.muzei.androidclientcommon.R
@@ -263,6 +264,8 @@ class MuzeiDocumentsProvider : DocumentsProvider() {
         } catch (e: IOException) {
             Log.e(TAG, "Error writing thumbnail", e)
             return null
+        } finally {
+            BitmapPool.put(bitmap)
         }
 
         return AssetFileDescriptor(ParcelFileDescriptor.open(tempFile, ParcelFileDescriptor.MODE_READ_ONLY), 0,
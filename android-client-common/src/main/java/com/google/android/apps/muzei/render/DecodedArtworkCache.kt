@@ -0,0 +1,168 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.apps.muzei.render
+
+import android.content.ComponentCallbacks2
+import android.content.ContentResolver
+import android.graphics.Bitmap
+import android.net.Uri
+import android.util.Log
+import android.util.LruCache
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.async
+import net.nurik.roman.muzei.androidclientcommon.BuildConfig
+import kotlin.math.ceil
+import kotlin.math.max
+
+/**
+ * A process wide memory cache of decoded artwork, keyed by the artwork's id, the
+ * requested target size, and the [Bitmap.Config].
+ *
+ * Every consumer of the current artwork (widgets, notifications, Wear, wallpaper colors)
+ * asks for a different size. Rather than decoding the image once for each, requests are
+ * decoded at no less than [MIN_DECODE_SIZE] and smaller requests are answered by
+ * downscaling a cached (or in flight) larger decode of the same artwork. Concurrent
+ * requests for the same artwork share a single decode.
+ *
+ * Bitmaps returned from this cache are shared: callers must not modify or recycle
+ * them, nor return them to the [com.google.android.apps.muzei.util.BitmapPool].
+ */
+object DecodedArtworkCache {
+    private const val TAG = "DecodedArtworkCache"
+
+    /**
+     * The smallest size decoded for any non-zero target size, so that the many small
+     * consumers of the current artwork can all be served from one decode
+     */
+    private const val MIN_DECODE_SIZE = 512
+
+    /**
+     * Only create a downscaled copy when the cached bitmap is more than this
+     * many times larger than the request
+     */
+    private const val MAX_UNSCALED_MULTIPLE = 2
+
+    private data class Key(
+            val artworkId: Long,
+            val targetWidth: Int,
+            val targetHeight: Int,
+            val config: Bitmap.Config
+    ) {
+        val isFullSize get() = targetWidth == 0
+
+        fun covers(other: Key) = artworkId == other.artworkId && config == other.config &&
+                (isFullSize || (!other.isFullSize &&
+                        targetWidth >= other.targetWidth && targetHeight >= other.targetHeight))
+    }
+
+    private val cache = object : LruCache<Key, Bitmap>(
+            (Runtime.getRuntime().maxMemory() / 16).toInt()) {
+        override fun sizeOf(key: Key, value: Bitmap) = value.allocationByteCount
+    }
+
+    private val inFlight = mutableMapOf<Key, Deferred<Bitmap?>>()
+    private val coroutineScope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+
+    /**
+     * Get the artwork with the given id, decoded to at least [targetWidth] x
+     * [targetHeight] (following the same sample size rules as [ImageDecodeSession.decode]).
+     * A target width of 0 requests the full size image.
+     */
+    suspend fun get(
+            contentResolver: ContentResolver,
+            artworkId: Long,
+            uri: Uri,
+            targetWidth: Int = 0,
+            targetHeight: Int = targetWidth,
+            config: Bitmap.Config = Bitmap.Config.ARGB_8888
+    ): Bitmap? {
+        val key = Key(artworkId, targetWidth, targetHeight, config)
+        val deferred = synchronized(this) {
+            cache.get(key)?.let { return it }
+            // Downscale a larger cached bitmap of the same artwork
+            cache.snapshot().entries.firstOrNull { (cachedKey, _) ->
+                cachedKey.covers(key)
+            }?.let { (_, bitmap) ->
+                return bitmap.downscaleAndCache(key)
+            }
+            // Or wait for a larger in flight decode of the same artwork
+            inFlight.entries.firstOrNull { (decodingKey, _) ->
+                decodingKey.covers(key)
+            }?.value ?: run {
+                val decodeKey = if (key.isFullSize) key else key.copy(
+                        targetWidth = max(targetWidth, MIN_DECODE_SIZE),
+                        targetHeight = max(targetHeight, MIN_DECODE_SIZE))
+                coroutineScope.async {
+                    try {
+                        ContentUriImageLoader(contentResolver, uri).openSession()?.use { session ->
+                            session.decode(decodeKey.targetWidth, decodeKey.targetHeight, config)
+                        }?.also { bitmap ->
+                            synchronized(this@DecodedArtworkCache) {
+                                cache.put(decodeKey, bitmap)
+                            }
+                        }
+                    } finally {
+                        synchronized(this@DecodedArtworkCache) {
+                            inFlight.remove(decodeKey)
+                        }
+                    }
+                }.also { inFlight[decodeKey] = it }
+            }
+        }
+        val bitmap = deferred.await() ?: return null
+        return synchronized(this) {
+            cache.get(key) ?: bitmap.downscaleAndCache(key)
+        }
+    }
+
+    private fun Bitmap.downscaleAndCache(key: Key) = downscale(key).also { downscaled ->
+        // Only cache new bitmaps, to avoid counting the same bitmap twice
+        if (downscaled !== this) {
+            cache.put(key, downscaled)
+        }
+    }
+
+    private fun Bitmap.downscale(key: Key): Bitmap {
+        if (key.isFullSize) {
+            return this
+        }
+        val scale = max(key.targetWidth * 1f / width, key.targetHeight * 1f / height)
+        if (scale * MAX_UNSCALED_MULTIPLE >= 1f) {
+            return this
+        }
+        return Bitmap.createScaledBitmap(this,
+                ceil(width * scale).toInt(), ceil(height * scale).toInt(), true)
+    }
+
+    /**
+     * Release memory in response to [ComponentCallbacks2.onTrimMemory].
+     */
+    @Synchronized
+    fun onTrimMemory(level: Int) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            cache.evictAll()
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            cache.trimToSize(cache.maxSize() / 2)
+        }
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, "onTrimMemory($level): $cache")
+        }
+    }
+}
@@ -0,0 +1,558 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.apps.muzei.render
+
+import android.content.res.AssetFileDescriptor
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.graphics.BitmapRegionDecoder
+import android.graphics.Canvas
+import android.graphics.ImageDecoder
+import android.graphics.Matrix
+import android.graphics.Paint
+import android.graphics.Rect
+import android.os.Build
+import android.os.CancellationSignal
+import android.os.OperationCanceledException
+import android.os.ParcelFileDescriptor
+import android.system.ErrnoException
+import android.system.Os
+import android.system.OsConstants
+import android.util.Log
+import androidx.annotation.RequiresApi
+import androidx.exifinterface.media.ExifInterface
+import com.google.android.apps.muzei.util.BitmapPool
+import com.google.android.apps.muzei.util.divideRoundUp
+import com.google.android.apps.muzei.util.sampleSize
+import net.nurik.roman.muzei.androidclientcommon.BuildConfig
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.Closeable
+import java.io.FileInputStream
+import java.io.InputStream
+import java.nio.ByteBuffer
+import java.util.concurrent.Callable
+import kotlin.math.ceil
+import kotlin.math.max
+import kotlin.math.min
+import kotlin.math.roundToInt
+
+/**
+ * A single open of an image. The bounds and EXIF rotation are read once when the
+ * session is created (unless already known from an [ImageInfo]) and any number of [decode] calls then reuse the same underlying
+ * source rather than reopening it through the [android.content.ContentResolver].
+ *
+ * Seekable file descriptors are rewound between passes. Anything else (pipes, assets,
+ * plain [InputStream]s) is buffered into memory once.
+ *
+ * Cancelling the [CancellationSignal] the session was opened with stops buffering,
+ * requests that any in progress decode stop early, and makes every later decode
+ * return null, so a superseded load gives up as soon as possible.
+ */
+class ImageDecodeSession private constructor(
+        private val source: Source,
+        private val name: String,
+        info: ImageInfo?,
+        private val cancellationSignal: CancellationSignal?
+) : Closeable {
+
+    companion object {
+        private const val TAG = "ImageDecodeSession"
+
+        /**
+         * Open a session on the given [ParcelFileDescriptor], taking ownership of it.
+         * When the [ImageInfo] of the image is already known, reading the image's
+         * header and EXIF data is skipped.
+         */
+        fun open(
+                descriptor: ParcelFileDescriptor,
+                name: String,
+                info: ImageInfo? = null,
+                cancellationSignal: CancellationSignal? = null
+        ): ImageDecodeSession {
+            val source = try {
+                Os.lseek(descriptor.fileDescriptor, 0, OsConstants.SEEK_CUR)
+                SeekableSource(descriptor)
+            } catch (_: ErrnoException) {
+                // Not seekable (i.e., a pipe), so read it into memory once
+                BufferedSource(ParcelFileDescriptor.AutoCloseInputStream(descriptor).use { input ->
+                    input.readBytes(cancellationSignal)
+                })
+            }
+            return ImageDecodeSession(source, name, info, cancellationSignal)
+        }
+
+        /**
+         * Open a session by reading the given [InputStream] into memory, closing the stream.
+         */
+        fun open(
+                inputStream: InputStream,
+                name: String,
+                info: ImageInfo? = null,
+                cancellationSignal: CancellationSignal? = null
+        ) = ImageDecodeSession(
+                BufferedSource(inputStream.use { input -> input.readBytes(cancellationSignal) }),
+                name, info, cancellationSignal)
+
+        /**
+         * Read the rest of this stream a chunk at a time, throwing an
+         * [OperationCanceledException] between chunks once cancelled.
+         */
+        private fun InputStream.readBytes(cancellationSignal: CancellationSignal?): ByteArray {
+            val output = ByteArrayOutputStream(max(DEFAULT_BUFFER_SIZE, available()))
+            val buffer = ByteArray(DEFAULT_BUFFER_SIZE)
+            while (true) {
+                cancellationSignal?.throwIfCanceled()
+                val bytesRead = read(buffer)
+                if (bytesRead < 0) {
+                    break
+                }
+                output.write(buffer, 0, bytesRead)
+            }
+            return output.toByteArray()
+        }
+    }
+
+    /**
+     * The width of the image as stored, before applying [rotation]
+     */
+    val originalWidth: Int
+    /**
+     * The height of the image as stored, before applying [rotation]
+     */
+    val originalHeight: Int
+    /**
+     * The EXIF rotation of the image, in degrees (one of 0, 90, 180, or 270)
+     */
+    val rotation: Int
+    /**
+     * The width of the image after applying [rotation]
+     */
+    val width get() = if (rotation == 90 || rotation == 270) originalHeight else originalWidth
+    /**
+     * The height of the image after applying [rotation]
+     */
+    val height get() = if (rotation == 90 || rotation == 270) originalWidth else originalHeight
+    /**
+     * Whether the image has valid bounds and (on API 26+) decodes to
+     * [Bitmap.Config.ARGB_8888]. Always true when the [ImageInfo] was already known.
+     */
+    val isValid: Boolean
+    /**
+     * The mean luminance of the image, if it was already known
+     */
+    val luminance = info?.luminance
+    /**
+     * Whether the [CancellationSignal] this session was opened with has been cancelled
+     */
+    val isCancelled get() = cancellationSignal?.isCanceled == true
+
+    // The options of the BitmapFactory decode in progress, if any
+    @Volatile
+    private var activeOptions: BitmapFactory.Options? = null
+
+    init {
+        cancellationSignal?.setOnCancelListener {
+            // Only has an effect before API 24, but lets older
+            // devices stop a decode part way through
+            @Suppress("DEPRECATION")
+            activeOptions?.requestCancelDecode()
+        }
+        if (info != null) {
+            rotation = info.rotation
+            val swapDimensions = rotation == 90 || rotation == 270
+            originalWidth = max(0, if (swapDimensions) info.height else info.width)
+            originalHeight = max(0, if (swapDimensions) info.width else info.height)
+            isValid = originalWidth != 0 && originalHeight != 0
+        } else {
+            val options = BitmapFactory.Options().apply {
+                inJustDecodeBounds = true
+            }
+            try {
+                source.decode(options)
+            } catch (e: Exception) {
+                if (BuildConfig.DEBUG) {
+                    Log.w(TAG, "Error decoding bounds of $name: ${e.message}")
+                }
+            }
+            originalWidth = max(0, options.outWidth)
+            originalHeight = max(0, options.outHeight)
+            isValid = originalWidth != 0 && originalHeight != 0 &&
+                    (Build.VERSION.SDK_INT < Build.VERSION_CODES.O ||
+                            options.outConfig == Bitmap.Config.ARGB_8888)
+            rotation = readRotation()
+        }
+    }
+
+    private fun readRotation() = try {
+        val exifInterface = ExifInterface(source.openInputStream())
+        when (exifInterface.getAttributeInt(ExifInterface.TAG_ORIENTATION,
+                ExifInterface.ORIENTATION_NORMAL)) {
+            ExifInterface.ORIENTATION_ROTATE_90 -> 90
+            ExifInterface.ORIENTATION_ROTATE_180 -> 180
+            ExifInterface.ORIENTATION_ROTATE_270 -> 270
+            else -> 0
+        }
+    } catch (e: Exception) {
+        if (BuildConfig.DEBUG) {
+            Log.w(TAG, "Couldn't open EXIF interface for $name", e)
+        }
+        0
+    }
+
+    /**
+     * Decode the image, rotated per its EXIF data, using the largest power of two
+     * sample size that keeps it at least [targetWidth] x [targetHeight].
+     */
+    fun decode(
+            targetWidth: Int = 0,
+            targetHeight: Int = targetWidth,
+            config: Bitmap.Config = Bitmap.Config.ARGB_8888
+    ): Bitmap? {
+        if (originalWidth == 0 || originalHeight == 0 || isCancelled) {
+            return null
+        }
+        return try {
+            val sampleSize = if (targetWidth != 0) {
+                max(width.sampleSize(targetWidth), height.sampleSize(targetHeight))
+            } else {
+                1
+            }
+            val options = BitmapFactory.Options().apply {
+                inPreferredConfig = config
+                inSampleSize = sampleSize
+                inMutable = true
+                inBitmap = BitmapPool.getReusable(
+                        originalWidth.divideRoundUp(sampleSize),
+                        originalHeight.divideRoundUp(sampleSize),
+                        config)
+            }
+            activeOptions = options
+            val bitmap = try {
+                source.decode(options)
+            } catch (e: IllegalArgumentException) {
+                // The pooled bitmap couldn't be reused for this image,
+                // so return it to the pool and try again without it
+                BitmapPool.put(options.inBitmap)
+                options.inBitmap = null
+                source.decode(options)
+            }
+            bitmap?.takeUnlessCancelled()?.rotate(rotation)
+        } catch (e: Exception) {
+            if (BuildConfig.DEBUG) {
+                Log.w(TAG, "Error decoding $name: ${e.message}")
+            }
+            null
+        } finally {
+            activeOptions = null
+        }
+    }
+
+    /**
+     * Decode the image, rotated per its EXIF data, at exactly [targetWidth] x [targetHeight].
+     *
+     * When [centerCrop] is true, the center of the image is cropped to the target's
+     * aspect ratio before scaling; otherwise the image is scaled to fit the target
+     * exactly, ignoring its aspect ratio.
+     *
+     * On devices that support it, [ImageDecoder] does the rotation, scaling and
+     * crop as part of the decode, avoiding the intermediate bitmaps needed when
+     * falling back to [BitmapFactory].
+     */
+    fun decodeExact(
+            targetWidth: Int,
+            targetHeight: Int,
+            centerCrop: Boolean = false
+    ): Bitmap? {
+        if (originalWidth == 0 || originalHeight == 0 || targetWidth <= 0 || targetHeight <= 0 ||
+                isCancelled) {
+            return null
+        }
+        val imageDecoderSource = if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            source.createImageDecoderSource()
+        } else {
+            null
+        }
+        if (imageDecoderSource != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            try {
+                return decodeExactWithImageDecoder(imageDecoderSource,
+                        targetWidth, targetHeight, centerCrop).takeUnlessCancelled()
+            } catch (_: OperationCanceledException) {
+                return null
+            } catch (e: Exception) {
+                if (BuildConfig.DEBUG) {
+                    Log.w(TAG, "ImageDecoder failed for $name, falling back " +
+                            "to BitmapFactory: ${e.message}")
+                }
+            }
+        }
+        val image = decode(targetWidth, targetHeight) ?: return null
+        if (image.width == targetWidth && image.height == targetHeight) {
+            return image
+        }
+        // Crop and scale in a single draw into a pooled bitmap
+        val sourceRect = if (centerCrop) {
+            image.centerCropRect(targetWidth, targetHeight)
+        } else {
+            Rect(0, 0, image.width, image.height)
+        }
+        return BitmapPool.get(targetWidth, targetHeight).also { scaled ->
+            Canvas(scaled).drawBitmap(image, sourceRect,
+                    Rect(0, 0, targetWidth, targetHeight),
+                    Paint(Paint.FILTER_BITMAP_FLAG))
+            BitmapPool.put(image)
+        }
+    }
+
+    /**
+     * Decode only the given region of the image, rotated per its EXIF data, using the
+     * largest power of two sample size that keeps the region at least [targetHeight] tall.
+     * The region is given in the coordinates of the rotated image (i.e., within
+     * [width] x [height]).
+     *
+     * Unlike [decode], the memory needed is bounded by the size of the region rather
+     * than the size of the whole image, making this suitable for very large images.
+     */
+    fun decodeRegion(region: Rect, targetHeight: Int = 0): Bitmap? {
+        if (originalWidth == 0 || originalHeight == 0 || region.isEmpty || isCancelled) {
+            return null
+        }
+        // Map the region back into the coordinates of the image as stored
+        val storedRegion = when (rotation) {
+            90 -> Rect(region.top, originalHeight - region.right,
+                    region.bottom, originalHeight - region.left)
+            180 -> Rect(originalWidth - region.right, originalHeight - region.bottom,
+                    originalWidth - region.left, originalHeight - region.top)
+            270 -> Rect(originalWidth - region.bottom, region.left,
+                    originalWidth - region.top, region.right)
+            else -> Rect(region)
+        }
+        if (!storedRegion.intersect(0, 0, originalWidth, originalHeight)) {
+            return null
+        }
+        val regionDecoder = try {
+            source.newRegionDecoder()
+        } catch (e: Exception) {
+            if (BuildConfig.DEBUG) {
+                Log.w(TAG, "Error creating region decoder for $name: ${e.message}")
+            }
+            null
+        } ?: return null
+        return try {
+            val sampleSize = if (targetHeight != 0) {
+                region.height().sampleSize(targetHeight)
+            } else {
+                1
+            }
+            val options = BitmapFactory.Options().apply {
+                inPreferredConfig = Bitmap.Config.ARGB_8888
+                inSampleSize = sampleSize
+                inMutable = true
+                inBitmap = BitmapPool.getReusable(
+                        storedRegion.width().divideRoundUp(sampleSize),
+                        storedRegion.height().divideRoundUp(sampleSize))
+            }
+            activeOptions = options
+            val bitmap = try {
+                regionDecoder.decodeRegion(storedRegion, options)
+            } catch (e: IllegalArgumentException) {
+                BitmapPool.put(options.inBitmap)
+                options.inBitmap = null
+                regionDecoder.decodeRegion(storedRegion, options)
+            }
+            bitmap?.takeUnlessCancelled()?.rotate(rotation)
+        } catch (e: Exception) {
+            if (BuildConfig.DEBUG) {
+                Log.w(TAG, "Error decoding region $region of $name: ${e.message}")
+            }
+            null
+        } finally {
+            activeOptions = null
+            regionDecoder.recycle()
+        }
+    }
+
+    /**
+     * Return this bitmap to the [BitmapPool] and return null if the session
+     * was cancelled while it was being decoded
+     */
+    private fun Bitmap.takeUnlessCancelled(): Bitmap? = if (isCancelled) {
+        BitmapPool.put(this)
+        null
+    } else {
+        this
+    }
+
+    @RequiresApi(Build.VERSION_CODES.P)
+    private fun decodeExactWithImageDecoder(
+            imageDecoderSource: ImageDecoder.Source,
+            targetWidth: Int,
+            targetHeight: Int,
+            centerCrop: Boolean
+    ): Bitmap = ImageDecoder.decodeBitmap(imageDecoderSource) { decoder, info, _ ->
+        // Give up before allocating and decoding the pixels
+        cancellationSignal?.throwIfCanceled()
+        // The pixels are handed to RenderScript and GLUtils, which can't read
+        // hardware bitmaps
+        decoder.allocator = ImageDecoder.ALLOCATOR_SOFTWARE
+        // Only mutable bitmaps can be returned to the BitmapPool
+        decoder.isMutableRequired = true
+        // info.size already accounts for the EXIF rotation
+        val width = info.size.width
+        val height = info.size.height
+        if (centerCrop) {
+            val scale = max(targetWidth * 1f / width, targetHeight * 1f / height)
+            val scaledWidth = max(targetWidth, ceil(width * scale).toInt())
+            val scaledHeight = max(targetHeight, ceil(height * scale).toInt())
+            decoder.setTargetSize(scaledWidth, scaledHeight)
+            val left = (scaledWidth - targetWidth) / 2
+            val top = (scaledHeight - targetHeight) / 2
+            decoder.crop = Rect(left, top, left + targetWidth, top + targetHeight)
+        } else {
+            decoder.setTargetSize(targetWidth, targetHeight)
+        }
+    }
+
+    override fun close() {
+        cancellationSignal?.setOnCancelListener(null)
+        source.close()
+    }
+
+    override fun toString() = name
+
+    private sealed class Source : Closeable {
+        /**
+         * Return a stream positioned at the start of the image. The returned stream
+         * does not need to be closed.
+         */
+        abstract fun openInputStream(): InputStream
+
+        abstract fun decode(options: BitmapFactory.Options): Bitmap?
+
+        abstract fun newRegionDecoder(): BitmapRegionDecoder?
+
+        /**
+         * Return an [ImageDecoder.Source] reading from this source, or null if
+         * [ImageDecoder] cannot read it on this version of Android.
+         */
+        @RequiresApi(Build.VERSION_CODES.P)
+        abstract fun createImageDecoderSource(): ImageDecoder.Source?
+    }
+
+    private class SeekableSource(
+            private val descriptor: ParcelFileDescriptor
+    ) : Source() {
+        override fun openInputStream(): InputStream {
+            rewind()
+            // A FileInputStream created from a FileDescriptor does not own it
+            return FileInputStream(descriptor.fileDescriptor).buffered()
+        }
+
+        override fun decode(options: BitmapFactory.Options): Bitmap? {
+            rewind()
+            return BitmapFactory.decodeFileDescriptor(descriptor.fileDescriptor, null, options)
+        }
+
+        @Suppress("DEPRECATION")
+        override fun newRegionDecoder(): BitmapRegionDecoder? {
+            rewind()
+            return BitmapRegionDecoder.newInstance(descriptor.fileDescriptor, false)
+        }
+
+        @RequiresApi(Build.VERSION_CODES.P)
+        override fun createImageDecoderSource(): ImageDecoder.Source? {
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+                return null
+            }
+            // ImageDecoder closes the AssetFileDescriptor it is given,
+            // so give it a duplicate rather than our own descriptor
+            return ImageDecoder.createSource(Callable {
+                rewind()
+                AssetFileDescriptor(descriptor.dup(), 0, AssetFileDescriptor.UNKNOWN_LENGTH)
+            })
+        }
+
+        private fun rewind() {
+            Os.lseek(descriptor.fileDescriptor, 0, OsConstants.SEEK_SET)
+        }
+
+        override fun close() {
+            descriptor.close()
+        }
+    }
+
+    private class BufferedSource(private val bytes: ByteArray) : Source() {
+        override fun openInputStream(): InputStream = ByteArrayInputStream(bytes)
+
+        override fun decode(options: BitmapFactory.Options): Bitmap? =
+                BitmapFactory.decodeByteArray(bytes, 0, bytes.size, options)
+
+        override fun newRegionDecoder(): BitmapRegionDecoder? =
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+                    BitmapRegionDecoder.newInstance(bytes, 0, bytes.size)
+                } else {
+                    @Suppress("DEPRECATION")
+                    BitmapRegionDecoder.newInstance(bytes, 0, bytes.size, false)
+                }
+
+        @RequiresApi(Build.VERSION_CODES.P)
+        override fun createImageDecoderSource(): ImageDecoder.Source =
+                ImageDecoder.createSource(ByteBuffer.wrap(bytes))
+
+        override fun close() {
+        }
+    }
+}
+
+/**
+ * Return the centered region of this bitmap that matches the aspect ratio of
+ * [targetWidth] x [targetHeight].
+ */
+internal fun Bitmap.centerCropRect(targetWidth: Int, targetHeight: Int): Rect {
+    val targetAspectRatio = targetWidth * 1f / targetHeight
+    val cropWidth = min(width, (height * targetAspectRatio).roundToInt()).coerceAtLeast(1)
+    val cropHeight = min(height, (width / targetAspectRatio).roundToInt()).coerceAtLeast(1)
+    val left = (width - cropWidth) / 2
+    val top = (height - cropHeight) / 2
+    return Rect(left, top, left + cropWidth, top + cropHeight)
+}
+
+/**
+ * Rotate this bitmap by the given number of degrees (one of 0, 90, 180, or 270)
+ * into a bitmap from the [BitmapPool], returning this bitmap to the pool.
+ */
+internal fun Bitmap.rotate(rotation: Int): Bitmap {
+    if (rotation == 0) {
+        return this
+    }
+    val swapDimensions = rotation == 90 || rotation == 270
+    val rotatedWidth = if (swapDimensions) height else width
+    val rotatedHeight = if (swapDimensions) width else height
+    val rotateMatrix = Matrix().apply {
+        postRotate(rotation.toFloat())
+        // Move the rotated image back into the positive quadrant
+        when (rotation) {
+            90 -> postTranslate(height.toFloat(), 0f)
+            180 -> postTranslate(width.toFloat(), height.toFloat())
+            270 -> postTranslate(0f, width.toFloat())
+        }
+    }
+    return BitmapPool.get(rotatedWidth, rotatedHeight).also { rotatedBitmap ->
+        Canvas(rotatedBitmap).drawBitmap(this, rotateMatrix, Paint(Paint.FILTER_BITMAP_FLAG))
+        BitmapPool.put(this)
+    }
+}
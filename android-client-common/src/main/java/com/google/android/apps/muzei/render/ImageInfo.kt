@@ -0,0 +1,30 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.apps.muzei.render
+
+/**
+ * What is already known about an image before opening it, allowing an
+ * [ImageDecodeSession] to skip reading the image's header and EXIF data.
+ *
+ * The [width] and [height] are after applying the EXIF [rotation].
+ */
+data class ImageInfo(
+        val width: Int,
+        val height: Int,
+        val rotation: Int,
+        val luminance: Float? = null
+)
@@ -20,18 +20,21 @@ import android.content.ContentResolver
 import android.content.res.AssetManager
 import android.graphics.Bitmap
 import android.graphics.BitmapFactory
-import android.graphics.Matrix
 import android.net.Uri
 import android.os.Build
+import android.os.CancellationSignal
+import android.os.OperationCanceledException
+import android.os.ParcelFileDescriptor
 import android.util.Log
-import androidx.exifinterface.media.ExifInterface
+import kotlinx.coroutines.CoroutineStart
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.awaitCancellation
+import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 import net.nurik.roman.muzei.androidclientcommon.BuildConfig
 import java.io.FileNotFoundException
 import java.io.IOException
 import java.io.InputStream
-import kotlin.math.max
 
 fun InputStream.isValidImage(): Boolean {
     val options = BitmapFactory.Options().apply {
@@ -59,102 +62,122 @@ sealed class ImageLoader {
                 uri: Uri,
                 targetWidth: Int = 0,
                 targetHeight: Int = targetWidth
-        ) = withContext(Dispatchers.IO) {
-            ContentUriImageLoader(contentResolver, uri)
-                    .decode(targetWidth, targetHeight)
+        ) = ContentUriImageLoader(contentResolver, uri).cancellable { imageLoader ->
+            imageLoader.decode(targetWidth, targetHeight)
         }
-    }
 
-    fun getSize(): Pair<Int, Int> {
-        return try {
-            val (originalWidth, originalHeight) = openInputStream()?.use { input ->
-                val options = BitmapFactory.Options().apply {
-                    inJustDecodeBounds = true
-                }
-                BitmapFactory.decodeStream(input, null, options)
-                options.outWidth to options.outHeight
-            } ?: return 0 to 0
-            val rotation = getRotation()
-            val width = if (rotation == 90 || rotation == 270) originalHeight else originalWidth
-            val height = if (rotation == 90 || rotation == 270) originalWidth else originalHeight
-            return width to height
-        } catch (e: Exception) {
-            if (BuildConfig.DEBUG) {
-                Log.w(TAG, "Error decoding ${toString()}: ${e.message}")
+        suspend fun decodeExact(
+                contentResolver: ContentResolver,
+                uri: Uri,
+                targetWidth: Int,
+                targetHeight: Int = targetWidth,
+                centerCrop: Boolean = false
+        ) = ContentUriImageLoader(contentResolver, uri).cancellable { imageLoader ->
+            imageLoader.openSession()?.use { session ->
+                session.decodeExact(targetWidth, targetHeight, centerCrop)
             }
-            0 to 0
         }
-    }
 
-    fun decode(
-            targetWidth: Int = 0,
-            targetHeight: Int = targetWidth
-    ) : Bitmap? {
-        return try {
-            val (originalWidth, originalHeight) = openInputStream()?.use { input ->
-                val options = BitmapFactory.Options().apply {
-                    inJustDecodeBounds = true
-                }
-                BitmapFactory.decodeStream(input, null, options)
-                Pair(options.outWidth, options.outHeight)
-            } ?: return null
-            val rotation = getRotation()
-            val width = if (rotation == 90 || rotation == 270) originalHeight else originalWidth
-            val height = if (rotation == 90 || rotation == 270) originalWidth else originalHeight
-            openInputStream()?.use { input ->
-                BitmapFactory.decodeStream(input, null,
-                        BitmapFactory.Options().apply {
-                            inPreferredConfig = Bitmap.Config.ARGB_8888
-                            if (targetWidth != 0) {
-                                inSampleSize = max(
-                                        width.sampleSize(targetWidth),
-                                        height.sampleSize(targetHeight))
-                            }
-                        })
-            }?.run {
-                when (rotation) {
-                    0 -> this
-                    else -> {
-                        val rotateMatrix = Matrix().apply {
-                            postRotate(rotation.toFloat())
-                        }
-                        Bitmap.createBitmap(
-                                this, 0, 0,
-                                this.width, this.height,
-                                rotateMatrix, true).also { rotatedBitmap ->
-                            if (rotatedBitmap != this) {
-                                recycle()
-                            }
-                        }
-                    }
+        /**
+         * Run the blocking [block] on [Dispatchers.IO], cancelling the [ImageLoader]
+         * if the calling coroutine is cancelled so that any open or decode in
+         * progress stops early and returns null.
+         */
+        private suspend fun <T> ImageLoader.cancellable(
+                block: (ImageLoader) -> T
+        ): T = withContext(Dispatchers.IO) {
+            val cancelOnCancellation = launch(start = CoroutineStart.UNDISPATCHED) {
+                try {
+                    awaitCancellation()
+                } finally {
+                    // Cancelling after the block has finished has no effect
+                    this@cancellable.cancel()
                 }
             }
-        } catch (e: Exception) {
-            if (BuildConfig.DEBUG) {
-                Log.w(TAG, "Error decoding ${toString()}: ${e.message}")
+            try {
+                block(this@cancellable)
+            } finally {
+                cancelOnCancellation.cancel()
             }
-            null
         }
     }
 
-    fun getRotation(): Int = try {
-        openInputStream()?.use { input ->
-            val exifInterface = ExifInterface(input)
-            when (exifInterface.getAttributeInt(ExifInterface.TAG_ORIENTATION,
-                    ExifInterface.ORIENTATION_NORMAL)) {
-                ExifInterface.ORIENTATION_ROTATE_90 -> 90
-                ExifInterface.ORIENTATION_ROTATE_180 -> 180
-                ExifInterface.ORIENTATION_ROTATE_270 -> 270
-                else -> 0
+    /**
+     * Cancelled by [cancel] and passed along to the [ImageDecodeSession]s this
+     * loader opens
+     */
+    protected val cancellationSignal = CancellationSignal()
+
+    /**
+     * Whether this loader has been cancelled
+     */
+    val isCancelled get() = cancellationSignal.isCanceled
+
+    /**
+     * Cancel this loader, stopping any open or decode in progress and causing every
+     * later one to fail. Used to drop loads that have been superseded.
+     */
+    fun cancel() = cancellationSignal.cancel()
+
+    /**
+     * Open an [ImageDecodeSession] that reads the bounds, rotation, and pixel data
+     * of the image from a single open of the underlying source. The caller is
+     * responsible for closing the returned session.
+     */
+    fun openSession(): ImageDecodeSession? = try {
+        cancellationSignal.throwIfCanceled()
+        val descriptor = openFileDescriptor()
+        if (descriptor != null) {
+            ImageDecodeSession.open(descriptor, toString(), imageInfo, cancellationSignal)
+        } else {
+            openInputStream()?.let { input ->
+                ImageDecodeSession.open(input, toString(), imageInfo, cancellationSignal)
             }
-        } ?: 0
+        }
+    } catch (_: OperationCanceledException) {
+        null
     } catch (e: Exception) {
         if (BuildConfig.DEBUG) {
-            Log.w(TAG, "Couldn't open EXIF interface for ${toString()}", e)
+            Log.w(TAG, "Error opening ${toString()}: ${e.message}")
         }
-        0
+        null
     }
 
+    fun getSize(): Pair<Int, Int> = openSession()?.use { session ->
+        session.width to session.height
+    } ?: (0 to 0)
+
+    fun decode(
+            targetWidth: Int = 0,
+            targetHeight: Int = targetWidth
+    ) : Bitmap? = openSession()?.use { session ->
+        session.decode(targetWidth, targetHeight)
+    }
+
+    fun getRotation(): Int = openSession()?.use { session ->
+        session.rotation
+    } ?: 0
+
+    /**
+     * What is already known about the image, if anything, letting [openSession]
+     * skip reading the image's header and EXIF data
+     */
+    open val imageInfo: ImageInfo?
+        get() = null
+
+    /**
+     * A key that uniquely identifies this image, letting results processed from it be
+     * cached across loads, or null if it shouldn't be cached
+     */
+    open val cacheKey: String?
+        get() = null
+
+    /**
+     * Open a seekable [ParcelFileDescriptor] for the image, if the source supports it.
+     * Returning null falls back to [openInputStream].
+     */
+    open fun openFileDescriptor(): ParcelFileDescriptor? = null
+
     abstract fun openInputStream() : InputStream?
 }
 
@@ -163,9 +186,15 @@ sealed class ImageLoader {
  */
 class ContentUriImageLoader(
         private val contentResolver: ContentResolver,
-        private val uri: Uri
+        private val uri: Uri,
+        override val imageInfo: ImageInfo? = null,
+        override val cacheKey: String? = null
 ) : ImageLoader() {
 
+    @Throws(FileNotFoundException::class)
+    override fun openFileDescriptor(): ParcelFileDescriptor? =
+            contentResolver.openFileDescriptor(uri, "r", cancellationSignal)
+
     @Throws(FileNotFoundException::class)
     override fun openInputStream(): InputStream? =
             contentResolver.openInputStream(uri)
@@ -17,38 +17,45 @@
 package com.google.android.apps.muzei.render
 
 import android.graphics.Bitmap
-import android.graphics.Color
+import android.graphics.Canvas
+import android.graphics.Paint
+import android.graphics.Rect
+import kotlin.math.max
+import kotlin.math.min
 
-fun Bitmap?.darkness(): Float {
-    if (this == null || width == 0 || height == 0) {
-        return 0f
+/**
+ * Center crop this bitmap to the aspect ratio of [targetWidth] x [targetHeight] and
+ * scale it to exactly that size. This bitmap is never modified: a new bitmap is returned
+ * unless this bitmap is already the target size.
+ */
+fun Bitmap.centerCropTo(targetWidth: Int, targetHeight: Int): Bitmap {
+    if (width == targetWidth && height == targetHeight) {
+        return this
     }
-
-    var totalLum = 0
-    var n = 0
-    var x: Int
-    var y = 0
-    var color: Int
-    while (y < height) {
-        x = 0
-        while (x < width) {
-            ++n
-            color = getPixel(x, y)
-            totalLum += (0.21f * Color.red(color)
-                    + 0.71f * Color.green(color)
-                    + 0.07f * Color.blue(color)).toInt()
-            x++
-        }
-        y++
+    return Bitmap.createBitmap(targetWidth, targetHeight, Bitmap.Config.ARGB_8888).also { cropped ->
+        Canvas(cropped).drawBitmap(this, centerCropRect(targetWidth, targetHeight),
+                Rect(0, 0, targetWidth, targetHeight),
+                Paint(Paint.FILTER_BITMAP_FLAG))
     }
-
-    return totalLum / n / 256f
 }
 
-fun Int.sampleSize(targetSize: Int): Int {
-    var sampleSize = 1
-    while (this / (sampleSize shl 1) > targetSize) {
-        sampleSize = sampleSize shl 1
+/**
+ * Compute the [LuminanceStats] of this bitmap in a single pass, reading its pixels in
+ * strips of rows rather than one pixel at a time.
+ */
+fun Bitmap?.luminanceStats(): LuminanceStats {
+    val builder = LuminanceStats.Builder()
+    if (this == null || width == 0 || height == 0) {
+        return builder.build()
+    }
+    val rowsPerStrip = max(1, min(height, LuminanceStats.STRIP_PIXELS / width))
+    val strip = IntArray(width * rowsPerStrip)
+    var y = 0
+    while (y < height) {
+        val rows = min(rowsPerStrip, height - y)
+        getPixels(strip, 0, width, 0, y, width, rows)
+        builder.add(strip, 0, width * rows)
+        y += rows
     }
-    return sampleSize
+    return builder.build()
 }
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.apps.muzei.render
+
+/**
+ * Luminance statistics of an image: the mean luminance and a 256 bin luminance
+ * histogram from which percentiles can be read.
+ *
+ * Luminance uses the same weights as the original `darkness()` computation
+ * (0.21 R + 0.71 G + 0.07 B), in fixed point.
+ */
+class LuminanceStats private constructor(
+        private val histogram: IntArray,
+        private val luminanceSum: Long,
+        val pixelCount: Int
+) {
+
+    companion object {
+        const val BINS = 256
+        /**
+         * The number of pixels read from a bitmap at a time
+         */
+        internal const val STRIP_PIXELS = 16 * 1024
+
+        /**
+         * The luminance of an ARGB color, from 0 to 255
+         */
+        fun luminance(color: Int) =
+                (54 * ((color shr 16) and 0xff) +
+                        182 * ((color shr 8) and 0xff) +
+                        18 * (color and 0xff)) shr 8
+    }
+
+    /**
+     * The mean luminance of the image, from 0 (black) to 1 (white)
+     */
+    val mean: Float
+        get() = if (pixelCount == 0) 0f else luminanceSum.toFloat() / pixelCount / BINS
+
+    /**
+     * The number of pixels with the given luminance, from 0 to 255
+     */
+    fun count(luminance: Int) = histogram[luminance]
+
+    /**
+     * The luminance, from 0 to 1, below which the given fraction
+     * (from 0 to 1) of the image's pixels fall.
+     */
+    fun percentile(fraction: Float): Float {
+        if (pixelCount == 0) {
+            return 0f
+        }
+        val target = (fraction.coerceIn(0f, 1f) * pixelCount).toLong()
+        var seen = 0L
+        for (bin in 0 until BINS) {
+            seen += histogram[bin]
+            if (seen > target) {
+                return bin * 1f / BINS
+            }
+        }
+        return (BINS - 1) * 1f / BINS
+    }
+
+    /**
+     * Accumulates [LuminanceStats] from batches of ARGB pixels.
+     */
+    class Builder {
+        private val histogram = IntArray(BINS)
+        private var luminanceSum = 0L
+        private var pixelCount = 0
+
+        fun add(pixels: IntArray, offset: Int = 0, length: Int = pixels.size - offset): Builder {
+            var sum = 0L
+            for (i in offset until offset + length) {
+                val luminance = luminance(pixels[i])
+                histogram[luminance]++
+                sum += luminance
+            }
+            luminanceSum += sum
+            pixelCount += length
+            return this
+        }
+
+        fun build() = LuminanceStats(histogram.copyOf(), luminanceSum, pixelCount)
+    }
+}
@@ -26,6 +26,7 @@ import androidx.room.Index
 import androidx.room.PrimaryKey
 import androidx.room.TypeConverters
 import com.google.android.apps.muzei.api.MuzeiContract
+import com.google.android.apps.muzei.render.ImageInfo
 import com.google.android.apps.muzei.room.converter.DateTypeConverter
 import com.google.android.apps.muzei.room.converter.UriTypeConverter
 import java.util.Date
@@ -56,6 +57,35 @@ data class Artwork(
     @ColumnInfo(name = "date_added")
     var dateAdded = Date()
 
+    /**
+     * The width of the image after applying its EXIF [rotation], or 0 if unknown
+     */
+    @ColumnInfo(defaultValue = "0")
+    var width = 0
+
+    /**
+     * The height of the image after applying its EXIF [rotation], or 0 if unknown
+     */
+    @ColumnInfo(defaultValue = "0")
+    var height = 0
+
+    /**
+     * The EXIF rotation of the image, in degrees
+     */
+    @ColumnInfo(defaultValue = "0")
+    var rotation = 0
+
+    /**
+     * The mean luminance of the image, from 0 (black) to 1 (white)
+     */
+    var luminance: Float? = null
+
+    var primaryColor: Int? = null
+
+    var secondaryColor: Int? = null
+
+    var tertiaryColor: Int? = null
+
     companion object {
 
         fun getContentUri(id: Long): Uri {
@@ -69,3 +99,14 @@ data class Artwork(
 
 val Artwork.contentUri: Uri
     get() = Artwork.getContentUri(id)
+
+/**
+ * The [ImageInfo] stored when the artwork was loaded, or null for artwork
+ * loaded before it was stored
+ */
+val Artwork.imageInfo: ImageInfo?
+    get() = if (width != 0 && height != 0) {
+        ImageInfo(width, height, rotation, luminance)
+    } else {
+        null
+    }
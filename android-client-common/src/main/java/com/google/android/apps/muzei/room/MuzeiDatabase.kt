@@ -40,7 +40,7 @@ import java.io.File
     autoMigrations = [
         AutoMigration(from = 4, to = 5)
     ],
-    version = 9
+    version = 10
 )
 abstract class MuzeiDatabase : RoomDatabase() {
 
@@ -64,7 +64,8 @@ abstract class MuzeiDatabase : RoomDatabase() {
                                 MIGRATION_5_6,
                                 Migration6to8(applicationContext),
                                 Migration7to8(applicationContext),
-                                MIGRATION_8_9)
+                                MIGRATION_8_9,
+                                MIGRATION_9_10)
                         .build().also { database ->
                             database.invalidationTracker.addObserver(
                                     object : InvalidationTracker.Observer("artwork") {
@@ -373,5 +374,19 @@ abstract class MuzeiDatabase : RoomDatabase() {
                 db.execSQL("DROP TABLE sources")
             }
         }
+
+        private val MIGRATION_9_10 = object : Migration(9, 10) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                // Existing artwork is left with unknown image info, which is
+                // read from the image itself as before
+                db.execSQL("ALTER TABLE artwork ADD COLUMN width INTEGER NOT NULL DEFAULT 0")
+                db.execSQL("ALTER TABLE artwork ADD COLUMN height INTEGER NOT NULL DEFAULT 0")
+                db.execSQL("ALTER TABLE artwork ADD COLUMN rotation INTEGER NOT NULL DEFAULT 0")
+                db.execSQL("ALTER TABLE artwork ADD COLUMN luminance REAL")
+                db.execSQL("ALTER TABLE artwork ADD COLUMN primaryColor INTEGER")
+                db.execSQL("ALTER TABLE artwork ADD COLUMN secondaryColor INTEGER")
+                db.execSQL("ALTER TABLE artwork ADD COLUMN tertiaryColor INTEGER")
+            }
+        }
     }
 }
\ No newline at end of file
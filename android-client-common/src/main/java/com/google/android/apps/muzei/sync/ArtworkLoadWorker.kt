@@ -16,10 +16,12 @@
 
 package com.google.android.apps.muzei.sync
 
+import android.app.WallpaperColors
 import android.content.ContentUris
 import android.content.Context
 import android.database.Cursor
 import android.net.Uri
+import android.os.Build
 import android.provider.BaseColumns
 import android.util.Log
 import androidx.work.Constraints
@@ -31,6 +33,7 @@ import androidx.work.OneTimeWorkRequestBuilder
 import androidx.work.PeriodicWorkRequestBuilder
 import androidx.work.WorkManager
 import androidx.work.WorkerParameters
+import androidx.work.workDataOf
 import com.google.android.apps.muzei.api.internal.ProtocolConstants
 import com.google.android.apps.muzei.api.internal.ProtocolConstants.KEY_MAX_LOADED_ARTWORK_ID
 import com.google.android.apps.muzei.api.internal.ProtocolConstants.KEY_RECENT_ARTWORK_IDS
@@ -40,18 +43,20 @@ import com.google.android.apps.muzei.api.internal.ProtocolConstants.METHOD_REQUE
 import com.google.android.apps.muzei.api.internal.getRecentIds
 import com.google.android.apps.muzei.api.provider.MuzeiArtProvider
 import com.google.android.apps.muzei.api.provider.ProviderContract
-import com.google.android.apps.muzei.render.isValidImage
+import com.google.android.apps.muzei.render.ImageDecodeSession
+import com.google.android.apps.muzei.render.luminanceStats
 import com.google.android.apps.muzei.room.Artwork
 import com.google.android.apps.muzei.room.MuzeiDatabase
+import com.google.android.apps.muzei.util.BitmapPool
 import com.google.android.apps.muzei.util.ContentProviderClientCompat
 import com.google.android.apps.muzei.util.getLong
+import com.google.android.apps.muzei.util.randomPermutation
 import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.withContext
 import net.nurik.roman.muzei.androidclientcommon.BuildConfig
 import java.io.IOException
 import java.util.concurrent.TimeUnit
-import kotlin.random.Random
 
 /**
  * Worker responsible for loading artwork from a [MuzeiArtProvider] and inserting it into
@@ -65,7 +70,15 @@ class ArtworkLoadWorker(
     companion object {
         private const val TAG = "ArtworkLoad"
         private const val PERIODIC_TAG = "ArtworkLoadPeriodic"
+        private const val PREPARE_TAG = "ArtworkPrepare"
+        private const val PREPARE_CHARGING_TAG = "ArtworkPrepareCharging"
+        private const val KEY_PREPARE_NEXT = "prepare_next"
+        // How far into the load period to pick the next artwork, ahead of periodic
+        // loads running in the last tenth of it
+        private const val PREPARE_DELAY_FRACTION = 0.8
         private const val ARTWORK_LOAD_THROTTLE = 250L // quarter second
+        // The size at which images are decoded to compute their luminance and colors
+        private const val IMAGE_INFO_DECODE_SIZE = 64
 
         internal fun enqueueNext(context: Context) {
             val workManager = WorkManager.getInstance(context)
@@ -91,11 +104,49 @@ class ArtworkLoadWorker(
                                     })
                                     .build())
                             .build())
+            enqueuePrepareNext(context, loadFrequencySeconds, loadOnWifi)
+        }
+
+        /**
+         * Pick the [NextArtwork] near the end of the load period, or as soon as the
+         * device is charging, so that it can be prepared before it is loaded.
+         */
+        private fun enqueuePrepareNext(
+                context: Context,
+                loadFrequencySeconds: Long,
+                loadOnWifi: Boolean
+        ) {
+            val workManager = WorkManager.getInstance(context)
+            val networkType = if (loadOnWifi) {
+                NetworkType.UNMETERED
+            } else {
+                NetworkType.CONNECTED
+            }
+            val inputData = workDataOf(KEY_PREPARE_NEXT to true)
+            workManager.enqueueUniqueWork(PREPARE_TAG, ExistingWorkPolicy.REPLACE,
+                    OneTimeWorkRequestBuilder<ArtworkLoadWorker>()
+                            .setInitialDelay((loadFrequencySeconds * PREPARE_DELAY_FRACTION).toLong(),
+                                    TimeUnit.SECONDS)
+                            .setInputData(inputData)
+                            .setConstraints(Constraints.Builder()
+                                    .setRequiredNetworkType(networkType)
+                                    .build())
+                            .build())
+            workManager.enqueueUniqueWork(PREPARE_CHARGING_TAG, ExistingWorkPolicy.REPLACE,
+                    OneTimeWorkRequestBuilder<ArtworkLoadWorker>()
+                            .setInputData(inputData)
+                            .setConstraints(Constraints.Builder()
+                                    .setRequiredNetworkType(networkType)
+                                    .setRequiresCharging(true)
+                                    .build())
+                            .build())
         }
 
         fun cancelPeriodic(context: Context) {
             val workManager = WorkManager.getInstance(context)
             workManager.cancelUniqueWork(PERIODIC_TAG)
+            workManager.cancelUniqueWork(PREPARE_TAG)
+            workManager.cancelUniqueWork(PREPARE_CHARGING_TAG)
         }
     }
 
@@ -106,13 +157,31 @@ class ArtworkLoadWorker(
         val database = MuzeiDatabase.getInstance(applicationContext)
         val (authority) = database.providerDao()
                 .getCurrentProvider() ?: return@withContext Result.failure()
+        // When preparing, only pick the next artwork rather than loading it
+        val prepareNext = inputData.getBoolean(KEY_PREPARE_NEXT, false)
+        val nextArtworkUri = NextArtwork.get(applicationContext, authority)
+        if (prepareNext && nextArtworkUri != null) {
+            // Already picked by the other prepare request
+            return@withContext Result.success()
+        }
         if (BuildConfig.DEBUG) {
-            Log.d(TAG, "Artwork Load for $authority")
+            Log.d(TAG, "Artwork ${if (prepareNext) "Prepare" else "Load"} for $authority")
         }
         val loadOrdering = ProviderManager.getInstance(applicationContext).loadOrdering
         val contentUri = ProviderContract.getContentUri(authority)
         try {
             ContentProviderClientCompat.getClient(applicationContext, contentUri)?.use { client ->
+                if (!prepareNext) {
+                    NextArtwork.clear(applicationContext)
+                    // Load the artwork picked ahead of time, if it is still valid
+                    nextArtworkUri?.let { client.query(it) }?.use { nextArtwork ->
+                        if (nextArtwork.moveToFirst()) {
+                            checkForValidArtwork(client, contentUri, nextArtwork)?.let { artwork ->
+                                return@withContext load(client, authority, artwork, false)
+                            }
+                        }
+                    }
+                }
                 val result = client.call(METHOD_GET_LOAD_INFO)
                         ?: return@withContext Result.failure()
                 val maxLoadedArtworkId = result.getLong(KEY_MAX_LOADED_ARTWORK_ID, 0L)
@@ -139,12 +208,6 @@ class ArtworkLoadWorker(
                         while (newArtwork.moveToNext()) {
                             val validArtwork = checkForValidArtwork(client, contentUri, newArtwork)
                             if (validArtwork != null) {
-                                validArtwork.providerAuthority = authority
-                                val artworkId = database.artworkDao().insert(validArtwork)
-                                if (BuildConfig.DEBUG) {
-                                    Log.d(TAG, "Loaded ${validArtwork.imageUri} into id $artworkId")
-                                }
-                                client.call(METHOD_MARK_ARTWORK_LOADED, validArtwork.imageUri.toString())
                                 // If we just loaded the last new artwork, we should request that they load another
                                 // in preparation for the next load
                                 if (!newArtwork.moveToNext()) {
@@ -153,7 +216,7 @@ class ArtworkLoadWorker(
                                     }
                                     client.call(METHOD_REQUEST_LOAD)
                                 }
-                                return@withContext Result.success()
+                                return@withContext load(client, authority, validArtwork, prepareNext)
                             }
                         }
                         if (BuildConfig.DEBUG) {
@@ -187,14 +250,8 @@ class ArtworkLoadWorker(
                         // to the first artwork again to continue loading in order
                         if (loadOrdering == ProviderManager.LoadOrdering.IN_ORDER) {
                             if (allArtwork.moveToPosition(0)) {
-                                checkForValidArtwork(client, contentUri, allArtwork)?.apply {
-                                    providerAuthority = authority
-                                    val artworkId = database.artworkDao().insert(this)
-                                    if (BuildConfig.DEBUG) {
-                                        Log.d(TAG, "Loaded $imageUri into id $artworkId")
-                                    }
-                                    client.call(METHOD_MARK_ARTWORK_LOADED, imageUri.toString())
-                                    return@withContext Result.success()
+                                checkForValidArtwork(client, contentUri, allArtwork)?.let { artwork ->
+                                    return@withContext load(client, authority, artwork, prepareNext)
                                 }
                             }
                         }
@@ -224,15 +281,11 @@ class ArtworkLoadWorker(
                             }
                         }
                         // Now generate a random sequence for non recent artwork
-                        val nonRecentArtworkSequence = generateSequence {
-                            Random.nextInt(allArtwork.count)
-                        }.distinct().take(allArtwork.count)
+                        val nonRecentArtworkSequence = randomPermutation(allArtwork.count)
                             .filterNot(isCurrentArtwork)
                             .filterNot(isRecentArtwork)
                         // Now generate another sequence for recent artwork
-                        val recentArtworkSequence = generateSequence {
-                            Random.nextInt(allArtwork.count)
-                        }.distinct().take(allArtwork.count)
+                        val recentArtworkSequence = randomPermutation(allArtwork.count)
                             .filterNot(isCurrentArtwork)
                             .filter(isRecentArtwork)
                         // And build the final sequence that iterates first through
@@ -242,14 +295,8 @@ class ArtworkLoadWorker(
                         while (iterator.hasNext()) {
                             val position = iterator.next()
                             if (allArtwork.moveToPosition(position)) {
-                                checkForValidArtwork(client, contentUri, allArtwork)?.apply {
-                                    providerAuthority = authority
-                                    val artworkId = database.artworkDao().insert(this)
-                                    if (BuildConfig.DEBUG) {
-                                        Log.d(TAG, "Loaded $imageUri into id $artworkId")
-                                    }
-                                    client.call(METHOD_MARK_ARTWORK_LOADED, imageUri.toString())
-                                    return@withContext Result.success()
+                                checkForValidArtwork(client, contentUri, allArtwork)?.let { artwork ->
+                                    return@withContext load(client, authority, artwork, prepareNext)
                                 }
                             }
                         }
@@ -268,6 +315,37 @@ class ArtworkLoadWorker(
         Result.retry()
     }
 
+    /**
+     * Insert the artwork as the current artwork or, when preparing the next artwork,
+     * only pick it as the [NextArtwork] for the next load.
+     */
+    private suspend fun load(
+            client: ContentProviderClientCompat,
+            authority: String,
+            artwork: Artwork,
+            prepareNext: Boolean
+    ): Result {
+        if (prepareNext) {
+            NextArtwork.set(applicationContext, authority, artwork.imageUri)
+            if (BuildConfig.DEBUG) {
+                Log.d(TAG, "Picked ${artwork.imageUri} as the next artwork")
+            }
+            return Result.success()
+        }
+        artwork.providerAuthority = authority
+        val artworkId = MuzeiDatabase.getInstance(applicationContext).artworkDao().insert(artwork)
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, "Loaded ${artwork.imageUri} into id $artworkId")
+        }
+        client.call(METHOD_MARK_ARTWORK_LOADED, artwork.imageUri.toString())
+        val providerManager = ProviderManager.getInstance(applicationContext)
+        val loadFrequencySeconds = providerManager.loadFrequencySeconds
+        if (loadFrequencySeconds > 0) {
+            enqueuePrepareNext(applicationContext, loadFrequencySeconds, providerManager.loadOnWifi)
+        }
+        return Result.success()
+    }
+
     private suspend fun checkForValidArtwork(
             client: ContentProviderClientCompat,
             contentUri: Uri,
@@ -276,12 +354,15 @@ class ArtworkLoadWorker(
         val providerArtwork = com.google.android.apps.muzei.api.provider.Artwork.fromCursor(data)
         val artworkUri = ContentUris.withAppendedId(contentUri, providerArtwork.id)
         try {
-            client.openInputStream(artworkUri)?.use { inputStream ->
-                if (inputStream.isValidImage()) {
+            client.openFile(artworkUri)?.let { descriptor ->
+                ImageDecodeSession.open(descriptor, artworkUri.toString())
+            }?.use { session ->
+                if (session.isValid) {
                     return Artwork(artworkUri).apply {
                         title = providerArtwork.title
                         byline = providerArtwork.byline
                         attribution = providerArtwork.attribution
+                        setImageInfo(session)
                     }
                 } else {
                     if (BuildConfig.DEBUG) {
@@ -303,4 +384,23 @@ class ArtworkLoadWorker(
 
         return null
     }
+
+    /**
+     * Store what the renderer and other consumers would otherwise need to
+     * read from the image each time it is loaded
+     */
+    private fun Artwork.setImageInfo(session: ImageDecodeSession) {
+        width = session.width
+        height = session.height
+        rotation = session.rotation
+        val bitmap = session.decode(IMAGE_INFO_DECODE_SIZE) ?: return
+        luminance = bitmap.luminanceStats().mean
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1) {
+            val colors = WallpaperColors.fromBitmap(bitmap)
+            primaryColor = colors.primaryColor.toArgb()
+            secondaryColor = colors.secondaryColor?.toArgb()
+            tertiaryColor = colors.tertiaryColor?.toArgb()
+        }
+        BitmapPool.put(bitmap)
+    }
 }
\ No newline at end of file
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.apps.muzei.sync
+
+import android.content.Context
+import android.net.Uri
+import androidx.core.content.edit
+import androidx.core.net.toUri
+import androidx.preference.PreferenceManager
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+
+/**
+ * The artwork [ArtworkLoadWorker] picked and validated ahead of the next periodic
+ * load, which that load then inserts rather than picking again. Until then, the
+ * wallpaper can prepare it so that switching to it doesn't wait on decoding and
+ * blurring it.
+ */
+object NextArtwork {
+    private const val PREF_NEXT_ARTWORK_AUTHORITY = "nextArtworkAuthority"
+    private const val PREF_NEXT_ARTWORK_URI = "nextArtworkUri"
+
+    private var uriFlow: MutableStateFlow<Uri?>? = null
+
+    /**
+     * The provider's URI of the next artwork, or null if none was picked.
+     */
+    fun getUriFlow(context: Context): StateFlow<Uri?> = mutableUriFlow(context)
+
+    @Synchronized
+    private fun mutableUriFlow(context: Context) = uriFlow ?: MutableStateFlow(
+            PreferenceManager.getDefaultSharedPreferences(context)
+                    .getString(PREF_NEXT_ARTWORK_URI, null)?.toUri()
+    ).also { uriFlow = it }
+
+    /**
+     * Get the next artwork's URI if it was picked from the given provider.
+     */
+    internal fun get(context: Context, authority: String): Uri? {
+        val prefs = PreferenceManager.getDefaultSharedPreferences(context)
+        if (prefs.getString(PREF_NEXT_ARTWORK_AUTHORITY, null) != authority) {
+            return null
+        }
+        return prefs.getString(PREF_NEXT_ARTWORK_URI, null)?.toUri()
+    }
+
+    @Synchronized
+    internal fun set(context: Context, authority: String, uri: Uri) {
+        PreferenceManager.getDefaultSharedPreferences(context).edit {
+            putString(PREF_NEXT_ARTWORK_AUTHORITY, authority)
+            putString(PREF_NEXT_ARTWORK_URI, uri.toString())
+        }
+        mutableUriFlow(context).value = uri
+    }
+
+    @Synchronized
+    internal fun clear(context: Context) {
+        PreferenceManager.getDefaultSharedPreferences(context).edit {
+            remove(PREF_NEXT_ARTWORK_AUTHORITY)
+            remove(PREF_NEXT_ARTWORK_URI)
+        }
+        mutableUriFlow(context).value = null
+    }
+}
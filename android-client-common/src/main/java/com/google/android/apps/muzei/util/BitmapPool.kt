@@ -0,0 +1,198 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.apps.muzei.util
+
+import android.content.ComponentCallbacks2
+import android.graphics.Bitmap
+import android.graphics.Color
+import android.util.Log
+import net.nurik.roman.muzei.androidclientcommon.BuildConfig
+import java.util.TreeMap
+
+/**
+ * A process wide pool of mutable [Bitmap]s, bucketed by [Bitmap.Config] and allocation
+ * size, so that the artwork pipeline can reuse the memory of bitmaps it no longer needs
+ * rather than leaving them for the garbage collector.
+ *
+ * Bitmaps are handed out for any request whose byte count fits in a pooled bitmap
+ * of at most [MAX_SIZE_MULTIPLE] times that size and are reconfigured to the
+ * requested dimensions. When the pool grows past [maxSizeBytes], the least recently
+ * added bitmaps are recycled.
+ */
+object BitmapPool {
+    private const val TAG = "BitmapPool"
+
+    /**
+     * The largest ratio between the size of a pooled bitmap and the requested size
+     * that will still be considered a match, to avoid pinning very large bitmaps
+     * for small requests.
+     */
+    private const val MAX_SIZE_MULTIPLE = 4
+
+    /**
+     * The maximum number of bytes held by the pool. Defaults to an eighth of the
+     * maximum heap size.
+     */
+    var maxSizeBytes: Long = Runtime.getRuntime().maxMemory() / 8
+        set(value) {
+            field = value
+            trimToSize(value)
+        }
+
+    private val buckets = mutableMapOf<Bitmap.Config, TreeMap<Int, ArrayDeque<Bitmap>>>()
+    // Insertion order of every pooled bitmap, used for LRU eviction
+    private val insertionOrder = LinkedHashSet<Bitmap>()
+
+    var sizeBytes = 0L
+        private set
+    var hitCount = 0
+        private set
+    var missCount = 0
+        private set
+    var putCount = 0
+        private set
+    var evictionCount = 0
+        private set
+
+    /**
+     * Get a bitmap of exactly [width] x [height], reusing a pooled bitmap when possible.
+     * The returned bitmap is always mutable and cleared to transparent.
+     */
+    fun get(width: Int, height: Int, config: Bitmap.Config = Bitmap.Config.ARGB_8888): Bitmap {
+        val reused = getReusable(width, height, config)
+        if (reused != null) {
+            reused.reconfigure(width, height, config)
+            reused.eraseColor(Color.TRANSPARENT)
+            return reused
+        }
+        return Bitmap.createBitmap(width, height, config)
+    }
+
+    /**
+     * Get a pooled bitmap with enough memory to hold a [width] x [height] bitmap of the
+     * given [config] without changing its dimensions, or null if there is none. This is
+     * suitable for [android.graphics.BitmapFactory.Options.inBitmap], which reconfigures
+     * the bitmap itself.
+     */
+    @Synchronized
+    fun getReusable(
+            width: Int,
+            height: Int,
+            config: Bitmap.Config = Bitmap.Config.ARGB_8888
+    ): Bitmap? {
+        val byteCount = width * height * config.bytesPerPixel
+        if (byteCount <= 0) {
+            return null
+        }
+        val bucket = buckets[config] ?: run {
+            missCount++
+            return null
+        }
+        val entry = bucket.ceilingEntry(byteCount)
+        if (entry == null || entry.key > byteCount.toLong() * MAX_SIZE_MULTIPLE) {
+            missCount++
+            return null
+        }
+        val bitmap = entry.value.removeFirst()
+        if (entry.value.isEmpty()) {
+            bucket.remove(entry.key)
+        }
+        insertionOrder.remove(bitmap)
+        sizeBytes -= entry.key
+        hitCount++
+        return bitmap
+    }
+
+    /**
+     * Return a bitmap that is no longer needed to the pool. Bitmaps that cannot be
+     * reused (immutable, hardware, or larger than the whole pool) are recycled.
+     * Callers must not use the bitmap after calling this method.
+     */
+    @Synchronized
+    fun put(bitmap: Bitmap?) {
+        if (bitmap == null || bitmap.isRecycled || bitmap in insertionOrder) {
+            return
+        }
+        val config = bitmap.config
+        val byteCount = bitmap.allocationByteCount
+        if (!bitmap.isMutable || config == null || config.bytesPerPixel == 0 ||
+                byteCount > maxSizeBytes) {
+            bitmap.recycle()
+            return
+        }
+        insertionOrder.add(bitmap)
+        buckets.getOrPut(config) { TreeMap() }
+                .getOrPut(byteCount) { ArrayDeque() }
+                .addLast(bitmap)
+        sizeBytes += byteCount
+        putCount++
+        trimToSize(maxSizeBytes)
+    }
+
+    /**
+     * Recycle pooled bitmaps, oldest first, until the pool holds at most [size] bytes.
+     */
+    @Synchronized
+    fun trimToSize(size: Long) {
+        val iterator = insertionOrder.iterator()
+        while (sizeBytes > size && iterator.hasNext()) {
+            val bitmap = iterator.next()
+            iterator.remove()
+            val byteCount = bitmap.allocationByteCount
+            val bucket = buckets[bitmap.config]
+            val sameSize = bucket?.get(byteCount)
+            sameSize?.remove(bitmap)
+            if (sameSize?.isEmpty() == true) {
+                bucket?.remove(byteCount)
+            }
+            sizeBytes -= byteCount
+            evictionCount++
+            bitmap.recycle()
+        }
+        if (BuildConfig.DEBUG && size == 0L) {
+            Log.d(TAG, toString())
+        }
+    }
+
+    /**
+     * Recycle every pooled bitmap.
+     */
+    fun clear() = trimToSize(0)
+
+    /**
+     * Release memory in response to [ComponentCallbacks2.onTrimMemory].
+     */
+    fun onTrimMemory(level: Int) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            clear()
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            trimToSize(maxSizeBytes / 2)
+        }
+    }
+
+    @Synchronized
+    override fun toString() = "BitmapPool[size=$sizeBytes, maxSize=$maxSizeBytes, " +
+            "hits=$hitCount, misses=$missCount, puts=$putCount, evictions=$evictionCount]"
+
+    private val Bitmap.Config.bytesPerPixel
+        get() = when (this) {
+            Bitmap.Config.ALPHA_8 -> 1
+            Bitmap.Config.RGB_565, Bitmap.Config.ARGB_4444 -> 2
+            Bitmap.Config.ARGB_8888 -> 4
+            else -> 0
+        }
+}
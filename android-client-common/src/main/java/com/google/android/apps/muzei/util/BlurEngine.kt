@@ -0,0 +1,75 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.apps.muzei.util
+
+import android.content.Context
+import android.graphics.Bitmap
+import android.os.Build
+
+/**
+ * A backend for [ImageBlurrer] that blurs and desaturates bitmaps.
+ */
+interface BlurEngine {
+
+    companion object {
+        /**
+         * Create the preferred [BlurEngine] for this device. RenderScript is only
+         * emulated on the CPU from API 31, so [KotlinBlurEngine] is used there.
+         */
+        fun create(context: Context): BlurEngine =
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+                    KotlinBlurEngine()
+                } else {
+                    RenderScriptBlurEngine(context)
+                }
+
+        /**
+         * Create the preferred [BlurEngine] for previews: small images blurred while
+         * the user waits. From API 31, [RenderEffectBlurEngine] blurs these on the GPU
+         * rather than occupying every core, as [KotlinBlurEngine] does.
+         */
+        fun createForPreviews(context: Context): BlurEngine =
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+                    RenderEffectBlurEngine()
+                } else {
+                    create(context)
+                }
+    }
+
+    /**
+     * A name for this engine, used when logging
+     */
+    val name: String
+        get() = javaClass.simpleName
+
+    /**
+     * The largest blur radius, in pixels, this engine supports
+     */
+    val maxRadius: Float
+
+    /**
+     * Blur [source] by [radius] pixels and desaturate it by [desaturateAmount]
+     * (from 0 to 1), writing the result into [dest], which is the same size and
+     * config as [source]. [source] is not modified.
+     */
+    fun blur(source: Bitmap, dest: Bitmap, radius: Float, desaturateAmount: Float)
+
+    /**
+     * Release any resources held by this engine.
+     */
+    fun destroy()
+}
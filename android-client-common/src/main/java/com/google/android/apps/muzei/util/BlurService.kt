@@ -0,0 +1,103 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.apps.muzei.util
+
+import android.content.ComponentCallbacks2
+import android.content.Context
+import android.graphics.Bitmap
+import android.os.Build
+
+/**
+ * A process wide [BlurEngine], so that blurring an image doesn't pay for creating
+ * and destroying an engine (such as a RenderScript context and its allocations)
+ * each time, which dominates the cost of blurring small images.
+ *
+ * Engines are created from the application context on first use and kept until
+ * [release] or [onTrimMemory]. Blurs are serialized, as engines aren't thread safe.
+ */
+object BlurService {
+    @Volatile
+    private var engine: BlurEngine? = null
+    @Volatile
+    private var previewEngine: BlurEngine? = null
+
+    /**
+     * Get a [BlurEngine] that blurs with the shared engine from [BlurEngine.create].
+     * Destroying the returned engine does not release the shared engine.
+     */
+    fun engine(context: Context): BlurEngine =
+            SharedBlurEngine(context.applicationContext, preview = false)
+
+    /**
+     * Get a [BlurEngine] that blurs with the shared engine from
+     * [BlurEngine.createForPreviews]. Below API 31 this shares the same engine as
+     * [engine], rather than creating a second RenderScript context.
+     */
+    fun previewEngine(context: Context): BlurEngine =
+            SharedBlurEngine(context.applicationContext, preview = true)
+
+    @Synchronized
+    private fun getOrCreateEngine(context: Context, preview: Boolean): BlurEngine = when {
+        !preview -> engine ?: BlurEngine.create(context).also { engine = it }
+        Build.VERSION.SDK_INT < Build.VERSION_CODES.S -> getOrCreateEngine(context, false)
+        else -> previewEngine ?: BlurEngine.createForPreviews(context).also { previewEngine = it }
+    }
+
+    /**
+     * Destroy the shared engines. The next blur will create new ones.
+     */
+    @Synchronized
+    fun release() {
+        engine?.destroy()
+        engine = null
+        previewEngine?.destroy()
+        previewEngine = null
+    }
+
+    /**
+     * Release memory in response to [ComponentCallbacks2.onTrimMemory].
+     */
+    fun onTrimMemory(level: Int) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            release()
+        }
+    }
+
+    private class SharedBlurEngine(
+            private val context: Context,
+            private val preview: Boolean
+    ) : BlurEngine {
+        override val name: String
+            get() = synchronized(BlurService) { getOrCreateEngine(context, preview).name }
+
+        override val maxRadius: Float
+            // Each engine's limit never changes, so only wait on a blur in progress
+            // when the engine still has to be created
+            get() = (if (preview) previewEngine else engine)?.maxRadius
+                    ?: synchronized(BlurService) { getOrCreateEngine(context, preview).maxRadius }
+
+        override fun blur(source: Bitmap, dest: Bitmap, radius: Float, desaturateAmount: Float) {
+            synchronized(BlurService) {
+                getOrCreateEngine(context, preview).blur(source, dest, radius, desaturateAmount)
+            }
+        }
+
+        override fun destroy() {
+            // The shared engine outlives each of its users
+        }
+    }
+}
@@ -97,6 +97,21 @@ class ContentProviderClientCompat private constructor(
         }
     }
 
+    @Throws(FileNotFoundException::class, RemoteException::class)
+    suspend fun openFile(
+            url: Uri
+    ): ParcelFileDescriptor? = withContext(Dispatchers.Default) {
+        try {
+            mContentProviderClient.openFile(url, "r")
+        } catch (e: Exception) {
+            when (e) {
+                is FileNotFoundException -> throw e
+                is RemoteException -> throw e
+                else -> throw RemoteException(e.message)
+            }
+        }
+    }
+
     override fun close() {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
             mContentProviderClient.close()
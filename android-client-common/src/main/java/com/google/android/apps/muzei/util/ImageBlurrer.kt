@@ -14,97 +14,87 @@
  * limitations under the License.
  */
 
-@file:Suppress("DEPRECATION")
-
 package com.google.android.apps.muzei.util
 
 import android.content.Context
 import android.graphics.Bitmap
-import android.renderscript.Allocation
-import android.renderscript.Element
-import android.renderscript.Matrix3f
-import android.renderscript.RenderScript
-import android.renderscript.ScriptIntrinsicBlur
-import android.renderscript.ScriptIntrinsicColorMatrix
-
-fun Bitmap?.blur(context: Context, radius: Float = ImageBlurrer.MAX_SUPPORTED_BLUR_PIXELS.toFloat())
-        : Bitmap? {
-    val blurrer = ImageBlurrer(context, this)
-    val blurred = blurrer.blurBitmap(radius)
-    blurrer.destroy()
-    return blurred
-}
+import android.os.SystemClock
+import android.util.Log
+import net.nurik.roman.muzei.androidclientcommon.BuildConfig
 
-class ImageBlurrer(context: Context, private val sourceBitmap: Bitmap?) {
+/**
+ * Blur this bitmap with the shared [BlurService] preview engine, writing into [dest]
+ * when it has the same size and config as this bitmap.
+ */
+fun Bitmap?.blur(
+        context: Context,
+        radius: Float = ImageBlurrer.MAX_SUPPORTED_BLUR_PIXELS.toFloat(),
+        dest: Bitmap? = null
+): Bitmap? = ImageBlurrer(context, this, BlurService.previewEngine(context))
+        .blurBitmap(radius, dest = dest)
+
+class ImageBlurrer(
+        context: Context,
+        private val sourceBitmap: Bitmap?,
+        private val engine: BlurEngine = BlurService.engine(context)
+) {
 
     companion object {
+        private const val TAG = "ImageBlurrer"
+
+        /**
+         * The largest blur radius supported by every [BlurEngine]
+         */
         const val MAX_SUPPORTED_BLUR_PIXELS = 25
-    }
 
-    private val renderScript: RenderScript = RenderScript.create(context)
-    private val scriptIntrinsicBlur: ScriptIntrinsicBlur =
-        ScriptIntrinsicBlur.create(renderScript, Element.U8_4(renderScript))
-    private val scriptIntrinsicGrey: ScriptIntrinsicColorMatrix =
-        ScriptIntrinsicColorMatrix.create(renderScript)
-    private val allocationSrc: Allocation? =
-        if (sourceBitmap != null) Allocation.createFromBitmap(renderScript, sourceBitmap) else null
+        // Total blur count and time for each engine, to compare them in debug builds
+        private val blurCounts = mutableMapOf<String, Int>()
+        private val blurNanos = mutableMapOf<String, Long>()
+
+        @Synchronized
+        private fun logTiming(engine: BlurEngine, source: Bitmap, radius: Float, nanos: Long) {
+            val name = engine.name
+            val count = (blurCounts[name] ?: 0) + 1
+            val totalNanos = (blurNanos[name] ?: 0L) + nanos
+            blurCounts[name] = count
+            blurNanos[name] = totalNanos
+            Log.d(TAG, "$name blurred ${source.width}x${source.height} by $radius in " +
+                    "${nanos / 1000000f}ms (average ${totalNanos / count / 1000000f}ms " +
+                    "over $count blurs)")
+        }
+    }
 
+    /**
+     * Blur the source bitmap into [dest] if it is a mutable bitmap of the same size and
+     * config as the source, or otherwise into a bitmap from the [BitmapPool].
+     */
     @JvmOverloads
-    fun blurBitmap(radius: Float = MAX_SUPPORTED_BLUR_PIXELS.toFloat(), desaturateAmount: Float = 0f): Bitmap? {
+    fun blurBitmap(
+            radius: Float = MAX_SUPPORTED_BLUR_PIXELS.toFloat(),
+            desaturateAmount: Float = 0f,
+            dest: Bitmap? = null
+    ): Bitmap? {
         val config = sourceBitmap?.config
-        if (sourceBitmap == null || config == null || allocationSrc == null) {
+        if (sourceBitmap == null || config == null) {
             return null
         }
 
-        val dest = sourceBitmap.copy(config, true)
-        if (radius == 0f && desaturateAmount == 0f) {
-            return dest
-        }
-
-        val allocationDest = Allocation.createFromBitmap(renderScript, dest)
-
-        if (radius > 0f && desaturateAmount > 0f) {
-            doBlur(radius, allocationSrc, allocationDest)
-            doDesaturate(desaturateAmount.constrain(0f, 1f), allocationDest, allocationSrc)
-            allocationSrc.copyTo(dest)
-        } else if (radius > 0f) {
-            doBlur(radius, allocationSrc, allocationDest)
-            allocationDest.copyTo(dest)
-        } else {
-            doDesaturate(desaturateAmount.constrain(0f, 1f), allocationSrc, allocationDest)
-            allocationDest.copyTo(dest)
+        // Write into the given or a pooled bitmap rather than allocating a copy for each call
+        val target = dest?.takeIf {
+            it.isMutable && !it.isRecycled && it.config == config &&
+                    it.width == sourceBitmap.width && it.height == sourceBitmap.height
+        } ?: BitmapPool.get(sourceBitmap.width, sourceBitmap.height, config)
+        val constrainedRadius = radius.constrain(0f, engine.maxRadius)
+        val startTime = SystemClock.elapsedRealtimeNanos()
+        engine.blur(sourceBitmap, target, constrainedRadius, desaturateAmount.constrain(0f, 1f))
+        if (BuildConfig.DEBUG) {
+            logTiming(engine, sourceBitmap, constrainedRadius,
+                    SystemClock.elapsedRealtimeNanos() - startTime)
         }
-        allocationDest.destroy()
-        return dest
-    }
-
-    private fun doBlur(amount: Float, input: Allocation, output: Allocation) {
-        scriptIntrinsicBlur.setRadius(amount)
-        scriptIntrinsicBlur.setInput(input)
-        scriptIntrinsicBlur.forEach(output)
-    }
-
-    private fun doDesaturate(normalizedAmount: Float, input: Allocation, output: Allocation) {
-        val m = Matrix3f(floatArrayOf(
-                interpolate(1f, 0.299f, normalizedAmount),
-                interpolate(0f, 0.299f, normalizedAmount),
-                interpolate(0f, 0.299f, normalizedAmount),
-
-                interpolate(0f, 0.587f, normalizedAmount),
-                interpolate(1f, 0.587f, normalizedAmount),
-                interpolate(0f, 0.587f, normalizedAmount),
-
-                interpolate(0f, 0.114f, normalizedAmount),
-                interpolate(0f, 0.114f, normalizedAmount),
-                interpolate(1f, 0.114f, normalizedAmount)))
-        scriptIntrinsicGrey.setColorMatrix(m)
-        scriptIntrinsicGrey.forEach(input, output)
+        return target
     }
 
     fun destroy() {
-        scriptIntrinsicBlur.destroy()
-        scriptIntrinsicGrey.destroy()
-        allocationSrc?.destroy()
-        renderScript.destroy()
+        engine.destroy()
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.apps.muzei.util
+
+import android.graphics.Bitmap
+
+/**
+ * A [BlurEngine] backed by [StackBlur], which runs on every core of the CPU and
+ * has no limit on the blur radius.
+ */
+class KotlinBlurEngine : BlurEngine {
+    // Reused across calls, since each keyframe blurs the same source
+    private var pixels = IntArray(0)
+
+    override val maxRadius = Float.POSITIVE_INFINITY
+
+    override fun blur(source: Bitmap, dest: Bitmap, radius: Float, desaturateAmount: Float) {
+        val width = source.width
+        val height = source.height
+        if (pixels.size < width * height) {
+            pixels = IntArray(width * height)
+        }
+        source.getPixels(pixels, 0, width, 0, 0, width, height)
+        StackBlur.blur(pixels, width, height, radius, desaturateAmount)
+        dest.setPixels(pixels, 0, width, 0, 0, width, height)
+    }
+
+    override fun destroy() {
+        pixels = IntArray(0)
+    }
+}
@@ -19,6 +19,7 @@ package com.google.android.apps.muzei.util
 import kotlin.math.abs
 import kotlin.math.max
 import kotlin.math.min
+import kotlin.random.Random
 
 fun Float.constrain(min: Float, max: Float): Float = max(min, min(max, this))
 
@@ -39,3 +40,27 @@ fun Int.divideRoundUp(divisor: Int): Int {
     val sign = (if (this > 0) 1 else -1) * if (divisor > 0) 1 else -1
     return sign * (abs(this) + abs(divisor) - 1) / abs(divisor)
 }
+
+fun Int.sampleSize(targetSize: Int): Int {
+    var sampleSize = 1
+    while (this / (sampleSize shl 1) > targetSize) {
+        sampleSize = sampleSize shl 1
+    }
+    return sampleSize
+}
+
+/**
+ * A random ordering of every integer from 0 until [size], shuffled lazily (Fisher-Yates)
+ * so that each position costs O(1), rather than drawing random numbers until an unused
+ * one comes up.
+ */
+fun randomPermutation(size: Int, random: Random = Random): Sequence<Int> = sequence {
+    val positions = IntArray(size) { it }
+    for (i in 0 until size) {
+        val j = random.nextInt(i, size)
+        val position = positions[j]
+        positions[j] = positions[i]
+        positions[i] = position
+        yield(position)
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.apps.muzei.util
+
+import android.graphics.Bitmap
+import android.graphics.Canvas
+import android.graphics.ColorMatrix
+import android.graphics.ColorMatrixColorFilter
+import android.graphics.HardwareRenderer
+import android.graphics.PixelFormat
+import android.graphics.RenderEffect
+import android.graphics.RenderNode
+import android.graphics.Shader
+import android.hardware.HardwareBuffer
+import android.media.ImageReader
+import android.os.Build
+import android.util.Log
+import androidx.annotation.RequiresApi
+import net.nurik.roman.muzei.androidclientcommon.BuildConfig
+
+/**
+ * A [BlurEngine] backed by [RenderEffect], which blurs on the GPU by rendering the
+ * source through a [HardwareRenderer] into a [HardwareBuffer].
+ *
+ * If the GPU render fails, blurs fall back to a [KotlinBlurEngine].
+ */
+@RequiresApi(Build.VERSION_CODES.S)
+class RenderEffectBlurEngine : BlurEngine {
+
+    companion object {
+        private const val TAG = "RenderEffectBlurEngine"
+    }
+
+    private val renderNode = RenderNode(TAG)
+    private val hardwareRenderer = HardwareRenderer().apply {
+        setContentRoot(renderNode)
+    }
+    // Reused across calls of the same size, since each keyframe blurs the same source
+    private var imageReader: ImageReader? = null
+    private val fallbackEngine by lazy { KotlinBlurEngine() }
+
+    override val maxRadius = Float.POSITIVE_INFINITY
+
+    override fun blur(source: Bitmap, dest: Bitmap, radius: Float, desaturateAmount: Float) {
+        val blurred = render(source, radius, desaturateAmount)
+        if (blurred == null) {
+            fallbackEngine.blur(source, dest, radius, desaturateAmount)
+            return
+        }
+        // Hardware bitmaps can't be drawn into a software Canvas, so copy it first
+        val copy = blurred.copy(dest.config ?: Bitmap.Config.ARGB_8888, false)
+        blurred.recycle()
+        Canvas(dest).drawBitmap(copy, 0f, 0f, null)
+        copy.recycle()
+    }
+
+    /**
+     * Render the blurred source into a hardware bitmap, returning null on failure
+     */
+    private fun render(source: Bitmap, radius: Float, desaturateAmount: Float): Bitmap? {
+        val width = source.width
+        val height = source.height
+        val imageReader = imageReader?.takeIf {
+            it.width == width && it.height == height
+        } ?: run {
+            imageReader?.close()
+            ImageReader.newInstance(width, height, PixelFormat.RGBA_8888, 1,
+                    HardwareBuffer.USAGE_GPU_SAMPLED_IMAGE or
+                            HardwareBuffer.USAGE_GPU_COLOR_OUTPUT).also {
+                hardwareRenderer.setSurface(it.surface)
+                imageReader = it
+            }
+        }
+
+        renderNode.setPosition(0, 0, width, height)
+        renderNode.setRenderEffect(createEffect(radius, desaturateAmount))
+        val canvas = renderNode.beginRecording()
+        canvas.drawBitmap(source, 0f, 0f, null)
+        renderNode.endRecording()
+
+        val result = hardwareRenderer.createRenderRequest()
+                .setWaitForPresent(true)
+                .syncAndDraw()
+        if (result != HardwareRenderer.SYNC_OK) {
+            if (BuildConfig.DEBUG) Log.w(TAG, "Failed to render blur: $result")
+            return null
+        }
+        return imageReader.acquireNextImage()?.use { image ->
+            image.hardwareBuffer?.use { hardwareBuffer ->
+                Bitmap.wrapHardwareBuffer(hardwareBuffer, null)
+            }
+        }
+    }
+
+    private fun createEffect(radius: Float, desaturateAmount: Float): RenderEffect? {
+        val blurEffect = if (radius > 0f) {
+            RenderEffect.createBlurEffect(radius, radius, Shader.TileMode.CLAMP)
+        } else {
+            null
+        }
+        if (desaturateAmount <= 0f) {
+            return blurEffect
+        }
+        val colorFilter = ColorMatrixColorFilter(ColorMatrix().apply {
+            setSaturation(1 - desaturateAmount)
+        })
+        return if (blurEffect != null) {
+            RenderEffect.createColorFilterEffect(colorFilter, blurEffect)
+        } else {
+            RenderEffect.createColorFilterEffect(colorFilter)
+        }
+    }
+
+    override fun destroy() {
+        hardwareRenderer.destroy()
+        renderNode.discardDisplayList()
+        imageReader?.close()
+        imageReader = null
+        fallbackEngine.destroy()
+    }
+}
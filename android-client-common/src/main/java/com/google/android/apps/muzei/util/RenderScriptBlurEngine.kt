@@ -0,0 +1,149 @@
+/*
+ * Copyright 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+@file:Suppress("DEPRECATION")
+
+package com.google.android.apps.muzei.util
+
+import android.content.Context
+import android.graphics.Bitmap
+import android.renderscript.Allocation
+import android.renderscript.Element
+import android.renderscript.Matrix3f
+import android.renderscript.RenderScript
+import android.renderscript.ScriptIntrinsicBlur
+import android.renderscript.ScriptIntrinsicColorMatrix
+import java.lang.ref.WeakReference
+
+/**
+ * A [BlurEngine] backed by RenderScript's intrinsics, which are hardware accelerated
+ * on most devices before API 31.
+ *
+ * Allocations are kept for the most recently blurred sizes and the source is only
+ * copied into its allocation when it changes, so blurring each keyframe of the
+ * same source only runs the intrinsics.
+ */
+class RenderScriptBlurEngine(context: Context) : BlurEngine {
+
+    companion object {
+        /**
+         * The number of bitmap sizes to keep allocations for
+         */
+        private const val MAX_ALLOCATION_SIZES = 2
+    }
+
+    private val renderScript: RenderScript = RenderScript.create(context)
+    private val scriptIntrinsicBlur: ScriptIntrinsicBlur =
+        ScriptIntrinsicBlur.create(renderScript, Element.U8_4(renderScript))
+    private val scriptIntrinsicGrey: ScriptIntrinsicColorMatrix =
+        ScriptIntrinsicColorMatrix.create(renderScript)
+
+    private data class SizeKey(val width: Int, val height: Int, val config: Bitmap.Config?)
+
+    private inner class Allocations(source: Bitmap) {
+        val input: Allocation = Allocation.createFromBitmap(renderScript, source,
+                Allocation.MipmapControl.MIPMAP_NONE, Allocation.USAGE_SCRIPT)
+        val output: Allocation = Allocation.createTyped(renderScript, input.type)
+        val temp: Allocation = Allocation.createTyped(renderScript, input.type)
+        // The bitmap (and its generation) last copied into input. Held weakly
+        // so that this engine doesn't keep otherwise unused bitmaps alive
+        var inputBitmap = WeakReference<Bitmap>(source)
+        var inputGenerationId = source.generationId
+
+        fun setInput(source: Bitmap) {
+            if (inputBitmap.get() !== source || inputGenerationId != source.generationId) {
+                input.copyFrom(source)
+                inputBitmap = WeakReference(source)
+                inputGenerationId = source.generationId
+            }
+        }
+
+        fun destroy() {
+            input.destroy()
+            output.destroy()
+            temp.destroy()
+        }
+    }
+
+    private val allocations = object : LinkedHashMap<SizeKey, Allocations>(
+            MAX_ALLOCATION_SIZES, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<SizeKey, Allocations>) =
+                (size > MAX_ALLOCATION_SIZES).also { remove ->
+                    if (remove) {
+                        eldest.value.destroy()
+                    }
+                }
+    }
+
+    override val maxRadius = ImageBlurrer.MAX_SUPPORTED_BLUR_PIXELS.toFloat()
+
+    override fun blur(source: Bitmap, dest: Bitmap, radius: Float, desaturateAmount: Float) {
+        val key = SizeKey(source.width, source.height, source.config)
+        val sizedAllocations = allocations[key]?.apply {
+            setInput(source)
+        } ?: Allocations(source).also { allocations[key] = it }
+
+        with(sizedAllocations) {
+            when {
+                radius == 0f && desaturateAmount == 0f -> input.copyTo(dest)
+                radius > 0f && desaturateAmount > 0f -> {
+                    doBlur(radius, input, output)
+                    doDesaturate(desaturateAmount, output, temp)
+                    temp.copyTo(dest)
+                }
+                radius > 0f -> {
+                    doBlur(radius, input, output)
+                    output.copyTo(dest)
+                }
+                else -> {
+                    doDesaturate(desaturateAmount, input, output)
+                    output.copyTo(dest)
+                }
+            }
+        }
+    }
+
+    private fun doBlur(amount: Float, input: Allocation, output: Allocation) {
+        scriptIntrinsicBlur.setRadius(amount)
+        scriptIntrinsicBlur.setInput(input)
+        scriptIntrinsicBlur.forEach(output)
+    }
+
+    private fun doDesaturate(normalizedAmount: Float, input: Allocation, output: Allocation) {
+        val m = Matrix3f(floatArrayOf(
+                interpolate(1f, 0.299f, normalizedAmount),
+                interpolate(0f, 0.299f, normalizedAmount),
+                interpolate(0f, 0.299f, normalizedAmount),
+
+                interpolate(0f, 0.587f, normalizedAmount),
+                interpolate(1f, 0.587f, normalizedAmount),
+                interpolate(0f, 0.587f, normalizedAmount),
+
+                interpolate(0f, 0.114f, normalizedAmount),
+                interpolate(0f, 0.114f, normalizedAmount),
+                interpolate(1f, 0.114f, normalizedAmount)))
+        scriptIntrinsicGrey.setColorMatrix(m)
+        scriptIntrinsicGrey.forEach(input, output)
+    }
+
+    override fun destroy() {
+        scriptIntrinsicBlur.destroy()
+        scriptIntrinsicGrey.destroy()
+        allocations.values.forEach { it.destroy() }
+        allocations.clear()
+        renderScript.destroy()
+    }
+}
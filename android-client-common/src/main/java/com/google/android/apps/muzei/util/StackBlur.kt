@@ -0,0 +1,271 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.apps.muzei.util
+
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import kotlin.math.abs
+import kotlin.math.max
+import kotlin.math.min
+import kotlin.math.roundToInt
+
+/**
+ * A separable stack blur of ARGB pixels, in plain Kotlin with no Android dependencies
+ * so that it runs (and can be benchmarked) on any JVM.
+ *
+ * The cost per pixel is independent of the radius, so there is no limit on the radius
+ * beyond the size of the image. Rows and then columns are split into bands that are
+ * blurred in place in parallel; each band allocates one small stack up front and
+ * there is no per pixel allocation. Desaturation is applied as part of the column
+ * pass rather than as a separate pass.
+ */
+object StackBlur {
+    /**
+     * Bands with fewer pixels than this aren't worth handing to another thread
+     */
+    private const val MIN_BAND_PIXELS = 32 * 1024
+
+    /**
+     * Bits of precision of the fixed point reciprocal of each line's divisor: enough
+     * for every radius up to [MAX_RADIUS] to give exact results, without the
+     * weighted sums multiplied by the reciprocal overflowing a Long
+     */
+    private const val RECIPROCAL_BITS = 48
+
+    /**
+     * The largest radius blurred, far beyond the size of any image that is blurred
+     */
+    private const val MAX_RADIUS = 1 shl 16
+
+    private val parallelism = Runtime.getRuntime().availableProcessors()
+
+    private val defaultExecutor: ExecutorService by lazy {
+        Executors.newFixedThreadPool(parallelism) { runnable ->
+            Thread(runnable, "StackBlur").apply {
+                isDaemon = true
+            }
+        }
+    }
+
+    /**
+     * Blur the [width] x [height] ARGB [pixels] in place by [radius] pixels and then
+     * desaturate them by [desaturateAmount] (from 0, unchanged, to 1, fully grey).
+     */
+    fun blur(
+            pixels: IntArray,
+            width: Int,
+            height: Int,
+            radius: Float,
+            desaturateAmount: Float = 0f,
+            executor: ExecutorService? = defaultExecutor
+    ) {
+        require(pixels.size >= width * height) {
+            "Expected at least ${width * height} pixels, got ${pixels.size}"
+        }
+        if (width <= 0 || height <= 0) {
+            return
+        }
+        // Beyond the size of the image, a larger radius no longer changes the result
+        val stackRadius = if (radius > 0f) {
+            max(1, radius.roundToInt()).coerceAtMost(min(max(width, height), MAX_RADIUS))
+        } else {
+            0
+        }
+        val grey = (desaturateAmount.constrain(0f, 1f) * 256).roundToInt()
+        if (stackRadius == 0) {
+            if (grey != 0) {
+                runBands(height, width, 0, executor) { start, end, _ ->
+                    for (index in start * width until end * width) {
+                        pixels[index] = desaturate(pixels[index], grey)
+                    }
+                }
+            }
+            return
+        }
+        runBands(height, width, stackRadius, executor) { start, end, stack ->
+            for (y in start until end) {
+                blurLine(pixels, y * width, 1, width, stackRadius, 0, stack)
+            }
+        }
+        runBands(width, height, stackRadius, executor) { start, end, stack ->
+            for (x in start until end) {
+                blurLine(pixels, x, width, height, stackRadius, grey, stack)
+            }
+        }
+    }
+
+    /**
+     * Split [lineCount] lines of [lineLength] pixels into bands, calling [block] with
+     * the start (inclusive) and end (exclusive) line of each band and a stack for
+     * the given [radius], returning once every band is done.
+     */
+    private fun runBands(
+            lineCount: Int,
+            lineLength: Int,
+            radius: Int,
+            executor: ExecutorService?,
+            block: (start: Int, end: Int, stack: IntArray) -> Unit
+    ) {
+        val bandCount = if (executor == null) {
+            1
+        } else {
+            (lineCount.toLong() * lineLength / MIN_BAND_PIXELS).toInt()
+                    .coerceIn(1, min(parallelism, lineCount))
+        }
+        if (bandCount == 1) {
+            block(0, lineCount, IntArray(2 * radius + 1))
+            return
+        }
+        val bands = (0 until bandCount).map { band ->
+            Callable {
+                block(lineCount * band / bandCount, lineCount * (band + 1) / bandCount,
+                        IntArray(2 * radius + 1))
+            }
+        }
+        executor!!.invokeAll(bands).forEach { future ->
+            // Rethrow any exception from the band
+            future.get()
+        }
+    }
+
+    /**
+     * Stack blur, in place, the [length] pixels starting at [offset] and [stride]
+     * apart, desaturating the result by [grey] / 256.
+     */
+    private fun blurLine(
+            pixels: IntArray,
+            offset: Int,
+            stride: Int,
+            length: Int,
+            radius: Int,
+            grey: Int,
+            stack: IntArray
+    ) {
+        val div = 2 * radius + 1
+        val divisor = (radius + 1L) * (radius + 1L)
+        // Multiply by a rounded up reciprocal rather than dividing each channel
+        val reciprocal = ((1L shl RECIPROCAL_BITS) + divisor - 1) / divisor
+        val last = length - 1
+
+        var sumA = 0L
+        var sumR = 0L
+        var sumG = 0L
+        var sumB = 0L
+        var inA = 0
+        var inR = 0
+        var inG = 0
+        var inB = 0
+        var outA = 0
+        var outR = 0
+        var outG = 0
+        var outB = 0
+        for (i in -radius..radius) {
+            val pixel = pixels[offset + min(last, max(i, 0)) * stride]
+            stack[i + radius] = pixel
+            val weight = radius + 1 - abs(i)
+            val a = pixel ushr 24
+            val r = (pixel shr 16) and 0xff
+            val g = (pixel shr 8) and 0xff
+            val b = pixel and 0xff
+            sumA += a * weight
+            sumR += r * weight
+            sumG += g * weight
+            sumB += b * weight
+            if (i > 0) {
+                inA += a
+                inR += r
+                inG += g
+                inB += b
+            } else {
+                outA += a
+                outR += r
+                outG += g
+                outB += b
+            }
+        }
+
+        var stackPointer = radius
+        var index = offset
+        for (x in 0 until length) {
+            val a = ((sumA * reciprocal) ushr RECIPROCAL_BITS).toInt()
+            val r = ((sumR * reciprocal) ushr RECIPROCAL_BITS).toInt()
+            val g = ((sumG * reciprocal) ushr RECIPROCAL_BITS).toInt()
+            val b = ((sumB * reciprocal) ushr RECIPROCAL_BITS).toInt()
+            val blurred = (a shl 24) or (r shl 16) or (g shl 8) or b
+            pixels[index] = if (grey != 0) desaturate(blurred, grey) else blurred
+            index += stride
+
+            sumA -= outA
+            sumR -= outR
+            sumG -= outG
+            sumB -= outB
+
+            // The oldest pixel leaves the window...
+            val slot = (stackPointer + radius + 1) % div
+            var pixel = stack[slot]
+            outA -= pixel ushr 24
+            outR -= (pixel shr 16) and 0xff
+            outG -= (pixel shr 8) and 0xff
+            outB -= pixel and 0xff
+
+            // ...and the next one enters it. This is always ahead of the pixels
+            // written so far, so blurring in place is safe.
+            pixel = pixels[offset + min(x + radius + 1, last) * stride]
+            stack[slot] = pixel
+            inA += pixel ushr 24
+            inR += (pixel shr 16) and 0xff
+            inG += (pixel shr 8) and 0xff
+            inB += pixel and 0xff
+            sumA += inA
+            sumR += inR
+            sumG += inG
+            sumB += inB
+
+            // The center of the window moves forward a pixel
+            stackPointer = (stackPointer + 1) % div
+            pixel = stack[stackPointer]
+            val centerA = pixel ushr 24
+            val centerR = (pixel shr 16) and 0xff
+            val centerG = (pixel shr 8) and 0xff
+            val centerB = pixel and 0xff
+            outA += centerA
+            outR += centerR
+            outG += centerG
+            outB += centerB
+            inA -= centerA
+            inR -= centerR
+            inG -= centerG
+            inB -= centerB
+        }
+    }
+
+    /**
+     * Move each color channel [grey] / 256 of the way to the pixel's luminance,
+     * using the same weights as the RenderScript desaturation matrix.
+     */
+    private fun desaturate(pixel: Int, grey: Int): Int {
+        val r = (pixel shr 16) and 0xff
+        val g = (pixel shr 8) and 0xff
+        val b = pixel and 0xff
+        val luminance = (77 * r + 150 * g + 29 * b) shr 8
+        return (pixel and 0xff000000.toInt()) or
+                ((r + (((luminance - r) * grey) shr 8)) shl 16) or
+                ((g + (((luminance - g) * grey) shr 8)) shl 8) or
+                (b + (((luminance - b) * grey) shr 8))
+    }
+}
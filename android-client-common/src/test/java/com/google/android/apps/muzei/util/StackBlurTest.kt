@@ -0,0 +1,81 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.apps.muzei.util
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Test
+import java.util.concurrent.Executors
+import kotlin.random.Random
+
+class StackBlurTest {
+
+    private fun grey(value: Int) =
+            (0xff shl 24) or (value shl 16) or (value shl 8) or value
+
+    private fun greys(vararg values: Int) = IntArray(values.size) { grey(values[it]) }
+
+    @Test
+    fun blur_knownOutput() {
+        // Radius 1 weights each pixel and its neighbors 1, 2, 1
+        val pixels = greys(0, 0, 255, 0, 0)
+        StackBlur.blur(pixels, 5, 1, 1f, executor = null)
+        assertArrayEquals(greys(0, 63, 127, 63, 0), pixels)
+    }
+
+    @Test
+    fun blur_radiusZero_isIdentity() {
+        val random = Random(42)
+        val original = IntArray(64 * 48) { random.nextInt() }
+        val pixels = original.copyOf()
+        StackBlur.blur(pixels, 64, 48, 0f, executor = null)
+        assertArrayEquals(original, pixels)
+    }
+
+    @Test
+    fun blur_clampsToEdges() {
+        // Pixels beyond the edges are the edge pixels, weighted 1, 2, 3, 2, 1
+        val pixels = greys(255, 0, 0, 0, 0)
+        StackBlur.blur(pixels, 5, 1, 2f, executor = null)
+        assertArrayEquals(greys(170, 85, 28, 0, 0), pixels)
+    }
+
+    @Test
+    fun blur_largeRadius_keepsUniformColor() {
+        // The smallest radius at which a 32 bit reciprocal of the divisor rounded
+        // white up to 256, carrying into the next channel
+        val height = 4153
+        val pixels = IntArray(height) { grey(255) }
+        StackBlur.blur(pixels, 1, height, height - 1f, executor = null)
+        assertArrayEquals(IntArray(height) { grey(255) }, pixels)
+    }
+
+    @Test
+    fun blur_inParallel_matchesSingleThreaded() {
+        val random = Random(42)
+        val original = IntArray(512 * 384) { random.nextInt() }
+        val expected = original.copyOf()
+        StackBlur.blur(expected, 512, 384, 12f, 0.5f, executor = null)
+        val executor = Executors.newFixedThreadPool(4)
+        try {
+            val pixels = original.copyOf()
+            StackBlur.blur(pixels, 512, 384, 12f, 0.5f, executor)
+            assertArrayEquals(expected, pixels)
+        } finally {
+            executor.shutdown()
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.apps.muzei.benchmark
+
+import kotlin.random.Random
+
+/**
+ * Fixtures shared by the benchmarks, generated from a fixed seed so that every run
+ * benchmarks the same inputs.
+ */
+internal object Fixtures {
+    const val SEED = 42
+
+    fun random() = Random(SEED)
+
+    /**
+     * Opaque ARGB pixels of a [width] x [height] image: a smooth gradient with noise,
+     * so that every luminance bin is used.
+     */
+    fun pixels(width: Int, height: Int): IntArray {
+        val random = random()
+        return IntArray(width * height) { i ->
+            val x = i % width
+            val y = i / width
+            fun channel(base: Int) = (base + random.nextInt(-32, 32)).coerceIn(0, 255)
+            val r = channel(255 * x / width)
+            val g = channel(255 * y / height)
+            val b = channel(255 * (x + y) / (width + height))
+            (0xff shl 24) or (r shl 16) or (g shl 8) or b
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.apps.muzei.benchmark
+
+import com.google.android.apps.muzei.render.GLPictureTiles
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+import java.util.concurrent.TimeUnit
+
+/**
+ * The tile and vertex math of a `GLPicture`, done for every picture uploaded.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+open class GLPictureTilesBenchmark {
+
+    // A keyframe, a full resolution photo and a panorama, as width x height / tile size
+    @Param("1080x1920/4096", "4032x3024/2048", "16000x2000/2048")
+    lateinit var picture: String
+
+    private var width = 0
+    private var height = 0
+    private var tileSize = 0
+
+    @Setup
+    fun setUp() {
+        val (size, tile) = picture.split('/')
+        val (w, h) = size.split('x').map { it.toInt() }
+        width = w
+        height = h
+        tileSize = tile.toInt()
+    }
+
+    @Benchmark
+    fun vertices() = GLPictureTiles(width, height, tileSize).vertices()
+}
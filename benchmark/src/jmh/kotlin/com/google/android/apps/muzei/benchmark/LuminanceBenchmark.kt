@@ -0,0 +1,86 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.apps.muzei.benchmark
+
+import com.google.android.apps.muzei.render.LuminanceStats
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+import java.util.concurrent.TimeUnit
+import kotlin.math.min
+
+/**
+ * [LuminanceStats.Builder] reading strips of pixels, against the per pixel loop of the
+ * `darkness()` it replaced.
+ *
+ * On a device, the old loop also made a JNI call to `Bitmap.getPixel()` for each pixel,
+ * which isn't measured here: this only compares the arithmetic of the two.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+open class LuminanceBenchmark {
+
+    // A preview, a downsampled artwork and a full screen keyframe
+    @Param("128x256", "480x800", "1080x1920")
+    lateinit var size: String
+
+    private var width = 0
+    private lateinit var pixels: IntArray
+
+    @Setup
+    fun setUp() {
+        val (w, h) = size.split('x').map { it.toInt() }
+        width = w
+        pixels = Fixtures.pixels(w, h)
+    }
+
+    @Benchmark
+    fun luminanceStats(): Float {
+        val builder = LuminanceStats.Builder()
+        val stripLength = LuminanceStats.STRIP_PIXELS / width * width
+        var offset = 0
+        while (offset < pixels.size) {
+            val length = min(stripLength, pixels.size - offset)
+            builder.add(pixels, offset, length)
+            offset += length
+        }
+        return builder.build().mean
+    }
+
+    @Benchmark
+    fun darknessLoop(): Float {
+        var totalLum = 0
+        for (color in pixels) {
+            totalLum += (0.21f * ((color shr 16) and 0xff) +
+                    0.71f * ((color shr 8) and 0xff) +
+                    0.07f * (color and 0xff)).toInt()
+        }
+        return totalLum / pixels.size / 256f
+    }
+}
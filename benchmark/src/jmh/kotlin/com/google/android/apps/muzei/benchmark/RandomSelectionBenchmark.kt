@@ -0,0 +1,94 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.apps.muzei.benchmark
+
+import com.google.android.apps.muzei.util.randomPermutation
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+
+/**
+ * The random selection sequences of `ArtworkLoadWorker`: non recent artwork in a random
+ * order, followed by recent artwork in a random order, built with [randomPermutation]
+ * and with the `distinct()` sequences it replaced.
+ *
+ * The worker usually stops at the first valid artwork, so both taking the first
+ * position and iterating every position are measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+open class RandomSelectionBenchmark {
+
+    @Param("100", "10000")
+    @JvmField
+    var count = 0
+
+    private lateinit var recent: BooleanArray
+    private var current = 0
+    private lateinit var random: Random
+
+    @Setup
+    fun setUp() {
+        val fixtures = Fixtures.random()
+        // Most artwork of a small provider is recent, little of a large one
+        recent = BooleanArray(count) { fixtures.nextInt(count) < 100 }
+        current = fixtures.nextInt(count)
+        random = Fixtures.random()
+    }
+
+    private fun permutationSequence(): Sequence<Int> {
+        val isCurrent = { position: Int -> position == current }
+        val isRecent = { position: Int -> recent[position] }
+        return randomPermutation(count, random).filterNot(isCurrent).filterNot(isRecent) +
+                randomPermutation(count, random).filterNot(isCurrent).filter(isRecent)
+    }
+
+    private fun distinctSequence(): Sequence<Int> {
+        val isCurrent = { position: Int -> position == current }
+        val isRecent = { position: Int -> recent[position] }
+        return generateSequence { random.nextInt(count) }.distinct().take(count)
+                .filterNot(isCurrent).filterNot(isRecent) +
+                generateSequence { random.nextInt(count) }.distinct().take(count)
+                        .filterNot(isCurrent).filter(isRecent)
+    }
+
+    @Benchmark
+    fun permutationFirst() = permutationSequence().first()
+
+    @Benchmark
+    fun permutationAll() = permutationSequence().sum()
+
+    @Benchmark
+    fun distinctFirst() = distinctSequence().first()
+
+    @Benchmark
+    fun distinctAll() = distinctSequence().sum()
+}
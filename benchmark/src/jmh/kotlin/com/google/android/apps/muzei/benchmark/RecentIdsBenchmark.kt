@@ -0,0 +1,70 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.apps.muzei.benchmark
+
+import com.google.android.apps.muzei.api.internal.toRecentIds
+import com.google.android.apps.muzei.api.internal.toRecentIdsString
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+import java.util.ArrayDeque
+import java.util.concurrent.TimeUnit
+
+/**
+ * Parsing and serializing the recent artwork ids stored by `RecentArtworkIdsConverter`.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+open class RecentIdsBenchmark {
+
+    // The default and a large number of recent ids kept by a MuzeiArtProvider
+    @Param("100", "1000")
+    @JvmField
+    var count = 0
+
+    private lateinit var ids: ArrayDeque<Long>
+    private lateinit var idsString: String
+
+    @Setup
+    fun setUp() {
+        val random = Fixtures.random()
+        // Ids from a provider with a few times as many artworks, with some repeated
+        ids = ArrayDeque<Long>()
+        repeat(count) {
+            ids.add(random.nextLong(1, count * 4L))
+        }
+        idsString = ids.toRecentIdsString()
+    }
+
+    @Benchmark
+    fun parse() = idsString.toRecentIds()
+
+    @Benchmark
+    fun serialize() = ids.toRecentIdsString()
+}
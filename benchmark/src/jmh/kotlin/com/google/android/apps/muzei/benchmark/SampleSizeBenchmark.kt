@@ -0,0 +1,65 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.apps.muzei.benchmark
+
+import com.google.android.apps.muzei.util.sampleSize
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+import java.util.concurrent.TimeUnit
+
+/**
+ * [sampleSize] for image and target sizes from thumbnails up to panoramas.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+open class SampleSizeBenchmark {
+
+    companion object {
+        private const val SIZES = 1024
+    }
+
+    private lateinit var imageSizes: IntArray
+    private lateinit var targetSizes: IntArray
+
+    @Setup
+    fun setUp() {
+        val random = Fixtures.random()
+        imageSizes = IntArray(SIZES) { random.nextInt(1, 20000) }
+        targetSizes = IntArray(SIZES) { random.nextInt(1, 4096) }
+    }
+
+    @Benchmark
+    fun sampleSize(): Int {
+        var sum = 0
+        for (i in 0 until SIZES) {
+            sum += imageSizes[i].sampleSize(targetSizes[i])
+        }
+        return sum
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.apps.muzei.benchmark
+
+import com.google.android.apps.muzei.util.LogoPaths
+import com.google.android.apps.muzei.util.SvgPathParser
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+import java.util.concurrent.TimeUnit
+
+/**
+ * Parsing the glyphs of the Muzei logo, as drawn by the logo and loading spinner,
+ * into a builder that only counts segments.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+open class SvgPathParserBenchmark {
+
+    private class CountingPathBuilder : SvgPathParser.PathBuilder {
+        var segments = 0
+
+        override fun moveTo(x: Float, y: Float) {
+            segments++
+        }
+
+        override fun lineTo(x: Float, y: Float) {
+            segments++
+        }
+
+        override fun quadTo(x1: Float, y1: Float, x2: Float, y2: Float) {
+            segments++
+        }
+
+        override fun cubicTo(x1: Float, y1: Float, x2: Float, y2: Float, x3: Float, y3: Float) {
+            segments++
+        }
+
+        override fun close() {
+            segments++
+        }
+    }
+
+    // Scaled to a 1080px wide view, as when drawing the logo
+    private val parser = SvgPathParser(
+            transformX = { x -> x * 1080 / 318f },
+            transformY = { y -> y * 720 / 212f })
+
+    @Benchmark
+    fun parseLogo(): Int {
+        val builder = CountingPathBuilder()
+        for (glyph in LogoPaths.GLYPHS) {
+            parser.parsePath(glyph, builder)
+        }
+        return builder.segments
+    }
+}
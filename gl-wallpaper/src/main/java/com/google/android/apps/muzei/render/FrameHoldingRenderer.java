@@ -0,0 +1,34 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.apps.muzei.render;
+
+import android.opengl.GLSurfaceView;
+
+/**
+ * A renderer that can leave the frame already on screen in place rather than show an
+ * incomplete one, such as while what it draws is still being loaded.
+ * <p>
+ * The wallpaper's GL thread checks {@link #isFrameHeld()} after each
+ * {@link #onDrawFrame} and doesn't swap buffers for frames that are held.
+ */
+public interface FrameHoldingRenderer extends GLSurfaceView.Renderer {
+    /**
+     * Whether the frame drawn by the last call to {@link #onDrawFrame} should not be
+     * shown, keeping the previous frame on screen.
+     */
+    boolean isFrameHeld();
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.apps.muzei.render;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Frame timing for a render thread: a ring buffer of the most recent frame durations,
+ * histograms of frame durations split by what the renderer was drawing, the number of
+ * vsyncs frames missed and the time spent blocked loading images.
+ * <p>
+ * Only the render thread records, without taking locks, so that recording stays
+ * cheap enough to leave on in release builds. Any thread can {@link #dump} the stats,
+ * which may then be off by the frame being recorded.
+ */
+public final class FrameStats {
+    /** A frame drawn with nothing animating, almost always for an offset change. */
+    public static final int STATE_IDLE = 0;
+    /** A frame of the cross fade between artworks. */
+    public static final int STATE_CROSSFADE = 1;
+    /** A frame of the blur animation. */
+    public static final int STATE_BLUR = 2;
+    private static final String[] STATE_NAMES = {"idle scroll", "crossfade", "blur animation"};
+    private static final int STATE_COUNT = STATE_NAMES.length;
+
+    private static final int RING_SIZE = 128;
+    // Upper bounds of the histogram buckets, with a last bucket for anything slower
+    private static final long[] BUCKET_LIMITS_MS = {4, 8, 12, 16, 24, 32, 50, 100};
+    private static final int BUCKET_COUNT = BUCKET_LIMITS_MS.length + 1;
+    private static final long NANOS_PER_MS = 1000000L;
+
+    private static final List<FrameStats> sActive = new ArrayList<>();
+
+    private final AtomicLongArray mDrawNanos = new AtomicLongArray(RING_SIZE);
+    private final AtomicLongArray mSwapNanos = new AtomicLongArray(RING_SIZE);
+    private final AtomicLong mFrameCount = new AtomicLong();
+    private final AtomicLongArray mHistograms = new AtomicLongArray(STATE_COUNT * BUCKET_COUNT);
+    private final AtomicLongArray mMissedVsyncs = new AtomicLongArray(STATE_COUNT);
+    private final AtomicLong mLoaderBlockedCount = new AtomicLong();
+    private final AtomicLong mLoaderBlockedNanos = new AtomicLong();
+    private final AtomicLong mLoaderBlockedMaxNanos = new AtomicLong();
+    private final AtomicLong mIdleResumeCount = new AtomicLong();
+    private final AtomicLong mIdleResumeLastNanos = new AtomicLong();
+    private final AtomicLong mIdleResumeMaxNanos = new AtomicLong();
+    private final AtomicLong mIdleResumeAbandonedCount = new AtomicLong();
+
+    private volatile String mLabel = "";
+    private volatile long mVsyncPeriodNanos = 1000000000L / 60;
+    // Only accessed on the render thread
+    private int mFrameState = STATE_IDLE;
+
+    /**
+     * Add the given stats to those returned by {@link #dumpActive()}.
+     */
+    public static void register(FrameStats stats) {
+        synchronized (sActive) {
+            sActive.add(stats);
+        }
+    }
+
+    public static void unregister(FrameStats stats) {
+        synchronized (sActive) {
+            sActive.remove(stats);
+        }
+    }
+
+    /**
+     * Return a dump of every registered {@link FrameStats}.
+     */
+    public static String dumpActive() {
+        StringWriter writer = new StringWriter();
+        PrintWriter out = new PrintWriter(writer);
+        synchronized (sActive) {
+            if (sActive.isEmpty()) {
+                out.println("No active renderers");
+            }
+            for (FrameStats stats : sActive) {
+                stats.dump("", out);
+                out.println();
+            }
+        }
+        out.flush();
+        return writer.toString();
+    }
+
+    /**
+     * Reset every registered {@link FrameStats}.
+     */
+    public static void resetActive() {
+        synchronized (sActive) {
+            for (FrameStats stats : sActive) {
+                stats.reset();
+            }
+        }
+    }
+
+    public void setLabel(String label) {
+        mLabel = label;
+    }
+
+    public void setRefreshRate(float refreshRate) {
+        if (refreshRate > 0) {
+            mVsyncPeriodNanos = (long) (1000000000L / refreshRate);
+        }
+    }
+
+    /**
+     * Set what the frame being drawn shows. Renderers call this from onDrawFrame; it
+     * applies to that frame only.
+     */
+    public void setFrameState(int state) {
+        mFrameState = state;
+    }
+
+    /**
+     * Record a frame that took the given time to draw and then to swap. Must be called
+     * on the render thread.
+     */
+    public void recordFrame(long drawNanos, long swapNanos) {
+        long count = mFrameCount.get();
+        int index = (int) (count % RING_SIZE);
+        mDrawNanos.lazySet(index, drawNanos);
+        mSwapNanos.lazySet(index, swapNanos);
+        mFrameCount.lazySet(count + 1);
+
+        long frameNanos = drawNanos + swapNanos;
+        int state = mFrameState;
+        mFrameState = STATE_IDLE;
+        mHistograms.incrementAndGet(state * BUCKET_COUNT + bucket(frameNanos));
+        long missed = frameNanos / mVsyncPeriodNanos;
+        if (missed > 0) {
+            mMissedVsyncs.addAndGet(state, missed);
+        }
+    }
+
+    /**
+     * Record time the render thread spent blocked handing over an image to load.
+     */
+    public void recordImageLoaderBlocked(long nanos) {
+        mLoaderBlockedCount.incrementAndGet();
+        mLoaderBlockedNanos.addAndGet(nanos);
+        if (nanos > mLoaderBlockedMaxNanos.get()) {
+            mLoaderBlockedMaxNanos.lazySet(nanos);
+        }
+    }
+
+    /**
+     * Record the time from the wallpaper becoming visible again after releasing its
+     * GPU resources while idle to the first frame drawn with its artwork.
+     */
+    public void recordIdleResume(long nanos) {
+        mIdleResumeCount.incrementAndGet();
+        mIdleResumeLastNanos.lazySet(nanos);
+        if (nanos > mIdleResumeMaxNanos.get()) {
+            mIdleResumeMaxNanos.lazySet(nanos);
+        }
+    }
+
+    /**
+     * Record a resume from idle that ended, by the wallpaper being hidden again or
+     * destroyed, before any frame was drawn with its artwork.
+     */
+    public void recordAbandonedIdleResume() {
+        mIdleResumeAbandonedCount.incrementAndGet();
+    }
+
+    /**
+     * Clear the stats. Frames recorded at the same time may be partly kept.
+     */
+    public void reset() {
+        mFrameCount.set(0);
+        for (int i = 0; i < mHistograms.length(); i++) {
+            mHistograms.set(i, 0);
+        }
+        for (int i = 0; i < mMissedVsyncs.length(); i++) {
+            mMissedVsyncs.set(i, 0);
+        }
+        mLoaderBlockedCount.set(0);
+        mLoaderBlockedNanos.set(0);
+        mLoaderBlockedMaxNanos.set(0);
+        mIdleResumeCount.set(0);
+        mIdleResumeLastNanos.set(0);
+        mIdleResumeMaxNanos.set(0);
+        mIdleResumeAbandonedCount.set(0);
+    }
+
+    private static int bucket(long frameNanos) {
+        for (int i = 0; i < BUCKET_LIMITS_MS.length; i++) {
+            if (frameNanos < BUCKET_LIMITS_MS[i] * NANOS_PER_MS) {
+                return i;
+            }
+        }
+        return BUCKET_LIMITS_MS.length;
+    }
+
+    private static String ms(long nanos) {
+        return String.format(Locale.US, "%.2fms", nanos / (float) NANOS_PER_MS);
+    }
+
+    public void dump(String prefix, PrintWriter out) {
+        out.print(prefix);
+        out.print("Frame stats ");
+        out.print(mLabel);
+        out.print(" (vsync ");
+        out.print(ms(mVsyncPeriodNanos));
+        out.println("):");
+
+        long count = mFrameCount.get();
+        out.print(prefix);
+        out.print("  frames: ");
+        out.println(count);
+        for (int state = 0; state < STATE_COUNT; state++) {
+            long frames = 0;
+            StringBuilder histogram = new StringBuilder();
+            for (int b = 0; b < BUCKET_COUNT; b++) {
+                long bucketFrames = mHistograms.get(state * BUCKET_COUNT + b);
+                frames += bucketFrames;
+                histogram.append(b < BUCKET_LIMITS_MS.length
+                        ? " <" + BUCKET_LIMITS_MS[b] + "ms="
+                        : " >=" + BUCKET_LIMITS_MS[BUCKET_LIMITS_MS.length - 1] + "ms=");
+                histogram.append(bucketFrames);
+            }
+            out.print(prefix);
+            out.print("  ");
+            out.print(STATE_NAMES[state]);
+            out.print(": frames=");
+            out.print(frames);
+            out.print(" missedVsyncs=");
+            out.println(mMissedVsyncs.get(state));
+            out.print(prefix);
+            out.print("   ");
+            out.println(histogram);
+        }
+
+        long loads = mLoaderBlockedCount.get();
+        out.print(prefix);
+        out.print("  setAndConsumeImageLoader: calls=");
+        out.print(loads);
+        out.print(" total=");
+        out.print(ms(mLoaderBlockedNanos.get()));
+        out.print(" max=");
+        out.println(ms(mLoaderBlockedMaxNanos.get()));
+
+        out.print(prefix);
+        out.print("  resumes from idle: count=");
+        out.print(mIdleResumeCount.get());
+        out.print(" last=");
+        out.print(ms(mIdleResumeLastNanos.get()));
+        out.print(" max=");
+        out.print(ms(mIdleResumeMaxNanos.get()));
+        out.print(" abandoned=");
+        out.println(mIdleResumeAbandonedCount.get());
+
+        int recent = (int) Math.min(count, RING_SIZE);
+        out.print(prefix);
+        out.print("  recent frames (draw+swap), oldest first:");
+        for (long i = count - recent; i < count; i++) {
+            int index = (int) (i % RING_SIZE);
+            if ((i - (count - recent)) % 8 == 0) {
+                out.println();
+                out.print(prefix);
+                out.print("   ");
+            }
+            out.print(' ');
+            out.print(ms(mDrawNanos.get(index)));
+            out.print('+');
+            out.print(ms(mSwapNanos.get(index)));
+        }
+        out.println();
+    }
+}
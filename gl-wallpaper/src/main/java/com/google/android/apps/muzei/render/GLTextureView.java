@@ -543,12 +543,15 @@ public class GLTextureView extends TextureView implements TextureView.SurfaceTex
             int[] attrib_list = {EGL_CONTEXT_CLIENT_VERSION, mEGLContextClientVersion,
                     EGL10.EGL_NONE };
 
-            return egl.eglCreateContext(display, config, EGL10.EGL_NO_CONTEXT,
+            EGLContext context = egl.eglCreateContext(display, config, EGL10.EGL_NO_CONTEXT,
                     mEGLContextClientVersion != 0 ? attrib_list : null);
+            GLUploadThread.start(egl, display, config, context, mEGLContextClientVersion);
+            return context;
         }
 
         public void destroyContext(EGL10 egl, EGLDisplay display,
                 EGLContext context) {
+            GLUploadThread.quit(context);
             if (!egl.eglDestroyContext(display, context)) {
                 Log.e("DefaultContextFactory", "display:" + display + " context: " + context);
                 if (LOG_THREADS) {
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.apps.muzei.render;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import javax.microedition.khronos.egl.EGL10;
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.egl.EGLContext;
+import javax.microedition.khronos.egl.EGLDisplay;
+import javax.microedition.khronos.egl.EGLSurface;
+
+/**
+ * A thread with an EGL context that shares textures with a renderer's context, so
+ * that textures can be uploaded without stalling the renderer's thread.
+ * <p>
+ * The default context factories start one for each context they create and quit it
+ * when that context is destroyed. Renderers find theirs with
+ * {@link #forCurrentContext()}, queue uploads with {@link #post(Runnable)} and, once
+ * done, {@link #insertFence()} to hand the textures over. The renderer's thread
+ * polls {@link #isFenceSignaled(long)} rather than waiting for the uploads.
+ */
+public final class GLUploadThread extends HandlerThread {
+    private static final String TAG = "GLUploadThread";
+    private static final int EGL_CONTEXT_CLIENT_VERSION = 0x3098;
+
+    private static final Map<EGLContext, GLUploadThread> sThreads = new HashMap<>();
+
+    private final EGL10 mEgl;
+    private final EGLDisplay mDisplay;
+    private final EGLConfig mConfig;
+    private final EGLContext mSharedContext;
+    private final int mEGLContextClientVersion;
+    private final CountDownLatch mPrepared = new CountDownLatch(1);
+
+    private EGLContext mEglContext = EGL10.EGL_NO_CONTEXT;
+    private EGLSurface mEglSurface = EGL10.EGL_NO_SURFACE;
+    private volatile Handler mHandler;
+    private boolean mSupportsFenceSync;
+
+    private GLUploadThread(EGL10 egl, EGLDisplay display, EGLConfig config,
+            EGLContext sharedContext, int eglContextClientVersion) {
+        super(TAG);
+        mEgl = egl;
+        mDisplay = display;
+        mConfig = config;
+        mSharedContext = sharedContext;
+        mEGLContextClientVersion = eglContextClientVersion;
+    }
+
+    /**
+     * Start an upload thread with a context shared with the given, newly created, context.
+     */
+    public static void start(EGL10 egl, EGLDisplay display, EGLConfig config,
+            EGLContext sharedContext, int eglContextClientVersion) {
+        if (sharedContext == null || sharedContext == EGL10.EGL_NO_CONTEXT) {
+            return;
+        }
+        GLUploadThread thread = new GLUploadThread(egl, display, config,
+                sharedContext, eglContextClientVersion);
+        thread.start();
+        synchronized (sThreads) {
+            sThreads.put(sharedContext, thread);
+        }
+    }
+
+    /**
+     * Quit the upload thread of the given context, once its queued uploads are done.
+     */
+    public static void quit(EGLContext sharedContext) {
+        GLUploadThread thread;
+        synchronized (sThreads) {
+            thread = sThreads.remove(sharedContext);
+        }
+        if (thread != null) {
+            Handler handler = thread.getHandler();
+            if (handler != null) {
+                handler.post(thread::destroyContext);
+            }
+            thread.quitSafely();
+        }
+    }
+
+    /**
+     * Return the upload thread of the context current on the calling thread, or null
+     * if it doesn't have one.
+     */
+    public static GLUploadThread forCurrentContext() {
+        EGLContext context = ((EGL10) EGLContext.getEGL()).eglGetCurrentContext();
+        synchronized (sThreads) {
+            return sThreads.get(context);
+        }
+    }
+
+    @Override
+    protected void onLooperPrepared() {
+        int[] attribList = {EGL_CONTEXT_CLIENT_VERSION, mEGLContextClientVersion,
+                EGL10.EGL_NONE };
+        mEglContext = mEgl.eglCreateContext(mDisplay, mConfig, mSharedContext,
+                mEGLContextClientVersion != 0 ? attribList : null);
+        if (mEglContext == null || mEglContext == EGL10.EGL_NO_CONTEXT) {
+            Log.w(TAG, "Unable to create a shared context: " + mEgl.eglGetError());
+            mEglContext = EGL10.EGL_NO_CONTEXT;
+            mPrepared.countDown();
+            quit();
+            return;
+        }
+        // Uploads never draw, so a 1x1 pbuffer (or no surface at all, where the
+        // config doesn't support pbuffers) is enough to make the context current
+        int[] surfaceAttribList = {EGL10.EGL_WIDTH, 1, EGL10.EGL_HEIGHT, 1, EGL10.EGL_NONE };
+        mEglSurface = mEgl.eglCreatePbufferSurface(mDisplay, mConfig, surfaceAttribList);
+        if (mEglSurface == null) {
+            mEglSurface = EGL10.EGL_NO_SURFACE;
+        }
+        if (!mEgl.eglMakeCurrent(mDisplay, mEglSurface, mEglSurface, mEglContext)) {
+            Log.w(TAG, "Unable to make the shared context current: " + mEgl.eglGetError());
+            destroyContext();
+            mPrepared.countDown();
+            quit();
+            return;
+        }
+        String version = GLES20.glGetString(GLES20.GL_VERSION);
+        mSupportsFenceSync = version != null && version.startsWith("OpenGL ES 3");
+        mHandler = new Handler(getLooper());
+        mPrepared.countDown();
+    }
+
+    private Handler getHandler() {
+        try {
+            mPrepared.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        return mHandler;
+    }
+
+    /**
+     * Run the given task on this thread with the shared context current, returning
+     * false if the thread has no context or is quitting. Tasks run in order.
+     */
+    public boolean post(Runnable task) {
+        Handler handler = getHandler();
+        return handler != null && handler.post(task);
+    }
+
+    /**
+     * Insert a fence after the uploads done so far on this thread, returning the sync
+     * object to poll with {@link #isFenceSignaled(long)}. Where fences aren't supported,
+     * this instead waits for the uploads to finish and returns 0.
+     */
+    public long insertFence() {
+        if (mSupportsFenceSync) {
+            long sync = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+            if (sync != 0) {
+                GLES20.glFlush();
+                return sync;
+            }
+        }
+        GLES20.glFinish();
+        return 0;
+    }
+
+    /**
+     * Return whether the uploads before the given fence have finished, without
+     * waiting for them. Signaled fences are deleted.
+     */
+    public static boolean isFenceSignaled(long sync) {
+        if (sync == 0) {
+            return true;
+        }
+        int result = GLES30.glClientWaitSync(sync, 0, 0);
+        if (result == GLES30.GL_TIMEOUT_EXPIRED) {
+            return false;
+        }
+        // Don't wait forever for a fence that failed
+        GLES30.glDeleteSync(sync);
+        return true;
+    }
+
+    /**
+     * Delete a fence that is no longer needed.
+     */
+    public static void deleteFence(long sync) {
+        if (sync != 0) {
+            GLES30.glDeleteSync(sync);
+        }
+    }
+
+    private void destroyContext() {
+        mHandler = null;
+        mEgl.eglMakeCurrent(mDisplay, EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_SURFACE,
+                EGL10.EGL_NO_CONTEXT);
+        if (mEglSurface != EGL10.EGL_NO_SURFACE) {
+            mEgl.eglDestroySurface(mDisplay, mEglSurface);
+            mEglSurface = EGL10.EGL_NO_SURFACE;
+        }
+        if (mEglContext != EGL10.EGL_NO_CONTEXT) {
+            mEgl.eglDestroyContext(mDisplay, mEglContext);
+            mEglContext = EGL10.EGL_NO_CONTEXT;
+        }
+    }
+}
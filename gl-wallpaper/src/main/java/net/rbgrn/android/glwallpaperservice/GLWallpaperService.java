@@ -16,6 +16,8 @@
 
 package net.rbgrn.android.glwallpaperservice;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.io.Writer;
 import java.util.ArrayList;
 
@@ -30,9 +32,15 @@ import javax.microedition.khronos.opengles.GL10;
 
 import net.rbgrn.android.glwallpaperservice.BaseConfigChooser.ComponentSizeChooser;
 import net.rbgrn.android.glwallpaperservice.BaseConfigChooser.SimpleEGLConfigChooser;
+import android.content.Context;
+import android.hardware.display.DisplayManager;
 import android.opengl.GLSurfaceView;
+import com.google.android.apps.muzei.render.FrameHoldingRenderer;
+import com.google.android.apps.muzei.render.FrameStats;
+import com.google.android.apps.muzei.render.GLUploadThread;
 import android.service.wallpaper.WallpaperService;
 import android.util.Log;
+import android.view.Display;
 import android.view.SurfaceHolder;
 
 // Original code provided by Robert Green
@@ -56,6 +64,7 @@ public class GLWallpaperService extends WallpaperService {
                 private GLSurfaceView.GLWrapper mGLWrapper;
                 private int mDebugFlags;
                 private int mEGLContextClientVersion;
+                private final FrameStats mFrameStats = new FrameStats();
 
                 public GLEngine() {
                         super();
@@ -75,6 +84,13 @@ public class GLWallpaperService extends WallpaperService {
                 public void onCreate(SurfaceHolder surfaceHolder) {
                         super.onCreate(surfaceHolder);
                         // Log.d(TAG, "GLEngine.onCreate()");
+                        mFrameStats.setLabel(isPreview() ? "preview" : "wallpaper");
+                        DisplayManager displayManager = (DisplayManager) getSystemService(Context.DISPLAY_SERVICE);
+                        Display display = displayManager.getDisplay(Display.DEFAULT_DISPLAY);
+                        if (display != null) {
+                                mFrameStats.setRefreshRate(display.getRefreshRate());
+                        }
+                        FrameStats.register(mFrameStats);
                 }
 
                 @Override
@@ -82,6 +98,26 @@ public class GLWallpaperService extends WallpaperService {
                         super.onDestroy();
                         // Log.d(TAG, "GLEngine.onDestroy()");
                         mGLThread.requestExitAndWait();
+                        FrameStats.unregister(mFrameStats);
+                }
+
+                @Override
+                protected void dump(String prefix, FileDescriptor fd, PrintWriter out, String[] args) {
+                        super.dump(prefix, fd, out, args);
+                        mFrameStats.dump(prefix, out);
+                        for (String arg : args) {
+                                if ("--reset-frame-stats".equals(arg)) {
+                                        mFrameStats.reset();
+                                }
+                        }
+                }
+
+                /**
+                 * The frame timing of this engine's render thread, which renderers add
+                 * what they are drawing to.
+                 */
+                public FrameStats getFrameStats() {
+                        return mFrameStats;
                 }
 
                 @Override
@@ -131,7 +167,8 @@ public class GLWallpaperService extends WallpaperService {
                         if (mEGLWindowSurfaceFactory == null) {
                                 mEGLWindowSurfaceFactory = new DefaultWindowSurfaceFactory();
                         }
-                        mGLThread = new GLThread(renderer, mEGLConfigChooser, mEGLContextFactory, mEGLWindowSurfaceFactory, mGLWrapper);
+                        mGLThread = new GLThread(renderer, mEGLConfigChooser, mEGLContextFactory, mEGLWindowSurfaceFactory, mGLWrapper,
+                                        mFrameStats);
                         mGLThread.start();
                 }
 
@@ -263,11 +300,14 @@ class DefaultContextFactory implements GLSurfaceView.EGLContextFactory {
         public EGLContext createContext(EGL10 egl, EGLDisplay display, EGLConfig config) {
                 int[] attrib_list = {EGL_CONTEXT_CLIENT_VERSION, eglContextClientVersion,
                 EGL10.EGL_NONE };
-                return egl.eglCreateContext(display, config, EGL10.EGL_NO_CONTEXT,
+                EGLContext context = egl.eglCreateContext(display, config, EGL10.EGL_NO_CONTEXT,
                                 eglContextClientVersion != 0 ? attrib_list : null);
+                GLUploadThread.start(egl, display, config, context, eglContextClientVersion);
+                return context;
         }
 
         public void destroyContext(EGL10 egl, EGLDisplay display, EGLContext context) {
+                GLUploadThread.quit(context);
                 egl.eglDestroyContext(display, context);
         }
 }
@@ -509,9 +549,11 @@ class GLThread extends Thread {
         private final GLSurfaceView.Renderer mRenderer;
         private final ArrayList<Runnable> mEventQueue = new ArrayList<Runnable>();
         private EglHelper mEglHelper;
+        private final FrameStats mFrameStats;
 
         GLThread(GLSurfaceView.Renderer renderer, GLSurfaceView.EGLConfigChooser chooser, GLSurfaceView.EGLContextFactory contextFactory,
-                        GLSurfaceView.EGLWindowSurfaceFactory surfaceFactory, GLSurfaceView.GLWrapper wrapper) {
+                        GLSurfaceView.EGLWindowSurfaceFactory surfaceFactory, GLSurfaceView.GLWrapper wrapper,
+                        FrameStats frameStats) {
                 super();
                 mDone = false;
                 mWidth = 0;
@@ -523,6 +565,7 @@ class GLThread extends Thread {
                 this.mEGLContextFactory = contextFactory;
                 this.mEGLWindowSurfaceFactory = surfaceFactory;
                 this.mGLWrapper = wrapper;
+                this.mFrameStats = frameStats;
         }
 
         @Override
@@ -668,13 +711,21 @@ class GLThread extends Thread {
                                 }
                                 if ((w > 0) && (h > 0)) {
                                         /* draw a frame here */
+                                        long frameStart = System.nanoTime();
                                         mRenderer.onDrawFrame(gl);
+                                        long drawEnd = System.nanoTime();
+                                        if (mRenderer instanceof FrameHoldingRenderer
+                                                        && ((FrameHoldingRenderer) mRenderer).isFrameHeld()) {
+                                                // Keep the previous frame on screen
+                                                continue;
+                                        }
 
                                         /*
                                          * Once we're done with GL, we need to call swapBuffers() to instruct the system to display the
                                          * rendered frame
                                          */
                                         mEglHelper.swap();
+                                        mFrameStats.recordFrame(drawEnd - frameStart, System.nanoTime() - drawEnd);
                                 }
                         }
                 } finally {
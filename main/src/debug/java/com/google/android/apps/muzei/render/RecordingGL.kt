@@ -0,0 +1,194 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.apps.muzei.render
+
+import android.graphics.Bitmap
+import android.opengl.GLES20
+import java.nio.Buffer
+
+/**
+ * A fake [GLApi] that needs no GL context, counting the draw calls, texture uploads
+ * and state changes made between calls to [endFrame]. Handles are never reused and
+ * nothing is actually drawn.
+ *
+ * Must only be used from a single thread.
+ */
+internal class RecordingGL(
+        private val maxTextureSize: Int = 4096,
+        private val version: String = "OpenGL ES 3.0",
+        private val supportsRenderToTexture: Boolean = true
+) : GLApi {
+
+    data class FrameCounts(
+            val drawCalls: Int,
+            val textureUploads: Int,
+            val uploadedBytes: Long,
+            val stateChanges: Int,
+            /** State changes that set the state to what it already was */
+            val redundantStateChanges: Int
+    )
+
+    private var nextHandle = 1
+    private var nextLocation = 0
+
+    private var program = 0
+    private val boundTargets = mutableMapOf<Int, Int>()
+    private val enabled = mutableSetOf<Int>()
+    private val viewport = IntArray(4)
+
+    private var drawCalls = 0
+    private var textureUploads = 0
+    private var uploadedBytes = 0L
+    private var stateChanges = 0
+    private var redundantStateChanges = 0
+
+    /**
+     * Return the counts since the last call, starting the next frame.
+     */
+    fun endFrame() = FrameCounts(drawCalls, textureUploads, uploadedBytes,
+            stateChanges, redundantStateChanges).also {
+        drawCalls = 0
+        textureUploads = 0
+        uploadedBytes = 0L
+        stateChanges = 0
+        redundantStateChanges = 0
+    }
+
+    private fun stateChange(redundant: Boolean) {
+        stateChanges++
+        if (redundant) {
+            redundantStateChanges++
+        }
+    }
+
+    private fun bind(target: Int, handle: Int) {
+        stateChange(boundTargets[target] == handle)
+        boundTargets[target] = handle
+    }
+
+    private fun upload(bytes: Long) {
+        textureUploads++
+        uploadedBytes += bytes
+    }
+
+    private fun gen(n: Int, handles: IntArray, offset: Int) {
+        for (i in 0 until n) {
+            handles[offset + i] = nextHandle++
+        }
+    }
+
+    override fun glActiveTexture(texture: Int) = bind(GLES20.GL_ACTIVE_TEXTURE, texture)
+    override fun glAttachShader(program: Int, shader: Int) {}
+    override fun glBindAttribLocation(program: Int, index: Int, name: String) {}
+    override fun glBindBuffer(target: Int, buffer: Int) = bind(target, buffer)
+    override fun glBindFramebuffer(target: Int, framebuffer: Int) = bind(target, framebuffer)
+    override fun glBindTexture(target: Int, texture: Int) = bind(target, texture)
+    override fun glBlendFuncSeparate(srcRGB: Int, dstRGB: Int, srcAlpha: Int, dstAlpha: Int) =
+            stateChange(false)
+    override fun glBufferData(target: Int, size: Int, data: Buffer, usage: Int) {}
+    override fun glCheckFramebufferStatus(target: Int) = if (supportsRenderToTexture) {
+        GLES20.GL_FRAMEBUFFER_COMPLETE
+    } else {
+        GLES20.GL_FRAMEBUFFER_UNSUPPORTED
+    }
+    override fun glClear(mask: Int) {}
+    override fun glClearColor(red: Float, green: Float, blue: Float, alpha: Float) {}
+    override fun glCompileShader(shader: Int) {}
+    override fun glCompressedTexImage2D(target: Int, level: Int, internalformat: Int,
+            width: Int, height: Int, border: Int, imageSize: Int, data: Buffer) =
+            upload(imageSize.toLong())
+    override fun glCreateProgram() = nextHandle++
+    override fun glCreateShader(type: Int) = nextHandle++
+    override fun glDeleteBuffers(n: Int, buffers: IntArray, offset: Int) {}
+    override fun glDeleteFramebuffers(n: Int, framebuffers: IntArray, offset: Int) {}
+    override fun glDeleteShader(shader: Int) {}
+    override fun glDeleteTextures(n: Int, textures: IntArray, offset: Int) {}
+    override fun glDisable(cap: Int) = stateChange(!enabled.remove(cap))
+    override fun glDisableVertexAttribArray(index: Int) {}
+    override fun glDrawArrays(mode: Int, first: Int, count: Int) {
+        drawCalls++
+    }
+    override fun glEnable(cap: Int) = stateChange(!enabled.add(cap))
+    override fun glEnableVertexAttribArray(index: Int) {}
+    override fun glFramebufferTexture2D(target: Int, attachment: Int, textarget: Int,
+            texture: Int, level: Int) = bind(attachment, texture)
+    override fun glGenBuffers(n: Int, buffers: IntArray, offset: Int) =
+            gen(n, buffers, offset)
+    override fun glGenFramebuffers(n: Int, framebuffers: IntArray, offset: Int) =
+            gen(n, framebuffers, offset)
+    override fun glGenTextures(n: Int, textures: IntArray, offset: Int) =
+            gen(n, textures, offset)
+    override fun glGetAttribLocation(program: Int, name: String) = nextLocation++
+    override fun glGetError() = GLES20.GL_NO_ERROR
+    override fun glGetIntegerv(pname: Int, params: IntArray, offset: Int) {
+        when (pname) {
+            GLES20.GL_MAX_TEXTURE_SIZE -> params[offset] = maxTextureSize
+            GLES20.GL_VIEWPORT -> viewport.copyInto(params, offset)
+        }
+    }
+    override fun glGetString(name: Int) = if (name == GLES20.GL_VERSION) version else null
+    override fun glGetUniformLocation(program: Int, name: String) = nextLocation++
+    override fun glIsEnabled(cap: Int) = cap in enabled
+    override fun glLinkProgram(program: Int) {}
+    override fun glShaderSource(shader: Int, string: String) {}
+    override fun glTexImage2D(target: Int, level: Int, internalformat: Int, width: Int,
+            height: Int, border: Int, format: Int, type: Int, pixels: Buffer?) {
+        // Allocating a texture without any pixels isn't an upload
+        if (pixels != null) {
+            upload(pixels.capacity().toLong())
+        }
+    }
+    override fun glTexParameteri(target: Int, pname: Int, param: Int) {}
+    override fun glUniform1f(location: Int, x: Float) {}
+    override fun glUniform1i(location: Int, x: Int) {}
+    override fun glUniform2f(location: Int, x: Float, y: Float) {}
+    override fun glUniform4f(location: Int, x: Float, y: Float, z: Float, w: Float) {}
+    override fun glUniformMatrix4fv(location: Int, count: Int, transpose: Boolean,
+            value: FloatArray, offset: Int) {}
+    override fun glUseProgram(program: Int) {
+        stateChange(this.program == program)
+        this.program = program
+    }
+    override fun glVertexAttribPointer(index: Int, size: Int, type: Int, normalized: Boolean,
+            stride: Int, ptr: Buffer) {}
+    override fun glVertexAttribPointer(index: Int, size: Int, type: Int, normalized: Boolean,
+            stride: Int, offset: Int) {}
+    override fun glViewport(x: Int, y: Int, width: Int, height: Int) {
+        stateChange(viewport.contentEquals(intArrayOf(x, y, width, height)))
+        viewport[0] = x
+        viewport[1] = y
+        viewport[2] = width
+        viewport[3] = height
+    }
+
+    override fun texImage2D(target: Int, level: Int, bitmap: Bitmap, border: Int) =
+            upload(bitmap.byteCount.toLong())
+    override fun texSubImage2D(target: Int, level: Int, xoffset: Int, yoffset: Int,
+            bitmap: Bitmap) = upload(bitmap.byteCount.toLong())
+    override fun getInternalFormat(bitmap: Bitmap) =
+            if (bitmap.config == Bitmap.Config.RGB_565) GLES20.GL_RGB else GLES20.GL_RGBA
+    override fun getType(bitmap: Bitmap) = if (bitmap.config == Bitmap.Config.RGB_565) {
+        GLES20.GL_UNSIGNED_SHORT_5_6_5
+    } else {
+        GLES20.GL_UNSIGNED_BYTE
+    }
+    // Without an EGL context there is no upload thread, so pictures are uploaded on
+    // the thread acting as the GL thread
+    override fun uploadThreadForCurrentContext(): GLUploadThread? = null
+    // The single context this stands in for
+    override fun eglGetCurrentContext(): Any? = this
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.apps.muzei.render
+
+import android.content.Context
+import android.os.SystemClock
+import android.util.Log
+import java.lang.reflect.Proxy
+import java.util.Locale
+import java.util.concurrent.ConcurrentLinkedQueue
+import javax.microedition.khronos.egl.EGLConfig
+import javax.microedition.khronos.opengles.GL10
+
+/**
+ * Drives a [MuzeiBlurRenderer] through loading, scrolling, blurring and cross fading
+ * between artworks against a [RecordingGL] rather than a GL context, counting what
+ * each frame draws and uploads.
+ *
+ * The calling thread acts as the GL thread. As this replaces the [GLApi] used by every
+ * renderer in the process, it must run in a process that shows no wallpaper.
+ */
+internal class RendererHarness(private val context: Context) {
+
+    companion object {
+        private const val TAG = "RendererHarness"
+
+        const val WIDTH = 1080
+        const val HEIGHT = 1920
+        private const val FRAME_INTERVAL_MILLIS = 16L
+        // How long without any loads or renders requested before a step is done
+        private const val SETTLE_MILLIS = 1000L
+        // Measured in real time, as frames may be paced by a fake clock
+        private const val STEP_TIMEOUT_MILLIS = 20000L
+        private const val SCROLL_FRAMES = 60
+        private const val ARTWORK_ASSET = "starrynight.jpg"
+    }
+
+    class Frame(
+            val step: String,
+            val drawCalls: Int,
+            val textureUploads: Int,
+            val uploadedBytes: Long,
+            val stateChanges: Int,
+            val redundantStateChanges: Int
+    )
+
+    private val events = ConcurrentLinkedQueue<() -> Unit>()
+    @Volatile
+    private var renderRequested = false
+    // The renderer ignores the GL10 and EGLConfig it is passed
+    private val unusedGl = Proxy.newProxyInstance(GL10::class.java.classLoader,
+            arrayOf(GL10::class.java)) { _, _, _ -> null } as GL10
+    private val unusedConfig = object : EGLConfig() {}
+
+    /**
+     * Run every step, once blurring with shaders and once with blurred keyframes
+     * prepared on the CPU, returning every frame drawn.
+     */
+    fun run(): List<Frame> = run("shader blur", RecordingGL()) +
+            run("keyframes", RecordingGL(supportsRenderToTexture = false))
+
+    /**
+     * Run every step against the given [RecordingGL], returning every frame drawn
+     * with its step prefixed by [name].
+     */
+    fun run(name: String, recordingGl: RecordingGL): List<Frame> {
+        val frames = mutableListOf<Frame>()
+        fun endFrame(step: String) {
+            val counts = recordingGl.endFrame()
+            frames += Frame("$name: $step", counts.drawCalls, counts.textureUploads,
+                    counts.uploadedBytes, counts.stateChanges, counts.redundantStateChanges)
+        }
+        fun drawFrame(renderer: MuzeiBlurRenderer, step: String) {
+            renderRequested = false
+            renderer.onDrawFrame(unusedGl)
+            endFrame(step)
+        }
+        // Steps only settle once every load has been uploaded
+        fun drawUntilSettled(renderer: MuzeiBlurRenderer, step: String) {
+            val timeout = System.nanoTime() + STEP_TIMEOUT_MILLIS * 1000000
+            var lastActive = SystemClock.elapsedRealtime()
+            while (System.nanoTime() < timeout) {
+                val now = SystemClock.elapsedRealtime()
+                if (renderer.isLoading) {
+                    lastActive = now
+                } else if (events.isEmpty() && now - lastActive > SETTLE_MILLIS) {
+                    return
+                }
+                while (true) {
+                    val event = events.poll() ?: break
+                    event()
+                    lastActive = now
+                }
+                if (renderRequested) {
+                    drawFrame(renderer, step)
+                    lastActive = now
+                }
+                SystemClock.sleep(FRAME_INTERVAL_MILLIS)
+            }
+        }
+
+        events.clear()
+        gl = recordingGl
+        val renderer = MuzeiBlurRenderer(context, object : MuzeiBlurRenderer.Callbacks {
+            override fun queueEventOnGlThread(event: () -> Unit) {
+                events += event
+            }
+
+            override fun requestRender() {
+                renderRequested = true
+            }
+        }, preview = true)
+        try {
+            renderer.onSurfaceCreated(unusedGl, unusedConfig)
+            renderer.onSurfaceChanged(unusedGl, WIDTH, HEIGHT)
+            endFrame("surface created")
+
+            renderer.setAndConsumeImageLoader(
+                    AssetImageLoader(context.assets, ARTWORK_ASSET), immediate = true)
+            drawUntilSettled(renderer, "load")
+
+            for (i in 1..SCROLL_FRAMES) {
+                renderer.setNormalOffsetX(i.toFloat() / SCROLL_FRAMES)
+                drawFrame(renderer, "scroll")
+            }
+            // Offset changes that don't move the artwork shouldn't cost anything
+            renderer.setNormalOffsetX(1f)
+            if (renderRequested) {
+                drawFrame(renderer, "unchanged scroll")
+            }
+
+            renderer.setIsBlurred(false, false)
+            drawUntilSettled(renderer, "unblur")
+            renderer.setIsBlurred(true, false)
+            drawUntilSettled(renderer, "blur")
+
+            renderer.setAndConsumeImageLoader(AssetImageLoader(context.assets, ARTWORK_ASSET))
+            drawUntilSettled(renderer, "crossfade")
+        } finally {
+            renderer.destroy()
+            gl = AndroidGL
+        }
+        return frames
+    }
+
+    /**
+     * Summarize the frames of each step, logging the summary as well.
+     */
+    fun report(frames: List<Frame>) = buildString {
+        for ((step, stepFrames) in frames.groupBy { it.step }) {
+            appendLine(String.format(Locale.US,
+                    "%s: frames=%d draws avg=%.1f max=%d uploads=%d (%d KB) " +
+                            "state changes avg=%.1f max=%d redundant avg=%.1f",
+                    step, stepFrames.size,
+                    stepFrames.map { it.drawCalls }.average(),
+                    stepFrames.maxOf { it.drawCalls },
+                    stepFrames.sumOf { it.textureUploads },
+                    stepFrames.sumOf { it.uploadedBytes } / 1024,
+                    stepFrames.map { it.stateChanges }.average(),
+                    stepFrames.maxOf { it.stateChanges },
+                    stepFrames.map { it.redundantStateChanges }.average()))
+        }
+    }.also { report ->
+        report.lineSequence().filter { it.isNotEmpty() }.forEach { Log.i(TAG, it) }
+    }
+}
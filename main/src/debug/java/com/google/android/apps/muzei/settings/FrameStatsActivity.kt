@@ -0,0 +1,102 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.apps.muzei.settings
+
+import android.os.Bundle
+import androidx.activity.compose.setContent
+import androidx.activity.enableEdgeToEdge
+import androidx.appcompat.app.AppCompatActivity
+import androidx.compose.foundation.horizontalScroll
+import androidx.compose.foundation.layout.Column
+import androidx.compose.foundation.layout.fillMaxSize
+import androidx.compose.foundation.layout.padding
+import androidx.compose.foundation.layout.safeDrawingPadding
+import androidx.compose.foundation.rememberScrollState
+import androidx.compose.foundation.verticalScroll
+import androidx.compose.material3.Button
+import androidx.compose.material3.MaterialTheme
+import androidx.compose.material3.Surface
+import androidx.compose.material3.Text
+import androidx.compose.runtime.LaunchedEffect
+import androidx.compose.runtime.getValue
+import androidx.compose.runtime.mutableIntStateOf
+import androidx.compose.runtime.mutableStateOf
+import androidx.compose.runtime.remember
+import androidx.compose.runtime.setValue
+import androidx.compose.ui.Modifier
+import androidx.compose.ui.res.stringResource
+import androidx.compose.ui.text.font.FontFamily
+import androidx.compose.ui.unit.dp
+import com.google.android.apps.muzei.render.FrameStats
+import com.google.android.apps.muzei.theme.AppTheme
+import kotlinx.coroutines.delay
+import net.nurik.roman.muzei.R
+
+/**
+ * Debug screen showing the frame stats of the wallpaper's active renderers, refreshed
+ * every second. The same stats are available from
+ * `adb shell dumpsys activity service MuzeiWallpaperService`.
+ */
+class FrameStatsActivity : AppCompatActivity() {
+
+    companion object {
+        private const val REFRESH_INTERVAL_MILLIS = 1000L
+    }
+
+    override fun onCreate(savedInstanceState: Bundle?) {
+        super.onCreate(savedInstanceState)
+        enableEdgeToEdge()
+        setContent {
+            AppTheme {
+                var resets by remember { mutableIntStateOf(0) }
+                var stats by remember { mutableStateOf(FrameStats.dumpActive()) }
+                LaunchedEffect(resets) {
+                    while (true) {
+                        stats = FrameStats.dumpActive()
+                        delay(REFRESH_INTERVAL_MILLIS)
+                    }
+                }
+                Surface(modifier = Modifier.fillMaxSize()) {
+                    Column(
+                        modifier = Modifier
+                            .safeDrawingPadding()
+                            .padding(16.dp)
+                            .verticalScroll(rememberScrollState())
+                    ) {
+                        Button(
+                            onClick = {
+                                FrameStats.resetActive()
+                                resets++
+                            }
+                        ) {
+                            Text(stringResource(R.string.frame_stats_reset))
+                        }
+                        Text(
+                            text = stats,
+                            style = MaterialTheme.typography.bodySmall,
+                            fontFamily = FontFamily.Monospace,
+                            softWrap = false,
+                            modifier = Modifier
+                                .padding(top = 16.dp)
+                                .horizontalScroll(rememberScrollState())
+                        )
+                    }
+                }
+            }
+        }
+    }
+}
@@ -26,7 +26,10 @@ import androidx.compose.runtime.ExperimentalComposeRuntimeApi
 import androidx.compose.runtime.tooling.ComposeStackTraceMode
 import androidx.core.content.edit
 import androidx.fragment.app.strictmode.FragmentStrictMode
+import com.google.android.apps.muzei.render.DecodedArtworkCache
 import com.google.android.apps.muzei.settings.Prefs
+import com.google.android.apps.muzei.util.BitmapPool
+import com.google.android.apps.muzei.util.BlurService
 import com.google.firebase.Firebase
 import com.google.firebase.crashlytics.crashlytics
 import net.nurik.roman.muzei.BuildConfig
@@ -80,6 +83,13 @@ class MuzeiApplication : Application(), SharedPreferences.OnSharedPreferenceChan
         sharedPreferences.registerOnSharedPreferenceChangeListener(this)
     }
 
+    override fun onTrimMemory(level: Int) {
+        super.onTrimMemory(level)
+        DecodedArtworkCache.onTrimMemory(level)
+        BitmapPool.onTrimMemory(level)
+        BlurService.onTrimMemory(level)
+    }
+
     override fun onSharedPreferenceChanged(sharedPreferences: SharedPreferences?, key: String?) {
         if (key == ALWAYS_DARK_KEY) {
             updateNightMode()
@@ -23,6 +23,7 @@ import android.content.BroadcastReceiver
 import android.content.Context
 import android.content.Intent
 import android.content.IntentFilter
+import android.graphics.Color
 import android.os.Build
 import android.os.Bundle
 import android.os.SystemClock
@@ -41,10 +42,11 @@ import androidx.lifecycle.lifecycleScope
 import androidx.lifecycle.repeatOnLifecycle
 import com.google.android.apps.muzei.featuredart.BuildConfig.FEATURED_ART_AUTHORITY
 import com.google.android.apps.muzei.notifications.NotificationUpdater
-import com.google.android.apps.muzei.render.ImageLoader
+import com.google.android.apps.muzei.render.DecodedArtworkCache
 import com.google.android.apps.muzei.render.MuzeiBlurRenderer
 import com.google.android.apps.muzei.render.RealRenderController
 import com.google.android.apps.muzei.render.RenderController
+import com.google.android.apps.muzei.render.RenderScheduler
 import com.google.android.apps.muzei.room.Artwork
 import com.google.android.apps.muzei.room.MuzeiDatabase
 import com.google.android.apps.muzei.room.contentUri
@@ -71,6 +73,7 @@ import kotlinx.coroutines.flow.collectLatest
 import kotlinx.coroutines.flow.filterNotNull
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
+import net.nurik.roman.muzei.R
 import net.rbgrn.android.glwallpaperservice.GLWallpaperService
 
 data class WallpaperSize(val width: Int, val height: Int)
@@ -152,6 +155,8 @@ class MuzeiWallpaperService : GLWallpaperService(), LifecycleOwner {
 
         private lateinit var renderer: MuzeiBlurRenderer
         private lateinit var renderController: RenderController
+        // Launchers can send offsets far more often than once a frame
+        private val renderScheduler = RenderScheduler { super<GLEngine>.requestRender() }
         private var currentArtworkColors: WallpaperColors? = null
 
         private var validDoubleTap: Boolean = false
@@ -190,12 +195,14 @@ class MuzeiWallpaperService : GLWallpaperService(), LifecycleOwner {
                 gestureListener)
 
         private var delayedBlur: Job? = null
+        private var idleRelease: Job? = null
 
         override fun onCreate(surfaceHolder: SurfaceHolder) {
             super<GLEngine>.onCreate(surfaceHolder)
 
             renderer = MuzeiBlurRenderer(this@MuzeiWallpaperService, this,
                     false, isPreview)
+            renderer.frameStats = frameStats
             renderController = RealRenderController(this@MuzeiWallpaperService,
                     renderer, this)
             engineLifecycle.addObserver(renderController)
@@ -250,11 +257,23 @@ class MuzeiWallpaperService : GLWallpaperService(), LifecycleOwner {
 
         @RequiresApi(Build.VERSION_CODES.O_MR1)
         private suspend fun updateCurrentArtwork(artwork: Artwork) {
-            val image = ImageLoader.decode(
-                    contentResolver, artwork.contentUri,
-                    MAX_ARTWORK_SIZE / 2) ?: return
-            currentArtworkColors = withContext(Dispatchers.IO) {
-                WallpaperColors.fromBitmap(image)
+            // The color hints and, on Android 12 and higher, the full color population
+            // used for dynamic color can't be rebuilt from stored colors, so compute
+            // the colors from the image, only falling back to the colors stored when
+            // the artwork was loaded if the image can't be decoded
+            val image = DecodedArtworkCache.get(
+                    contentResolver, artwork.id, artwork.contentUri,
+                    MAX_ARTWORK_SIZE / 2)
+            currentArtworkColors = if (image != null) {
+                withContext(Dispatchers.IO) {
+                    WallpaperColors.fromBitmap(image)
+                }
+            } else {
+                artwork.primaryColor?.let { primaryColor ->
+                    WallpaperColors(Color.valueOf(primaryColor),
+                            artwork.secondaryColor?.let { Color.valueOf(it) },
+                            artwork.tertiaryColor?.let { Color.valueOf(it) })
+                } ?: return
             }
             notifyColorsChanged()
         }
@@ -274,6 +293,7 @@ class MuzeiWallpaperService : GLWallpaperService(), LifecycleOwner {
         override fun onDestroy() {
             wallpaperLifecycle.removeObserver(this)
             engineLifecycle.handleLifecycleEvent(Lifecycle.Event.ON_DESTROY)
+            renderScheduler.cancel()
             queueEvent {
                 renderer.destroy()
             }
@@ -288,6 +308,25 @@ class MuzeiWallpaperService : GLWallpaperService(), LifecycleOwner {
 
         override fun onVisibilityChanged(visible: Boolean) {
             renderController.visible = visible
+            idleRelease?.cancel()
+            if (visible) {
+                val resumeStartNanos = System.nanoTime()
+                queueEvent {
+                    if (renderer.resumeFromIdle(resumeStartNanos)) {
+                        onResume()
+                    }
+                }
+            } else {
+                // Free the GPU memory of a wallpaper left hidden behind fullscreen apps
+                val delayMillis = resources.getInteger(R.integer.idle_gpu_release_delay_millis)
+                idleRelease = lifecycleScope.launch {
+                    delay(delayMillis.toLong())
+                    queueEvent {
+                        renderer.releaseGpuResources()
+                        onPause()
+                    }
+                }
+            }
         }
 
         override fun onOffsetsChanged(
@@ -409,7 +448,7 @@ class MuzeiWallpaperService : GLWallpaperService(), LifecycleOwner {
 
         override fun requestRender() {
             if (renderController.visible) {
-                super.requestRender()
+                renderScheduler.requestRender()
             }
         }
 
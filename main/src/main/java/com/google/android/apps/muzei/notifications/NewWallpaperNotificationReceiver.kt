@@ -36,7 +36,7 @@ import androidx.preference.PreferenceManager
 import androidx.savedstate.savedState
 import com.google.android.apps.muzei.ArtDetailOpen
 import com.google.android.apps.muzei.ArtworkInfoRedirectActivity
-import com.google.android.apps.muzei.render.ContentUriImageLoader
+import com.google.android.apps.muzei.render.DecodedArtworkCache
 import com.google.android.apps.muzei.room.MuzeiDatabase
 import com.google.android.apps.muzei.room.contentUri
 import com.google.android.apps.muzei.room.getCommands
@@ -134,9 +134,10 @@ class NewWallpaperNotificationReceiver : BroadcastReceiver() {
             }
             val largeIconHeight = context.resources
                     .getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
-            val imageLoader = ContentUriImageLoader(contentResolver, artwork.contentUri)
-            val largeIcon = withContext(Dispatchers.IO) { imageLoader.decode(largeIconHeight) } ?: return
-            val bigPicture = withContext(Dispatchers.IO) { imageLoader.decode(400) } ?: return
+            val largeIcon = DecodedArtworkCache.get(contentResolver,
+                    artwork.id, artwork.contentUri, largeIconHeight) ?: return
+            val bigPicture = DecodedArtworkCache.get(contentResolver,
+                    artwork.id, artwork.contentUri, 400) ?: return
 
             createNotificationChannel(context)
 
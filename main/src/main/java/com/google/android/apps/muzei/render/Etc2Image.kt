@@ -0,0 +1,58 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.apps.muzei.render
+
+import android.graphics.Bitmap
+import android.opengl.ETC1Util
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+/**
+ * An image compressed as ETC2 RGB8 [data], ready to be uploaded as a texture without
+ * encoding it on the thread uploading it.
+ */
+internal class Etc2Image(val width: Int, val height: Int, val data: ByteBuffer) {
+    companion object {
+        /**
+         * The size of the data of an image of the given size: 8 bytes for each block
+         * of 4 x 4 pixels, including partial blocks at the edges.
+         */
+        fun dataSize(width: Int, height: Int) = (width + 3) / 4 * ((height + 3) / 4) * 8L
+    }
+}
+
+/**
+ * Encode this bitmap as an [Etc2Image]. ETC1 is a subset of ETC2, so the platform's
+ * ETC1 encoder produces valid ETC2 data. It encodes from RGB_565 pixels, so other
+ * configs are converted first.
+ */
+internal fun Bitmap.encodeEtc2(): Etc2Image {
+    val rgb565 = if (config == Bitmap.Config.RGB_565) {
+        this
+    } else {
+        copy(Bitmap.Config.RGB_565, false)
+    }
+    val pixels = ByteBuffer.allocateDirect(rgb565.rowBytes * rgb565.height)
+            .order(ByteOrder.nativeOrder())
+    rgb565.copyPixelsToBuffer(pixels)
+    pixels.position(0)
+    val encoded = ETC1Util.compressTexture(pixels, width, height, 2, rgb565.rowBytes)
+    if (rgb565 !== this) {
+        rgb565.recycle()
+    }
+    return Etc2Image(width, height, encoded.data)
+}
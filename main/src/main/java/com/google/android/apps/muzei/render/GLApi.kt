@@ -0,0 +1,210 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.apps.muzei.render
+
+import android.graphics.Bitmap
+import android.opengl.EGL14
+import android.opengl.GLES20
+import android.opengl.GLUtils
+import java.nio.Buffer
+
+/**
+ * The GL calls the renderer makes, named as in [GLES20], so that they can be recorded
+ * or faked when driving the renderer without a GL context.
+ */
+internal interface GLApi {
+    fun glActiveTexture(texture: Int)
+    fun glAttachShader(program: Int, shader: Int)
+    fun glBindAttribLocation(program: Int, index: Int, name: String)
+    fun glBindBuffer(target: Int, buffer: Int)
+    fun glBindFramebuffer(target: Int, framebuffer: Int)
+    fun glBindTexture(target: Int, texture: Int)
+    fun glBlendFuncSeparate(srcRGB: Int, dstRGB: Int, srcAlpha: Int, dstAlpha: Int)
+    fun glBufferData(target: Int, size: Int, data: Buffer, usage: Int)
+    fun glCheckFramebufferStatus(target: Int): Int
+    fun glClear(mask: Int)
+    fun glClearColor(red: Float, green: Float, blue: Float, alpha: Float)
+    fun glCompileShader(shader: Int)
+    fun glCompressedTexImage2D(target: Int, level: Int, internalformat: Int,
+            width: Int, height: Int, border: Int, imageSize: Int, data: Buffer)
+    fun glCreateProgram(): Int
+    fun glCreateShader(type: Int): Int
+    fun glDeleteBuffers(n: Int, buffers: IntArray, offset: Int)
+    fun glDeleteFramebuffers(n: Int, framebuffers: IntArray, offset: Int)
+    fun glDeleteShader(shader: Int)
+    fun glDeleteTextures(n: Int, textures: IntArray, offset: Int)
+    fun glDisable(cap: Int)
+    fun glDisableVertexAttribArray(index: Int)
+    fun glDrawArrays(mode: Int, first: Int, count: Int)
+    fun glEnable(cap: Int)
+    fun glEnableVertexAttribArray(index: Int)
+    fun glFramebufferTexture2D(target: Int, attachment: Int, textarget: Int,
+            texture: Int, level: Int)
+    fun glGenBuffers(n: Int, buffers: IntArray, offset: Int)
+    fun glGenFramebuffers(n: Int, framebuffers: IntArray, offset: Int)
+    fun glGenTextures(n: Int, textures: IntArray, offset: Int)
+    fun glGetAttribLocation(program: Int, name: String): Int
+    fun glGetError(): Int
+    fun glGetIntegerv(pname: Int, params: IntArray, offset: Int)
+    fun glGetString(name: Int): String?
+    fun glGetUniformLocation(program: Int, name: String): Int
+    fun glIsEnabled(cap: Int): Boolean
+    fun glLinkProgram(program: Int)
+    fun glShaderSource(shader: Int, string: String)
+    fun glTexImage2D(target: Int, level: Int, internalformat: Int, width: Int, height: Int,
+            border: Int, format: Int, type: Int, pixels: Buffer?)
+    fun glTexParameteri(target: Int, pname: Int, param: Int)
+    fun glUniform1f(location: Int, x: Float)
+    fun glUniform1i(location: Int, x: Int)
+    fun glUniform2f(location: Int, x: Float, y: Float)
+    fun glUniform4f(location: Int, x: Float, y: Float, z: Float, w: Float)
+    fun glUniformMatrix4fv(location: Int, count: Int, transpose: Boolean,
+            value: FloatArray, offset: Int)
+    fun glUseProgram(program: Int)
+    fun glVertexAttribPointer(index: Int, size: Int, type: Int, normalized: Boolean,
+            stride: Int, ptr: Buffer)
+    fun glVertexAttribPointer(index: Int, size: Int, type: Int, normalized: Boolean,
+            stride: Int, offset: Int)
+    fun glViewport(x: Int, y: Int, width: Int, height: Int)
+
+    /** As [GLUtils.texImage2D] */
+    fun texImage2D(target: Int, level: Int, bitmap: Bitmap, border: Int)
+
+    /** As [GLUtils.texSubImage2D] */
+    fun texSubImage2D(target: Int, level: Int, xoffset: Int, yoffset: Int, bitmap: Bitmap)
+
+    /** As [GLUtils.getInternalFormat] */
+    fun getInternalFormat(bitmap: Bitmap): Int
+
+    /** As [GLUtils.getType] */
+    fun getType(bitmap: Bitmap): Int
+
+    /** As [GLUploadThread.forCurrentContext] */
+    fun uploadThreadForCurrentContext(): GLUploadThread?
+
+    /**
+     * As [EGL14.eglGetCurrentContext], as any object that is only equal to the
+     * same context.
+     */
+    fun eglGetCurrentContext(): Any?
+}
+
+/**
+ * The [GLApi] of the current GL context.
+ */
+internal object AndroidGL : GLApi {
+    override fun glActiveTexture(texture: Int) = GLES20.glActiveTexture(texture)
+    override fun glAttachShader(program: Int, shader: Int) =
+            GLES20.glAttachShader(program, shader)
+    override fun glBindAttribLocation(program: Int, index: Int, name: String) =
+            GLES20.glBindAttribLocation(program, index, name)
+    override fun glBindBuffer(target: Int, buffer: Int) = GLES20.glBindBuffer(target, buffer)
+    override fun glBindFramebuffer(target: Int, framebuffer: Int) =
+            GLES20.glBindFramebuffer(target, framebuffer)
+    override fun glBindTexture(target: Int, texture: Int) = GLES20.glBindTexture(target, texture)
+    override fun glBlendFuncSeparate(srcRGB: Int, dstRGB: Int, srcAlpha: Int, dstAlpha: Int) =
+            GLES20.glBlendFuncSeparate(srcRGB, dstRGB, srcAlpha, dstAlpha)
+    override fun glBufferData(target: Int, size: Int, data: Buffer, usage: Int) =
+            GLES20.glBufferData(target, size, data, usage)
+    override fun glCheckFramebufferStatus(target: Int) = GLES20.glCheckFramebufferStatus(target)
+    override fun glClear(mask: Int) = GLES20.glClear(mask)
+    override fun glClearColor(red: Float, green: Float, blue: Float, alpha: Float) =
+            GLES20.glClearColor(red, green, blue, alpha)
+    override fun glCompileShader(shader: Int) = GLES20.glCompileShader(shader)
+    override fun glCompressedTexImage2D(target: Int, level: Int, internalformat: Int,
+            width: Int, height: Int, border: Int, imageSize: Int, data: Buffer) =
+            GLES20.glCompressedTexImage2D(target, level, internalformat, width, height,
+                    border, imageSize, data)
+    override fun glCreateProgram() = GLES20.glCreateProgram()
+    override fun glCreateShader(type: Int) = GLES20.glCreateShader(type)
+    override fun glDeleteBuffers(n: Int, buffers: IntArray, offset: Int) =
+            GLES20.glDeleteBuffers(n, buffers, offset)
+    override fun glDeleteFramebuffers(n: Int, framebuffers: IntArray, offset: Int) =
+            GLES20.glDeleteFramebuffers(n, framebuffers, offset)
+    override fun glDeleteShader(shader: Int) = GLES20.glDeleteShader(shader)
+    override fun glDeleteTextures(n: Int, textures: IntArray, offset: Int) =
+            GLES20.glDeleteTextures(n, textures, offset)
+    override fun glDisable(cap: Int) = GLES20.glDisable(cap)
+    override fun glDisableVertexAttribArray(index: Int) =
+            GLES20.glDisableVertexAttribArray(index)
+    override fun glDrawArrays(mode: Int, first: Int, count: Int) =
+            GLES20.glDrawArrays(mode, first, count)
+    override fun glEnable(cap: Int) = GLES20.glEnable(cap)
+    override fun glEnableVertexAttribArray(index: Int) = GLES20.glEnableVertexAttribArray(index)
+    override fun glFramebufferTexture2D(target: Int, attachment: Int, textarget: Int,
+            texture: Int, level: Int) =
+            GLES20.glFramebufferTexture2D(target, attachment, textarget, texture, level)
+    override fun glGenBuffers(n: Int, buffers: IntArray, offset: Int) =
+            GLES20.glGenBuffers(n, buffers, offset)
+    override fun glGenFramebuffers(n: Int, framebuffers: IntArray, offset: Int) =
+            GLES20.glGenFramebuffers(n, framebuffers, offset)
+    override fun glGenTextures(n: Int, textures: IntArray, offset: Int) =
+            GLES20.glGenTextures(n, textures, offset)
+    override fun glGetAttribLocation(program: Int, name: String) =
+            GLES20.glGetAttribLocation(program, name)
+    override fun glGetError() = GLES20.glGetError()
+    override fun glGetIntegerv(pname: Int, params: IntArray, offset: Int) =
+            GLES20.glGetIntegerv(pname, params, offset)
+    override fun glGetString(name: Int): String? = GLES20.glGetString(name)
+    override fun glGetUniformLocation(program: Int, name: String) =
+            GLES20.glGetUniformLocation(program, name)
+    override fun glIsEnabled(cap: Int) = GLES20.glIsEnabled(cap)
+    override fun glLinkProgram(program: Int) = GLES20.glLinkProgram(program)
+    override fun glShaderSource(shader: Int, string: String) =
+            GLES20.glShaderSource(shader, string)
+    override fun glTexImage2D(target: Int, level: Int, internalformat: Int, width: Int,
+            height: Int, border: Int, format: Int, type: Int, pixels: Buffer?) =
+            GLES20.glTexImage2D(target, level, internalformat, width, height, border,
+                    format, type, pixels)
+    override fun glTexParameteri(target: Int, pname: Int, param: Int) =
+            GLES20.glTexParameteri(target, pname, param)
+    override fun glUniform1f(location: Int, x: Float) = GLES20.glUniform1f(location, x)
+    override fun glUniform1i(location: Int, x: Int) = GLES20.glUniform1i(location, x)
+    override fun glUniform2f(location: Int, x: Float, y: Float) =
+            GLES20.glUniform2f(location, x, y)
+    override fun glUniform4f(location: Int, x: Float, y: Float, z: Float, w: Float) =
+            GLES20.glUniform4f(location, x, y, z, w)
+    override fun glUniformMatrix4fv(location: Int, count: Int, transpose: Boolean,
+            value: FloatArray, offset: Int) =
+            GLES20.glUniformMatrix4fv(location, count, transpose, value, offset)
+    override fun glUseProgram(program: Int) = GLES20.glUseProgram(program)
+    override fun glVertexAttribPointer(index: Int, size: Int, type: Int, normalized: Boolean,
+            stride: Int, ptr: Buffer) =
+            GLES20.glVertexAttribPointer(index, size, type, normalized, stride, ptr)
+    override fun glVertexAttribPointer(index: Int, size: Int, type: Int, normalized: Boolean,
+            stride: Int, offset: Int) =
+            GLES20.glVertexAttribPointer(index, size, type, normalized, stride, offset)
+    override fun glViewport(x: Int, y: Int, width: Int, height: Int) =
+            GLES20.glViewport(x, y, width, height)
+
+    override fun texImage2D(target: Int, level: Int, bitmap: Bitmap, border: Int) =
+            GLUtils.texImage2D(target, level, bitmap, border)
+    override fun texSubImage2D(target: Int, level: Int, xoffset: Int, yoffset: Int,
+            bitmap: Bitmap) = GLUtils.texSubImage2D(target, level, xoffset, yoffset, bitmap)
+    override fun getInternalFormat(bitmap: Bitmap) = GLUtils.getInternalFormat(bitmap)
+    override fun getType(bitmap: Bitmap) = GLUtils.getType(bitmap)
+    override fun uploadThreadForCurrentContext(): GLUploadThread? =
+            GLUploadThread.forCurrentContext()
+    override fun eglGetCurrentContext(): Any? = EGL14.eglGetCurrentContext()
+}
+
+/**
+ * The GL calls of every picture and of the renderer, on whichever thread makes them.
+ * Only replaced, before anything is drawn, in processes that drive the renderer
+ * without a GL context.
+ */
+internal var gl: GLApi = AndroidGL
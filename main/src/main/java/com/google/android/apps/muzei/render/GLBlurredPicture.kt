@@ -0,0 +1,422 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.apps.muzei.render
+
+import android.graphics.Bitmap
+import android.opengl.GLES20
+import android.util.Log
+import java.nio.FloatBuffer
+import kotlin.math.max
+
+/**
+ * A picture that is blurred and desaturated on the GPU to any radius, rather than
+ * being limited to a fixed set of blurred keyframes.
+ *
+ * Only the source image is uploaded. Blurring renders a two pass separable Gaussian
+ * into framebuffer textures, first downsampling the source through a chain of half
+ * size levels until the blur fits in the kernel. The last blurred result is kept,
+ * so drawing repeatedly at the same radius doesn't blur again.
+ */
+internal class GLBlurredPicture(bitmap: Bitmap) {
+
+    companion object {
+        private const val TAG = "GLBlurredPicture"
+
+        // Both passes render a full viewport quad, deriving the texture coordinates
+        // from the position so that every level keeps the source's orientation
+        private const val PASS_VERTEX_SHADER_CODE = "" +
+                "attribute vec2 aPosition;" +
+                "varying vec2 vTexCoords;" +
+                "void main(){" +
+                "  vTexCoords = aPosition * 0.5 + 0.5;" +
+                "  gl_Position = vec4(aPosition, 0.0, 1.0);" +
+                "}"
+
+        // Samples KERNEL_RADIUS texels either side of the center along uTexelStep
+        private const val BLUR_FRAGMENT_SHADER_CODE = "" +
+                "precision mediump float;" +
+                "uniform sampler2D uTexture;" +
+                "uniform vec2 uTexelStep;" +
+                "uniform float uSigma;" +
+                "varying vec2 vTexCoords;" +
+                "void main(){" +
+                "  float exponent = -0.5 / (uSigma * uSigma);" +
+                "  vec3 color = texture2D(uTexture, vTexCoords).rgb;" +
+                "  float weightSum = 1.0;" +
+                "  for (int i = 1; i <= 8; i++) {" +
+                "    float weight = exp(float(i * i) * exponent);" +
+                "    vec2 offset = float(i) * uTexelStep;" +
+                "    color += weight * (texture2D(uTexture, vTexCoords - offset).rgb" +
+                "        + texture2D(uTexture, vTexCoords + offset).rgb);" +
+                "    weightSum += 2.0 * weight;" +
+                "  }" +
+                "  gl_FragColor = vec4(color / weightSum, 1.0);" +
+                "}"
+
+        // Downsamples, with linear filtering averaging each 2x2 block
+        private const val COPY_FRAGMENT_SHADER_CODE = "" +
+                "precision mediump float;" +
+                "uniform sampler2D uTexture;" +
+                "varying vec2 vTexCoords;" +
+                "void main(){" +
+                "  gl_FragColor = vec4(texture2D(uTexture, vTexCoords).rgb, 1.0);" +
+                "}"
+
+        private const val DRAW_VERTEX_SHADER_CODE = "" +
+                "uniform mat4 uMVPMatrix;" +
+                "attribute vec4 aPosition;" +
+                "attribute vec2 aTexCoords;" +
+                "varying vec2 vTexCoords;" +
+                "void main(){" +
+                "  vTexCoords = aTexCoords;" +
+                "  gl_Position = uMVPMatrix * aPosition;" +
+                "}"
+
+        // Desaturates as it draws, so that the blurred result doesn't depend on it
+        private const val DRAW_FRAGMENT_SHADER_CODE = "" +
+                "precision mediump float;" +
+                "uniform sampler2D uTexture;" +
+                "uniform float uAlpha;" +
+                "uniform float uDesaturate;" +
+                "varying vec2 vTexCoords;" +
+                "void main(){" +
+                "  vec3 color = texture2D(uTexture, vTexCoords).rgb;" +
+                "  float grey = dot(color, vec3(0.3, 0.59, 0.11));" +
+                "  gl_FragColor = vec4(mix(color, vec3(grey), uDesaturate), uAlpha);" +
+                "}"
+
+        /**
+         * The number of texels sampled either side of the center by the blur shader
+         */
+        private const val KERNEL_RADIUS = 8
+        /**
+         * The largest sigma blurred at a level, so that the kernel covers three sigma
+         */
+        private const val MAX_LEVEL_SIGMA = KERNEL_RADIUS / 3f
+        private const val MAX_LEVELS = 6
+        // Radii below this many texels are indistinguishable from no blur
+        private const val MIN_BLUR_RADIUS = 0.5f
+
+        private const val COORDS_PER_VERTEX = 2
+        private const val VERTEX_STRIDE_BYTES = COORDS_PER_VERTEX * GLUtil.BYTES_PER_FLOAT
+        private const val VERTICES = 4
+
+        // Triangle strip of BL, BR, TL, TR
+        private val PASS_VERTEX_BUFFER: FloatBuffer = GLUtil.asFloatBuffer(floatArrayOf(
+                -1f, -1f,
+                1f, -1f,
+                -1f, 1f,
+                1f, 1f))
+
+        // Triangle strip of TL, BL, TR, BR, matching the texture coordinates of GLPicture
+        private val DRAW_VERTEX_BUFFER: FloatBuffer = GLUtil.asFloatBuffer(floatArrayOf(
+                -1f, 1f,
+                -1f, -1f,
+                1f, 1f,
+                1f, -1f))
+        private val DRAW_TEXTURE_VERTEX_BUFFER: FloatBuffer = GLUtil.asFloatBuffer(floatArrayOf(
+                0f, 0f,
+                0f, 1f,
+                1f, 0f,
+                1f, 1f))
+
+        private var BLUR_PROGRAM_HANDLE: Int = 0
+        private var BLUR_ATTRIB_POSITION_HANDLE: Int = 0
+        private var BLUR_UNIFORM_TEXTURE_HANDLE: Int = 0
+        private var BLUR_UNIFORM_TEXEL_STEP_HANDLE: Int = 0
+        private var BLUR_UNIFORM_SIGMA_HANDLE: Int = 0
+
+        private var COPY_PROGRAM_HANDLE: Int = 0
+        private var COPY_ATTRIB_POSITION_HANDLE: Int = 0
+        private var COPY_UNIFORM_TEXTURE_HANDLE: Int = 0
+
+        private var DRAW_PROGRAM_HANDLE: Int = 0
+        private var DRAW_ATTRIB_POSITION_HANDLE: Int = 0
+        private var DRAW_ATTRIB_TEXTURE_COORDS_HANDLE: Int = 0
+        private var DRAW_UNIFORM_MVP_MATRIX_HANDLE: Int = 0
+        private var DRAW_UNIFORM_TEXTURE_HANDLE: Int = 0
+        private var DRAW_UNIFORM_ALPHA_HANDLE: Int = 0
+        private var DRAW_UNIFORM_DESATURATE_HANDLE: Int = 0
+
+        /**
+         * Whether textures can be rendered to on this device. When false, blurred
+         * pictures must be prepared on the CPU instead.
+         */
+        var isSupported = false
+            private set
+
+        /**
+         * The largest width or height of the bitmap a blurred picture is created from,
+         * as it is uploaded as a single texture.
+         */
+        var maxTextureSize = 0
+            private set
+
+        fun initGl() {
+            BLUR_PROGRAM_HANDLE = GLUtil.createAndLinkProgram(
+                    GLUtil.loadShader(GLES20.GL_VERTEX_SHADER, PASS_VERTEX_SHADER_CODE),
+                    GLUtil.loadShader(GLES20.GL_FRAGMENT_SHADER, BLUR_FRAGMENT_SHADER_CODE),
+                    null)
+            BLUR_ATTRIB_POSITION_HANDLE = gl.glGetAttribLocation(BLUR_PROGRAM_HANDLE, "aPosition")
+            BLUR_UNIFORM_TEXTURE_HANDLE = gl.glGetUniformLocation(BLUR_PROGRAM_HANDLE, "uTexture")
+            BLUR_UNIFORM_TEXEL_STEP_HANDLE = gl.glGetUniformLocation(BLUR_PROGRAM_HANDLE, "uTexelStep")
+            BLUR_UNIFORM_SIGMA_HANDLE = gl.glGetUniformLocation(BLUR_PROGRAM_HANDLE, "uSigma")
+
+            COPY_PROGRAM_HANDLE = GLUtil.createAndLinkProgram(
+                    GLUtil.loadShader(GLES20.GL_VERTEX_SHADER, PASS_VERTEX_SHADER_CODE),
+                    GLUtil.loadShader(GLES20.GL_FRAGMENT_SHADER, COPY_FRAGMENT_SHADER_CODE),
+                    null)
+            COPY_ATTRIB_POSITION_HANDLE = gl.glGetAttribLocation(COPY_PROGRAM_HANDLE, "aPosition")
+            COPY_UNIFORM_TEXTURE_HANDLE = gl.glGetUniformLocation(COPY_PROGRAM_HANDLE, "uTexture")
+
+            DRAW_PROGRAM_HANDLE = GLUtil.createAndLinkProgram(
+                    GLUtil.loadShader(GLES20.GL_VERTEX_SHADER, DRAW_VERTEX_SHADER_CODE),
+                    GLUtil.loadShader(GLES20.GL_FRAGMENT_SHADER, DRAW_FRAGMENT_SHADER_CODE),
+                    null)
+            DRAW_ATTRIB_POSITION_HANDLE = gl.glGetAttribLocation(DRAW_PROGRAM_HANDLE, "aPosition")
+            DRAW_ATTRIB_TEXTURE_COORDS_HANDLE = gl.glGetAttribLocation(DRAW_PROGRAM_HANDLE, "aTexCoords")
+            DRAW_UNIFORM_MVP_MATRIX_HANDLE = gl.glGetUniformLocation(DRAW_PROGRAM_HANDLE, "uMVPMatrix")
+            DRAW_UNIFORM_TEXTURE_HANDLE = gl.glGetUniformLocation(DRAW_PROGRAM_HANDLE, "uTexture")
+            DRAW_UNIFORM_ALPHA_HANDLE = gl.glGetUniformLocation(DRAW_PROGRAM_HANDLE, "uAlpha")
+            DRAW_UNIFORM_DESATURATE_HANDLE = gl.glGetUniformLocation(DRAW_PROGRAM_HANDLE, "uDesaturate")
+
+            val maxTextureSize = IntArray(1)
+            gl.glGetIntegerv(GLES20.GL_MAX_TEXTURE_SIZE, maxTextureSize, 0)
+            this.maxTextureSize = maxTextureSize[0]
+
+            // Check that a texture can be used as a framebuffer attachment
+            val textureHandle = intArrayOf(GLUtil.createTexture(1, 1))
+            val framebufferHandle = IntArray(1)
+            gl.glGenFramebuffers(1, framebufferHandle, 0)
+            gl.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, framebufferHandle[0])
+            gl.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                    GLES20.GL_TEXTURE_2D, textureHandle[0], 0)
+            isSupported = gl.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER) ==
+                    GLES20.GL_FRAMEBUFFER_COMPLETE
+            gl.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0)
+            gl.glDeleteFramebuffers(1, framebufferHandle, 0)
+            gl.glDeleteTextures(1, textureHandle, 0)
+            if (!isSupported) {
+                Log.w(TAG, "Rendering to textures is unsupported, falling back to CPU blurring")
+            }
+        }
+    }
+
+    val width = bitmap.width
+    val height = bitmap.height
+
+    // levelTextures[k] is the source downsampled by 2^k. All but the
+    // source are created the first time a blur needs them
+    private val levelTextures = IntArray(MAX_LEVELS)
+    // The intermediate (horizontally blurred) and final results at each level
+    private val passTextures = IntArray(MAX_LEVELS)
+    private val blurredTextures = IntArray(MAX_LEVELS)
+    private val framebufferHandle = IntArray(1)
+    private val savedViewport = IntArray(4)
+
+    private var blurredTexture = 0
+    private var blurredRadius = 0f
+
+    init {
+        levelTextures[0] = GLUtil.loadTexture(bitmap)
+    }
+
+    private fun levelWidth(level: Int) = max(1, width shr level)
+
+    private fun levelHeight(level: Int) = max(1, height shr level)
+
+    /**
+     * The GPU memory used by the source and the blur textures created so far.
+     */
+    val textureBytes: Long
+        get() = (0 until MAX_LEVELS).sumOf { level ->
+            val textures = arrayOf(levelTextures, passTextures, blurredTextures)
+                    .count { it[level] != 0 }
+            textures.toLong() * levelWidth(level) * levelHeight(level) * 4
+        }
+
+    /**
+     * Draw the picture blurred by [radius] texels of the source bitmap and
+     * desaturated by [desaturateAmount], from 0 to 1.
+     */
+    fun draw(mvpMatrix: FloatArray, alpha: Float, radius: Float, desaturateAmount: Float) {
+        val texture = blur(radius)
+
+        gl.glUseProgram(DRAW_PROGRAM_HANDLE)
+        gl.glUniformMatrix4fv(DRAW_UNIFORM_MVP_MATRIX_HANDLE, 1, false, mvpMatrix, 0)
+        GLUtil.checkGlError("glUniformMatrix4fv")
+
+        gl.glEnableVertexAttribArray(DRAW_ATTRIB_POSITION_HANDLE)
+        gl.glVertexAttribPointer(DRAW_ATTRIB_POSITION_HANDLE,
+                COORDS_PER_VERTEX, GLES20.GL_FLOAT, false,
+                VERTEX_STRIDE_BYTES, DRAW_VERTEX_BUFFER)
+
+        gl.glActiveTexture(GLES20.GL_TEXTURE0)
+        gl.glUniform1i(DRAW_UNIFORM_TEXTURE_HANDLE, 0)
+        gl.glEnableVertexAttribArray(DRAW_ATTRIB_TEXTURE_COORDS_HANDLE)
+        gl.glVertexAttribPointer(DRAW_ATTRIB_TEXTURE_COORDS_HANDLE,
+                COORDS_PER_VERTEX, GLES20.GL_FLOAT, false,
+                VERTEX_STRIDE_BYTES, DRAW_TEXTURE_VERTEX_BUFFER)
+
+        gl.glUniform1f(DRAW_UNIFORM_ALPHA_HANDLE, alpha)
+        gl.glUniform1f(DRAW_UNIFORM_DESATURATE_HANDLE, desaturateAmount)
+
+        gl.glBindTexture(GLES20.GL_TEXTURE_2D, texture)
+        GLUtil.checkGlError("glBindTexture")
+        gl.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, VERTICES)
+
+        gl.glDisableVertexAttribArray(DRAW_ATTRIB_POSITION_HANDLE)
+        gl.glDisableVertexAttribArray(DRAW_ATTRIB_TEXTURE_COORDS_HANDLE)
+    }
+
+    /**
+     * Return a texture holding the picture blurred by [radius] texels of the source
+     * bitmap, with the same texture coordinates as a [GLPicture], reusing the previous
+     * result when the radius hasn't changed. Renders to textures with its own
+     * programs, so must be called before setting up a draw.
+     */
+    fun blur(radius: Float): Int {
+        if (radius < MIN_BLUR_RADIUS) {
+            return levelTextures[0]
+        }
+        if (blurredTexture != 0 && radius == blurredRadius) {
+            return blurredTexture
+        }
+
+        // Match the sigma ScriptIntrinsicBlur uses for a given radius, and blur
+        // at the largest level where that sigma still fits in the kernel
+        val sigma = 0.4f * radius + 0.6f
+        var level = 0
+        while (level < MAX_LEVELS - 1 && sigma / (1 shl level) > MAX_LEVEL_SIGMA &&
+                levelWidth(level + 1) > 1 && levelHeight(level + 1) > 1) {
+            level++
+        }
+
+        val blendEnabled = gl.glIsEnabled(GLES20.GL_BLEND)
+        gl.glDisable(GLES20.GL_BLEND)
+        gl.glGetIntegerv(GLES20.GL_VIEWPORT, savedViewport, 0)
+        if (framebufferHandle[0] == 0) {
+            // Framebuffers aren't shared between contexts, so create it on the
+            // thread drawing the picture rather than where the picture was created
+            gl.glGenFramebuffers(1, framebufferHandle, 0)
+            GLUtil.checkGlError("glGenFramebuffers")
+        }
+        gl.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, framebufferHandle[0])
+
+        val source = levelTexture(level)
+        val targetWidth = levelWidth(level)
+        val targetHeight = levelHeight(level)
+        if (blurredTextures[level] == 0) {
+            blurredTextures[level] = GLUtil.createTexture(targetWidth, targetHeight)
+        }
+        if (passTextures[level] == 0) {
+            passTextures[level] = GLUtil.createTexture(targetWidth, targetHeight)
+        }
+        val levelSigma = sigma / (1 shl level)
+        blurPass(source, passTextures[level], targetWidth, targetHeight,
+                1f / targetWidth, 0f, levelSigma)
+        blurPass(passTextures[level], blurredTextures[level], targetWidth, targetHeight,
+                0f, 1f / targetHeight, levelSigma)
+
+        gl.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0)
+        gl.glViewport(savedViewport[0], savedViewport[1], savedViewport[2], savedViewport[3])
+        if (blendEnabled) {
+            gl.glEnable(GLES20.GL_BLEND)
+        }
+        GLUtil.checkGlError("Blur picture")
+
+        blurredTexture = blurredTextures[level]
+        blurredRadius = radius
+        return blurredTexture
+    }
+
+    /**
+     * Return the source downsampled to the given level, downsampling it from
+     * the level above if needed. The framebuffer must already be bound.
+     */
+    private fun levelTexture(level: Int): Int {
+        if (levelTextures[level] == 0) {
+            val source = levelTexture(level - 1)
+            levelTextures[level] = GLUtil.createTexture(levelWidth(level), levelHeight(level))
+            copy(source, levelTextures[level], levelWidth(level), levelHeight(level))
+        }
+        return levelTextures[level]
+    }
+
+    private fun copy(
+            source: Int,
+            target: Int,
+            targetWidth: Int,
+            targetHeight: Int
+    ) {
+        gl.glUseProgram(COPY_PROGRAM_HANDLE)
+        drawPass(COPY_ATTRIB_POSITION_HANDLE, COPY_UNIFORM_TEXTURE_HANDLE,
+                source, target, targetWidth, targetHeight)
+    }
+
+    private fun blurPass(
+            source: Int,
+            target: Int,
+            targetWidth: Int,
+            targetHeight: Int,
+            texelStepX: Float,
+            texelStepY: Float,
+            sigma: Float
+    ) {
+        gl.glUseProgram(BLUR_PROGRAM_HANDLE)
+        gl.glUniform2f(BLUR_UNIFORM_TEXEL_STEP_HANDLE, texelStepX, texelStepY)
+        gl.glUniform1f(BLUR_UNIFORM_SIGMA_HANDLE, sigma)
+        drawPass(BLUR_ATTRIB_POSITION_HANDLE, BLUR_UNIFORM_TEXTURE_HANDLE,
+                source, target, targetWidth, targetHeight)
+    }
+
+    private fun drawPass(
+            positionHandle: Int,
+            textureUniformHandle: Int,
+            source: Int,
+            target: Int,
+            targetWidth: Int,
+            targetHeight: Int
+    ) {
+        gl.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                GLES20.GL_TEXTURE_2D, target, 0)
+        gl.glViewport(0, 0, targetWidth, targetHeight)
+
+        gl.glEnableVertexAttribArray(positionHandle)
+        gl.glVertexAttribPointer(positionHandle,
+                COORDS_PER_VERTEX, GLES20.GL_FLOAT, false,
+                VERTEX_STRIDE_BYTES, PASS_VERTEX_BUFFER)
+
+        gl.glActiveTexture(GLES20.GL_TEXTURE0)
+        gl.glUniform1i(textureUniformHandle, 0)
+        gl.glBindTexture(GLES20.GL_TEXTURE_2D, source)
+        gl.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, VERTICES)
+
+        gl.glDisableVertexAttribArray(positionHandle)
+    }
+
+    fun destroy() {
+        for (textures in arrayOf(levelTextures, passTextures, blurredTextures)) {
+            gl.glDeleteTextures(textures.size, textures, 0)
+            textures.fill(0)
+        }
+        gl.glDeleteFramebuffers(1, framebufferHandle, 0)
+        framebufferHandle[0] = 0
+        blurredTexture = 0
+        GLUtil.checkGlError("Destroy blurred picture")
+    }
+}
@@ -56,9 +56,9 @@ internal class GLColorOverlay {
             val fragShaderHandle = GLUtil.loadShader(GLES20.GL_FRAGMENT_SHADER, FRAGMENT_SHADER_CODE)
 
             PROGRAM_HANDLE = GLUtil.createAndLinkProgram(vertexShaderHandle, fragShaderHandle, null)
-            ATTRIB_POSITION_HANDLE = GLES20.glGetAttribLocation(PROGRAM_HANDLE, "aPosition")
-            UNIFORM_MVP_MATRIX_HANDLE = GLES20.glGetUniformLocation(PROGRAM_HANDLE, "uMVPMatrix")
-            UNIFORM_COLOR_HANDLE = GLES20.glGetUniformLocation(PROGRAM_HANDLE, "uColor")
+            ATTRIB_POSITION_HANDLE = gl.glGetAttribLocation(PROGRAM_HANDLE, "aPosition")
+            UNIFORM_MVP_MATRIX_HANDLE = gl.glGetUniformLocation(PROGRAM_HANDLE, "uMVPMatrix")
+            UNIFORM_COLOR_HANDLE = gl.glGetUniformLocation(PROGRAM_HANDLE, "uColor")
         }
     }
 
@@ -77,16 +77,16 @@ internal class GLColorOverlay {
 
     fun draw(mvpMatrix: FloatArray) {
         // Add program to OpenGL ES environment
-        GLES20.glUseProgram(PROGRAM_HANDLE)
+        gl.glUseProgram(PROGRAM_HANDLE)
 
         // Pass in the vertex information
-        GLES20.glEnableVertexAttribArray(ATTRIB_POSITION_HANDLE)
-        GLES20.glVertexAttribPointer(ATTRIB_POSITION_HANDLE,
+        gl.glEnableVertexAttribArray(ATTRIB_POSITION_HANDLE)
+        gl.glVertexAttribPointer(ATTRIB_POSITION_HANDLE,
                 COORDS_PER_VERTEX, GLES20.GL_FLOAT, false,
                 VERTEX_STRIDE_BYTES, vertexBuffer)
 
         // Apply the projection and view transformation
-        GLES20.glUniformMatrix4fv(UNIFORM_MVP_MATRIX_HANDLE, 1, false, mvpMatrix, 0)
+        gl.glUniformMatrix4fv(UNIFORM_MVP_MATRIX_HANDLE, 1, false, mvpMatrix, 0)
         GLUtil.checkGlError("glUniformMatrix4fv")
 
         // Set the alpha
@@ -94,11 +94,11 @@ internal class GLColorOverlay {
         val g = Color.green(color) * 1f / 255
         val b = Color.blue(color) * 1f / 255
         val a = Color.alpha(color) * 1f / 255
-        GLES20.glUniform4f(UNIFORM_COLOR_HANDLE, r, g, b, a)
+        gl.glUniform4f(UNIFORM_COLOR_HANDLE, r, g, b, a)
 
         // Draw the triangle
-        GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, vertices.size / COORDS_PER_VERTEX)
+        gl.glDrawArrays(GLES20.GL_TRIANGLES, 0, vertices.size / COORDS_PER_VERTEX)
 
-        GLES20.glDisableVertexAttribArray(ATTRIB_POSITION_HANDLE)
+        gl.glDisableVertexAttribArray(ATTRIB_POSITION_HANDLE)
     }
 }
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.apps.muzei.render
+
+import android.opengl.GLES20
+import android.opengl.Matrix
+import java.nio.FloatBuffer
+
+/**
+ * Draws the current and next picture sets in a single full screen pass, blending each
+ * set's pair of blur keyframes, cross fading between the sets, then desaturating and
+ * dimming the result. Drawn one at a time, those take up to five passes.
+ *
+ * Each set is a [Layer] of textures with the texture coordinates of a [GLPicture].
+ */
+internal class GLComposite {
+
+    companion object {
+        // Maps the screen to each set's texture coordinates
+        private const val VERTEX_SHADER_CODE = "" +
+                "uniform mat4 uCurrentMatrix;" +
+                "uniform mat4 uNextMatrix;" +
+                "attribute vec4 aPosition;" +
+                "varying vec2 vCurrentTexCoords;" +
+                "varying vec2 vNextTexCoords;" +
+                "void main(){" +
+                "  vCurrentTexCoords = (uCurrentMatrix * aPosition).xy;" +
+                "  vNextTexCoords = (uNextMatrix * aPosition).xy;" +
+                "  gl_Position = aPosition;" +
+                "}"
+
+        // Without a current set, the next set fades in over the background instead
+        private const val FRAGMENT_SHADER_CODE = "" +
+                "precision mediump float;" +
+                "uniform sampler2D uCurrentLo;" +
+                "uniform sampler2D uCurrentHi;" +
+                "uniform sampler2D uNextLo;" +
+                "uniform sampler2D uNextHi;" +
+                "uniform float uCurrentHiAlpha;" +
+                "uniform float uNextHiAlpha;" +
+                "uniform float uCurrentAlpha;" +
+                "uniform float uNextAlpha;" +
+                "uniform float uDesaturate;" +
+                "uniform float uDim;" +
+                "varying vec2 vCurrentTexCoords;" +
+                "varying vec2 vNextTexCoords;" +
+                "void main(){" +
+                "  vec3 current = mix(texture2D(uCurrentLo, vCurrentTexCoords).rgb," +
+                "      texture2D(uCurrentHi, vCurrentTexCoords).rgb, uCurrentHiAlpha);" +
+                "  vec3 next = mix(texture2D(uNextLo, vNextTexCoords).rgb," +
+                "      texture2D(uNextHi, vNextTexCoords).rgb, uNextHiAlpha);" +
+                "  vec3 color = mix(current, next, mix(1.0, uNextAlpha, uCurrentAlpha));" +
+                "  float grey = dot(color, vec3(0.3, 0.59, 0.11));" +
+                "  color = mix(color, vec3(grey), uDesaturate) * (1.0 - uDim);" +
+                "  gl_FragColor = vec4(color, mix(uNextAlpha, 1.0, uCurrentAlpha));" +
+                "}"
+
+        private const val COORDS_PER_VERTEX = 2
+        private const val VERTEX_STRIDE_BYTES = COORDS_PER_VERTEX * GLUtil.BYTES_PER_FLOAT
+        private const val VERTICES = 4
+
+        // Triangle strip of BL, BR, TL, TR covering the screen
+        private val VERTEX_BUFFER: FloatBuffer = GLUtil.asFloatBuffer(floatArrayOf(
+                -1f, -1f,
+                1f, -1f,
+                -1f, 1f,
+                1f, 1f))
+
+        // Maps [-1, 1] of a picture to its texture coordinates, with t = 0 at the top
+        private val PICTURE_TEXTURE_MATRIX = floatArrayOf(
+                0.5f, 0f, 0f, 0f,
+                0f, -0.5f, 0f, 0f,
+                0f, 0f, 1f, 0f,
+                0.5f, 0.5f, 0f, 1f)
+
+        private var PROGRAM_HANDLE: Int = 0
+        private var ATTRIB_POSITION_HANDLE: Int = 0
+        private var UNIFORM_CURRENT_MATRIX_HANDLE: Int = 0
+        private var UNIFORM_NEXT_MATRIX_HANDLE: Int = 0
+        private val UNIFORM_TEXTURE_HANDLES = IntArray(4)
+        private var UNIFORM_CURRENT_HI_ALPHA_HANDLE: Int = 0
+        private var UNIFORM_NEXT_HI_ALPHA_HANDLE: Int = 0
+        private var UNIFORM_CURRENT_ALPHA_HANDLE: Int = 0
+        private var UNIFORM_NEXT_ALPHA_HANDLE: Int = 0
+        private var UNIFORM_DESATURATE_HANDLE: Int = 0
+        private var UNIFORM_DIM_HANDLE: Int = 0
+
+        fun initGl() {
+            // Initialize shaders and create/link program
+            val vertexShaderHandle = GLUtil.loadShader(GLES20.GL_VERTEX_SHADER, VERTEX_SHADER_CODE)
+            val fragShaderHandle = GLUtil.loadShader(GLES20.GL_FRAGMENT_SHADER, FRAGMENT_SHADER_CODE)
+
+            PROGRAM_HANDLE = GLUtil.createAndLinkProgram(vertexShaderHandle, fragShaderHandle, null)
+            ATTRIB_POSITION_HANDLE = gl.glGetAttribLocation(PROGRAM_HANDLE, "aPosition")
+            UNIFORM_CURRENT_MATRIX_HANDLE = gl.glGetUniformLocation(PROGRAM_HANDLE, "uCurrentMatrix")
+            UNIFORM_NEXT_MATRIX_HANDLE = gl.glGetUniformLocation(PROGRAM_HANDLE, "uNextMatrix")
+            arrayOf("uCurrentLo", "uCurrentHi", "uNextLo", "uNextHi").forEachIndexed { i, name ->
+                UNIFORM_TEXTURE_HANDLES[i] = gl.glGetUniformLocation(PROGRAM_HANDLE, name)
+            }
+            UNIFORM_CURRENT_HI_ALPHA_HANDLE = gl.glGetUniformLocation(PROGRAM_HANDLE, "uCurrentHiAlpha")
+            UNIFORM_NEXT_HI_ALPHA_HANDLE = gl.glGetUniformLocation(PROGRAM_HANDLE, "uNextHiAlpha")
+            UNIFORM_CURRENT_ALPHA_HANDLE = gl.glGetUniformLocation(PROGRAM_HANDLE, "uCurrentAlpha")
+            UNIFORM_NEXT_ALPHA_HANDLE = gl.glGetUniformLocation(PROGRAM_HANDLE, "uNextAlpha")
+            UNIFORM_DESATURATE_HANDLE = gl.glGetUniformLocation(PROGRAM_HANDLE, "uDesaturate")
+            UNIFORM_DIM_HANDLE = gl.glGetUniformLocation(PROGRAM_HANDLE, "uDim")
+        }
+    }
+
+    /**
+     * A picture set drawn as [hiTexture] over [loTexture] with an alpha of [hiAlpha].
+     */
+    class Layer {
+        var loTexture = 0
+        var hiTexture = 0
+        var hiAlpha = 0f
+        val textureMatrix = FloatArray(16)
+        private val inverseMvpMatrix = FloatArray(16)
+
+        /**
+         * Map the screen to the textures as a picture drawn with the given matrix,
+         * returning false if the matrix can't be inverted.
+         */
+        fun setMvpMatrix(mvpMatrix: FloatArray): Boolean {
+            if (!Matrix.invertM(inverseMvpMatrix, 0, mvpMatrix, 0)) {
+                return false
+            }
+            Matrix.multiplyMM(textureMatrix, 0, PICTURE_TEXTURE_MATRIX, 0, inverseMvpMatrix, 0)
+            return true
+        }
+    }
+
+    private val textures = IntArray(4)
+
+    /**
+     * Draw [next] over [current] with an alpha of [nextAlpha], either of which may be
+     * missing, then desaturate by [desaturateAmount] and dim by [dimAmount], both
+     * from 0 to 1.
+     */
+    fun draw(
+            current: Layer?,
+            next: Layer?,
+            nextAlpha: Float,
+            desaturateAmount: Float,
+            dimAmount: Float
+    ) {
+        // Missing layers sample the other's textures, with an alpha that hides them
+        val currentLayer = current ?: next ?: return
+        val nextLayer = next ?: currentLayer
+
+        // Add program to OpenGL ES environment
+        gl.glUseProgram(PROGRAM_HANDLE)
+
+        // Pass in the vertex information
+        gl.glEnableVertexAttribArray(ATTRIB_POSITION_HANDLE)
+        gl.glVertexAttribPointer(ATTRIB_POSITION_HANDLE,
+                COORDS_PER_VERTEX, GLES20.GL_FLOAT, false,
+                VERTEX_STRIDE_BYTES, VERTEX_BUFFER)
+        gl.glUniformMatrix4fv(UNIFORM_CURRENT_MATRIX_HANDLE, 1, false,
+                currentLayer.textureMatrix, 0)
+        gl.glUniformMatrix4fv(UNIFORM_NEXT_MATRIX_HANDLE, 1, false,
+                nextLayer.textureMatrix, 0)
+        GLUtil.checkGlError("glUniformMatrix4fv")
+
+        // Bind the textures, one unit each
+        textures[0] = currentLayer.loTexture
+        textures[1] = currentLayer.hiTexture
+        textures[2] = nextLayer.loTexture
+        textures[3] = nextLayer.hiTexture
+        for (i in textures.indices) {
+            gl.glActiveTexture(GLES20.GL_TEXTURE0 + i)
+            gl.glBindTexture(GLES20.GL_TEXTURE_2D, textures[i])
+            gl.glUniform1i(UNIFORM_TEXTURE_HANDLES[i], i)
+        }
+
+        // Set the alphas and effects
+        gl.glUniform1f(UNIFORM_CURRENT_HI_ALPHA_HANDLE, currentLayer.hiAlpha)
+        gl.glUniform1f(UNIFORM_NEXT_HI_ALPHA_HANDLE, nextLayer.hiAlpha)
+        gl.glUniform1f(UNIFORM_CURRENT_ALPHA_HANDLE, if (current != null) 1f else 0f)
+        gl.glUniform1f(UNIFORM_NEXT_ALPHA_HANDLE, if (next != null) nextAlpha else 0f)
+        gl.glUniform1f(UNIFORM_DESATURATE_HANDLE, desaturateAmount)
+        gl.glUniform1f(UNIFORM_DIM_HANDLE, dimAmount)
+
+        gl.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, VERTICES)
+        GLUtil.checkGlError("glDrawArrays")
+
+        gl.glDisableVertexAttribArray(ATTRIB_POSITION_HANDLE)
+        // Pictures only set up the first texture unit
+        gl.glActiveTexture(GLES20.GL_TEXTURE0)
+    }
+}
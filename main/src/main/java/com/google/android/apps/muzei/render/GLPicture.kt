@@ -16,10 +16,12 @@
 
 package com.google.android.apps.muzei.render
 
-import android.annotation.SuppressLint
 import android.graphics.Bitmap
+import android.graphics.Canvas
 import android.graphics.Rect
 import android.opengl.GLES20
+import android.opengl.GLES30
+import com.google.android.apps.muzei.util.BitmapPool
 import com.google.android.apps.muzei.util.divideRoundUp
 import java.nio.FloatBuffer
 import kotlin.math.min
@@ -28,11 +30,27 @@ internal fun Bitmap.toGLPicture(): GLPicture? {
     if (width == 0 || height == 0) {
         return null
     }
-    return GLPicture(this)
+    return GLPicture(width, height).apply {
+        upload(this@toGLPicture)
+    }
 }
 
-internal class GLPicture @SuppressLint("CheckResult") internal constructor(
-        bitmap: Bitmap
+/**
+ * A picture drawn from as few textures as [GLES20.GL_MAX_TEXTURE_SIZE] allows,
+ * usually just one, with the geometry of every tile in a static vertex buffer.
+ *
+ * Textures are uploaded separately from creating the picture, so that they can be
+ * uploaded in steps, and on a [GLUploadThread] rather than the thread drawing the
+ * picture.
+ *
+ * When [compressed] is set, the picture is uploaded in a single step from an
+ * [Etc2Image], which requires [supportsEtc2] and a picture no larger than a single
+ * texture.
+ */
+internal class GLPicture(
+        private val width: Int,
+        private val height: Int,
+        private val compressed: Boolean = false
 ) {
 
     companion object {
@@ -52,159 +70,219 @@ internal class GLPicture @SuppressLint("CheckResult") internal constructor(
                 "precision mediump float;" +
                 "uniform sampler2D uTexture;" +
                 "uniform float uAlpha;" +
+                "uniform float uDesaturate;" +
                 "varying vec2 vTexCoords;" +
                 "void main(){" +
-                "  gl_FragColor = texture2D(uTexture, vTexCoords);" +
-                "  gl_FragColor.a = uAlpha;" +
+                "  vec3 color = texture2D(uTexture, vTexCoords).rgb;" +
+                "  float grey = dot(color, vec3(0.3, 0.59, 0.11));" +
+                "  gl_FragColor = vec4(mix(color, vec3(grey), uDesaturate), uAlpha);" +
                 "}"
 
-        // number of coordinates per vertex in this array
-        private const val COORDS_PER_VERTEX = 3
-        private const val VERTEX_STRIDE_BYTES = COORDS_PER_VERTEX * GLUtil.BYTES_PER_FLOAT
-        private const val VERTICES = 6 // TL, BL, BR, TL, BR, TR
+        private const val VERTEX_STRIDE_BYTES = (GLPictureTiles.COORDS_PER_VERTEX +
+                GLPictureTiles.COORDS_PER_TEXTURE_VERTEX) * GLUtil.BYTES_PER_FLOAT
 
-        // S, T (or X, Y)
-        private const val COORDS_PER_TEXTURE_VERTEX = 2
-        private const val TEXTURE_VERTEX_STRIDE_BYTES = COORDS_PER_TEXTURE_VERTEX * GLUtil.BYTES_PER_FLOAT
-
-        private val SQUARE_TEXTURE_VERTICES = floatArrayOf(0f, 0f, // top left
-                0f, 1f, // bottom left
-                1f, 1f, // bottom right
-
-                0f, 0f, // top left
-                1f, 1f, // bottom right
-                1f, 0f)// top right
+        // The most rows uploaded in one step, to keep each step short
+        private const val UPLOAD_STEP_HEIGHT = 512
 
         private var PROGRAM_HANDLE: Int = 0
         private var ATTRIB_POSITION_HANDLE: Int = 0
         private var ATTRIB_TEXTURE_COORDS_HANDLE: Int = 0
         private var UNIFORM_ALPHA_HANDLE: Int = 0
+        private var UNIFORM_DESATURATE_HANDLE: Int = 0
         private var UNIFORM_TEXTURE_HANDLE: Int = 0
         private var UNIFORM_MVP_MATRIX_HANDLE: Int = 0
 
         private var TILE_SIZE: Int = 0
 
+        /**
+         * Whether pictures can be uploaded from an [Etc2Image].
+         */
+        var supportsEtc2 = false
+            private set
+
         fun initGl() {
             // Initialize shaders and create/link program
             val vertexShaderHandle = GLUtil.loadShader(GLES20.GL_VERTEX_SHADER, VERTEX_SHADER_CODE)
             val fragShaderHandle = GLUtil.loadShader(GLES20.GL_FRAGMENT_SHADER, FRAGMENT_SHADER_CODE)
 
             PROGRAM_HANDLE = GLUtil.createAndLinkProgram(vertexShaderHandle, fragShaderHandle, null)
-            ATTRIB_POSITION_HANDLE = GLES20.glGetAttribLocation(PROGRAM_HANDLE, "aPosition")
-            ATTRIB_TEXTURE_COORDS_HANDLE = GLES20.glGetAttribLocation(PROGRAM_HANDLE, "aTexCoords")
-            UNIFORM_MVP_MATRIX_HANDLE = GLES20.glGetUniformLocation(PROGRAM_HANDLE, "uMVPMatrix")
-            UNIFORM_TEXTURE_HANDLE = GLES20.glGetUniformLocation(PROGRAM_HANDLE, "uTexture")
-            UNIFORM_ALPHA_HANDLE = GLES20.glGetUniformLocation(PROGRAM_HANDLE, "uAlpha")
+            ATTRIB_POSITION_HANDLE = gl.glGetAttribLocation(PROGRAM_HANDLE, "aPosition")
+            ATTRIB_TEXTURE_COORDS_HANDLE = gl.glGetAttribLocation(PROGRAM_HANDLE, "aTexCoords")
+            UNIFORM_MVP_MATRIX_HANDLE = gl.glGetUniformLocation(PROGRAM_HANDLE, "uMVPMatrix")
+            UNIFORM_TEXTURE_HANDLE = gl.glGetUniformLocation(PROGRAM_HANDLE, "uTexture")
+            UNIFORM_ALPHA_HANDLE = gl.glGetUniformLocation(PROGRAM_HANDLE, "uAlpha")
+            UNIFORM_DESATURATE_HANDLE = gl.glGetUniformLocation(PROGRAM_HANDLE, "uDesaturate")
 
-            // Compute max texture size
+            // Only split pictures larger than the max texture size into tiles
             val maxTextureSize = IntArray(1)
-            GLES20.glGetIntegerv(GLES20.GL_MAX_TEXTURE_SIZE, maxTextureSize, 0)
-            TILE_SIZE = min(512, maxTextureSize[0])
+            gl.glGetIntegerv(GLES20.GL_MAX_TEXTURE_SIZE, maxTextureSize, 0)
+            TILE_SIZE = maxTextureSize[0]
+
+            // ETC2 is part of OpenGL ES 3.0
+            supportsEtc2 = gl.glGetString(GLES20.GL_VERSION)
+                    ?.startsWith("OpenGL ES 3") == true
         }
     }
 
-    private val vertices = FloatArray(COORDS_PER_VERTEX * VERTICES)
-    private val vertexBuffer: FloatBuffer = GLUtil.newFloatBuffer(vertices.size)
-    private val textureCoordsBuffer: FloatBuffer = GLUtil.asFloatBuffer(SQUARE_TEXTURE_VERTICES)
+    private val tiles = GLPictureTiles(width, height, TILE_SIZE)
+    private val textureHandles = IntArray(tiles.count)
+    private val tileRects = Array(tiles.count) { tile ->
+        Rect(tiles.left(tile), tiles.top(tile), tiles.right(tile), tiles.bottom(tile))
+    }
+
+    // The tile and the first row within that tile of each upload step
+    private val stepTiles: IntArray
+    private val stepTops: IntArray
 
-    private val numColumns: Int
-    private val numRows: Int
-    private val width = bitmap.width
-    private val height = bitmap.height
-    private val textureHandles: IntArray
+    private val vertexBuffer: FloatBuffer
+    private val vertexBufferHandle = IntArray(1)
 
     init {
-        val leftoverHeight = height % TILE_SIZE
+        // Compressed pictures are uploaded in a single step
+        val steps = tileRects.map {
+            if (compressed) 1 else it.height().divideRoundUp(UPLOAD_STEP_HEIGHT)
+        }
+        stepTiles = IntArray(steps.sum())
+        stepTops = IntArray(stepTiles.size)
+        var step = 0
+        steps.forEachIndexed { tile, count ->
+            for (i in 0 until count) {
+                stepTiles[step] = tile
+                stepTops[step] = i * UPLOAD_STEP_HEIGHT
+                step++
+            }
+        }
+
+        vertexBuffer = GLUtil.asFloatBuffer(tiles.vertices())
+    }
 
-        // Load m x n textures
-        numColumns = width.divideRoundUp(TILE_SIZE)
-        numRows = height.divideRoundUp(TILE_SIZE)
+    val uploadSteps get() = stepTiles.size
 
-        textureHandles = IntArray(numColumns * numRows)
-        if (numColumns == 1 && numRows == 1) {
+    /**
+     * The picture's texture, or 0 if it is split into tiles, for drawing it some
+     * other way, such as with a [GLComposite].
+     */
+    val texture get() = if (textureHandles.size == 1) textureHandles[0] else 0
+
+    /**
+     * The GPU memory used by the textures uploaded so far.
+     */
+    var textureBytes = 0L
+        private set
+
+    /**
+     * Upload the given bitmap, which must be the size of this picture.
+     */
+    fun upload(bitmap: Bitmap) {
+        if (textureHandles.size == 1) {
             textureHandles[0] = GLUtil.loadTexture(bitmap)
+            textureBytes += bitmap.rowBytes.toLong() * bitmap.height
+            return
+        }
+        for (step in 0 until uploadSteps) {
+            uploadStep(bitmap, step)
+        }
+    }
+
+    /**
+     * Upload the given step of the given bitmap, which must be the size of this
+     * picture. Steps must be uploaded in order.
+     */
+    fun uploadStep(bitmap: Bitmap, step: Int) {
+        val tile = stepTiles[step]
+        val tileRect = tileRects[tile]
+        val top = stepTops[step]
+        if (top == 0) {
+            textureHandles[tile] = GLUtil.createTexture(tileRect.width(), tileRect.height(),
+                    gl.getInternalFormat(bitmap), gl.getType(bitmap))
+            textureBytes += bitmap.rowBytes.toLong() / bitmap.width *
+                    tileRect.width() * tileRect.height()
+        }
+        val stepHeight = min(UPLOAD_STEP_HEIGHT, tileRect.height() - top)
+        gl.glBindTexture(GLES20.GL_TEXTURE_2D, textureHandles[tile])
+        if (stepHeight == height && tileRect.width() == width) {
+            gl.texSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, bitmap)
         } else {
-            val rect = Rect()
-            for (y in 0 until numRows) {
-                for (x in 0 until numColumns) {
-                    rect.set(x * TILE_SIZE,
-                            (numRows - y - 1) * TILE_SIZE,
-                            (x + 1) * TILE_SIZE,
-                            (numRows - y) * TILE_SIZE)
-                    // The bottom tiles must be full tiles for drawing, so only allow edge tiles
-                    // at the top
-                    if (leftoverHeight > 0) {
-                        rect.offset(0, -TILE_SIZE + leftoverHeight)
-                    }
-                    rect.intersect(0, 0, width, height)
-                    val subBitmap = Bitmap.createBitmap(bitmap,
-                            rect.left, rect.top, rect.width(), rect.height())
-                    textureHandles[y * numColumns + x] = GLUtil.loadTexture(subBitmap)
-                    subBitmap.recycle()
-                }
-            }
+            // Copy the rows into a pooled bitmap, which is reused for the next step
+            val stepBitmap = BitmapPool.get(tileRect.width(), stepHeight,
+                    bitmap.config ?: Bitmap.Config.ARGB_8888)
+            Canvas(stepBitmap).drawBitmap(bitmap,
+                    Rect(tileRect.left, tileRect.top + top,
+                            tileRect.right, tileRect.top + top + stepHeight),
+                    Rect(0, 0, tileRect.width(), stepHeight), null)
+            gl.texSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, top, stepBitmap)
+            BitmapPool.put(stepBitmap)
         }
+        GLUtil.checkGlError("texSubImage2D")
     }
 
-    fun draw(mvpMatrix: FloatArray, alpha: Float) {
+    /**
+     * Upload the given compressed image, which must be the size of this picture,
+     * in its single step.
+     */
+    fun upload(image: Etc2Image) {
+        textureHandles[0] = GLUtil.loadCompressedTexture(width, height,
+                GLES30.GL_COMPRESSED_RGB8_ETC2, image.data)
+        textureBytes += image.data.remaining()
+    }
+
+    /**
+     * Draw the picture desaturated by [desaturateAmount], from 0 to 1.
+     */
+    fun draw(mvpMatrix: FloatArray, alpha: Float, desaturateAmount: Float) {
         // Add program to OpenGL ES environment
-        GLES20.glUseProgram(PROGRAM_HANDLE)
+        gl.glUseProgram(PROGRAM_HANDLE)
 
         // Apply the projection and view transformation
-        GLES20.glUniformMatrix4fv(UNIFORM_MVP_MATRIX_HANDLE, 1, false, mvpMatrix, 0)
+        gl.glUniformMatrix4fv(UNIFORM_MVP_MATRIX_HANDLE, 1, false, mvpMatrix, 0)
         GLUtil.checkGlError("glUniformMatrix4fv")
 
-        // Set up vertex buffer
-        GLES20.glEnableVertexAttribArray(ATTRIB_POSITION_HANDLE)
-        GLES20.glVertexAttribPointer(ATTRIB_POSITION_HANDLE,
-                COORDS_PER_VERTEX, GLES20.GL_FLOAT, false,
-                VERTEX_STRIDE_BYTES, vertexBuffer)
+        // Set up the vertex buffer, created on the thread drawing the picture
+        if (vertexBufferHandle[0] == 0) {
+            gl.glGenBuffers(1, vertexBufferHandle, 0)
+            gl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBufferHandle[0])
+            gl.glBufferData(GLES20.GL_ARRAY_BUFFER,
+                    vertexBuffer.capacity() * GLUtil.BYTES_PER_FLOAT,
+                    vertexBuffer, GLES20.GL_STATIC_DRAW)
+            GLUtil.checkGlError("glBufferData")
+        } else {
+            gl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBufferHandle[0])
+        }
+        gl.glEnableVertexAttribArray(ATTRIB_POSITION_HANDLE)
+        gl.glVertexAttribPointer(ATTRIB_POSITION_HANDLE,
+                GLPictureTiles.COORDS_PER_VERTEX, GLES20.GL_FLOAT, false,
+                VERTEX_STRIDE_BYTES, 0)
+        gl.glEnableVertexAttribArray(ATTRIB_TEXTURE_COORDS_HANDLE)
+        gl.glVertexAttribPointer(ATTRIB_TEXTURE_COORDS_HANDLE,
+                GLPictureTiles.COORDS_PER_TEXTURE_VERTEX, GLES20.GL_FLOAT, false,
+                VERTEX_STRIDE_BYTES, GLPictureTiles.COORDS_PER_VERTEX * GLUtil.BYTES_PER_FLOAT)
 
         // Set up texture stuff
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0)
-        GLES20.glUniform1i(UNIFORM_TEXTURE_HANDLE, 0)
-        GLES20.glVertexAttribPointer(ATTRIB_TEXTURE_COORDS_HANDLE,
-                COORDS_PER_TEXTURE_VERTEX, GLES20.GL_FLOAT, false,
-                TEXTURE_VERTEX_STRIDE_BYTES, textureCoordsBuffer)
-        GLES20.glEnableVertexAttribArray(ATTRIB_TEXTURE_COORDS_HANDLE)
-
-        // Set the alpha
-        GLES20.glUniform1f(UNIFORM_ALPHA_HANDLE, alpha)
-
-        // Draw tiles
-        for (y in 0 until numRows) {
-            for (x in 0 until numColumns) {
-                // Pass in the vertex information
-                vertices[9] = min(-1 + 2f * x.toFloat() * TILE_SIZE.toFloat() / width, 1f)
-                vertices[3] = vertices[9]
-                vertices[0] = vertices[3] // left
-                vertices[16] = min(-1 + 2f * (y + 1).toFloat() * TILE_SIZE.toFloat() / height, 1f)
-                vertices[10] = vertices[16]
-                vertices[1] = vertices[10] // top
-                vertices[15] = min(-1 + 2f * (x + 1).toFloat() * TILE_SIZE.toFloat() / width, 1f)
-                vertices[12] = vertices[15]
-                vertices[6] = vertices[12] // right
-                vertices[13] = min(-1 + 2f * y.toFloat() * TILE_SIZE.toFloat() / height, 1f)
-                vertices[7] = vertices[13]
-                vertices[4] = vertices[7] // bottom
-                vertexBuffer.put(vertices)
-                vertexBuffer.position(0)
-
-                GLES20.glBindTexture(GLES20.GL_TEXTURE_2D,
-                        textureHandles[y * numColumns + x])
-                GLUtil.checkGlError("glBindTexture")
-
-                // Draw the two triangles
-                GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, vertices.size / COORDS_PER_VERTEX)
-            }
+        gl.glActiveTexture(GLES20.GL_TEXTURE0)
+        gl.glUniform1i(UNIFORM_TEXTURE_HANDLE, 0)
+
+        // Set the alpha and desaturation
+        gl.glUniform1f(UNIFORM_ALPHA_HANDLE, alpha)
+        gl.glUniform1f(UNIFORM_DESATURATE_HANDLE, desaturateAmount)
+
+        // Draw tiles, usually just the one
+        for (tile in textureHandles.indices) {
+            gl.glBindTexture(GLES20.GL_TEXTURE_2D, textureHandles[tile])
+            gl.glDrawArrays(GLES20.GL_TRIANGLES, tile * GLPictureTiles.VERTICES_PER_TILE,
+                    GLPictureTiles.VERTICES_PER_TILE)
         }
+        GLUtil.checkGlError("glDrawArrays")
 
-        GLES20.glDisableVertexAttribArray(ATTRIB_POSITION_HANDLE)
-        GLES20.glDisableVertexAttribArray(ATTRIB_TEXTURE_COORDS_HANDLE)
+        gl.glDisableVertexAttribArray(ATTRIB_POSITION_HANDLE)
+        gl.glDisableVertexAttribArray(ATTRIB_TEXTURE_COORDS_HANDLE)
+        // Other pictures draw from client side arrays
+        gl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0)
     }
 
     fun destroy() {
-        GLES20.glDeleteTextures(textureHandles.size, textureHandles, 0)
+        gl.glDeleteTextures(textureHandles.size, textureHandles, 0)
+        gl.glDeleteBuffers(1, vertexBufferHandle, 0)
+        vertexBufferHandle[0] = 0
         GLUtil.checkGlError("Destroy picture")
     }
 }
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.apps.muzei.render
+
+import com.google.android.apps.muzei.util.divideRoundUp
+import kotlin.math.max
+import kotlin.math.min
+
+/**
+ * The tiles a [GLPicture] of the given size is split into so that no tile is larger
+ * than [tileSize], and the geometry drawing them.
+ */
+internal class GLPictureTiles(
+        private val width: Int,
+        private val height: Int,
+        private val tileSize: Int
+) {
+
+    companion object {
+        // X, Y then S, T for each vertex
+        const val COORDS_PER_VERTEX = 2
+        const val COORDS_PER_TEXTURE_VERTEX = 2
+        const val VERTICES_PER_TILE = 6 // TL, BL, BR, TL, BR, TR
+    }
+
+    private val numColumns = width.divideRoundUp(tileSize)
+    private val numRows = height.divideRoundUp(tileSize)
+
+    val count = numColumns * numRows
+
+    /*
+     * The part of the bitmap covered by each tile. Rows of tiles are counted
+     * from the bottom, and any partial tiles are at the top and right.
+     */
+    fun left(tile: Int) = tile % numColumns * tileSize
+
+    fun top(tile: Int) = max(0, height - (tile / numColumns + 1) * tileSize)
+
+    fun right(tile: Int) = min(width, (tile % numColumns + 1) * tileSize)
+
+    fun bottom(tile: Int) = height - tile / numColumns * tileSize
+
+    /**
+     * Every tile as a quad covering its part of [-1, 1] with the whole of its texture,
+     * drawn as [VERTICES_PER_TILE] vertices from the tile's index times that.
+     */
+    fun vertices(): FloatArray {
+        val vertices = FloatArray(count * VERTICES_PER_TILE *
+                (COORDS_PER_VERTEX + COORDS_PER_TEXTURE_VERTEX))
+        var i = 0
+        fun vertex(x: Float, y: Float, s: Float, t: Float) {
+            vertices[i++] = x
+            vertices[i++] = y
+            vertices[i++] = s
+            vertices[i++] = t
+        }
+        for (tile in 0 until count) {
+            val left = -1 + 2f * left(tile) / width
+            val right = -1 + 2f * right(tile) / width
+            val top = 1 - 2f * top(tile) / height
+            val bottom = 1 - 2f * bottom(tile) / height
+            vertex(left, top, 0f, 0f)
+            vertex(left, bottom, 0f, 1f)
+            vertex(right, bottom, 1f, 1f)
+            vertex(left, top, 0f, 0f)
+            vertex(right, bottom, 1f, 1f)
+            vertex(right, top, 1f, 0f)
+        }
+        return vertices
+    }
+}
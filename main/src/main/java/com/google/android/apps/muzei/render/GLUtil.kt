@@ -18,7 +18,6 @@ package com.google.android.apps.muzei.render
 
 import android.graphics.Bitmap
 import android.opengl.GLES20
-import android.opengl.GLUtils
 import android.util.Log
 
 import net.nurik.roman.muzei.BuildConfig
@@ -35,11 +34,11 @@ object GLUtil {
     fun loadShader(type: Int, shaderCode: String): Int {
         // create a vertex shader type (GLES20.GL_VERTEX_SHADER)
         // or a fragment shader type (GLES20.GL_FRAGMENT_SHADER)
-        val shaderHandle = GLES20.glCreateShader(type)
+        val shaderHandle = gl.glCreateShader(type)
 
         // add the source code to the shader and compile it
-        GLES20.glShaderSource(shaderHandle, shaderCode)
-        GLES20.glCompileShader(shaderHandle)
+        gl.glShaderSource(shaderHandle, shaderCode)
+        gl.glCompileShader(shaderHandle)
         checkGlError("glCompileShader")
         return shaderHandle
     }
@@ -49,46 +48,75 @@ object GLUtil {
             fragShaderHandle: Int,
             attributes: Array<String>?
     ): Int {
-        val programHandle = GLES20.glCreateProgram()
+        val programHandle = gl.glCreateProgram()
         checkGlError("glCreateProgram")
-        GLES20.glAttachShader(programHandle, vertexShaderHandle)
-        GLES20.glAttachShader(programHandle, fragShaderHandle)
+        gl.glAttachShader(programHandle, vertexShaderHandle)
+        gl.glAttachShader(programHandle, fragShaderHandle)
         if (attributes != null) {
             val size = attributes.size
             for (i in 0 until size) {
-                GLES20.glBindAttribLocation(programHandle, i, attributes[i])
+                gl.glBindAttribLocation(programHandle, i, attributes[i])
             }
         }
-        GLES20.glLinkProgram(programHandle)
+        gl.glLinkProgram(programHandle)
         checkGlError("glLinkProgram")
-        GLES20.glDeleteShader(vertexShaderHandle)
-        GLES20.glDeleteShader(fragShaderHandle)
+        gl.glDeleteShader(vertexShaderHandle)
+        gl.glDeleteShader(fragShaderHandle)
         return programHandle
     }
 
-    fun loadTexture(bitmap: Bitmap): Int {
+    fun loadTexture(bitmap: Bitmap): Int = genTexture {
+        // Load the bitmap into the bound texture.
+        gl.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmap, 0)
+        checkGlError("texImage2D")
+    }
+
+    /**
+     * Create an empty texture of the given size. The default RGBA format is
+     * suitable for use as a framebuffer color attachment.
+     */
+    fun createTexture(
+            width: Int,
+            height: Int,
+            format: Int = GLES20.GL_RGBA,
+            type: Int = GLES20.GL_UNSIGNED_BYTE
+    ): Int = genTexture {
+        gl.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, format, width, height, 0,
+                format, type, null)
+        checkGlError("glTexImage2D")
+    }
+
+    /**
+     * Load compressed image data, such as ETC2, of the given format.
+     */
+    fun loadCompressedTexture(width: Int, height: Int, format: Int, data: ByteBuffer): Int =
+            genTexture {
+                gl.glCompressedTexImage2D(GLES20.GL_TEXTURE_2D, 0, format, width, height, 0,
+                        data.remaining(), data)
+                checkGlError("glCompressedTexImage2D")
+            }
+
+    private inline fun genTexture(allocate: () -> Unit): Int {
         val textureHandle = IntArray(1)
 
-        GLES20.glGenTextures(1, textureHandle, 0)
+        gl.glGenTextures(1, textureHandle, 0)
         checkGlError("glGenTextures")
 
         if (textureHandle[0] != 0) {
             // Bind to the texture in OpenGL
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureHandle[0])
+            gl.glBindTexture(GLES20.GL_TEXTURE_2D, textureHandle[0])
 
             // Set filtering
-            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S,
+            gl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S,
                     GLES20.GL_CLAMP_TO_EDGE)
-            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T,
+            gl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T,
                     GLES20.GL_CLAMP_TO_EDGE)
-            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER,
+            gl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER,
                     GLES20.GL_LINEAR)
-            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER,
+            gl.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER,
                     GLES20.GL_LINEAR)
 
-            // Load the bitmap into the bound texture.
-            GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmap, 0)
-            checkGlError("texImage2D")
+            allocate()
         }
 
         if (textureHandle[0] == 0) {
@@ -101,13 +129,18 @@ object GLUtil {
         return textureHandle[0]
     }
 
+    /**
+     * Log and throw on any GL errors. Only checked in debug builds, as glGetError
+     * waits for the GPU to catch up.
+     */
     fun checkGlError(glOperation: String) {
+        if (!BuildConfig.DEBUG) {
+            return
+        }
         var error: Int
-        while (GLES20.glGetError().also { error = it } != GLES20.GL_NO_ERROR) {
+        while (gl.glGetError().also { error = it } != GLES20.GL_NO_ERROR) {
             Log.e(TAG, "$glOperation: glError $error")
-            if (BuildConfig.DEBUG) {
-                throw RuntimeException("$glOperation: glError $error")
-            }
+            throw RuntimeException("$glOperation: glError $error")
         }
     }
 
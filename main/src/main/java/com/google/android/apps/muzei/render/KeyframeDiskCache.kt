@@ -0,0 +1,260 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.apps.muzei.render
+
+import android.content.Context
+import android.graphics.Bitmap
+import android.util.Log
+import com.google.android.apps.muzei.util.BitmapPool
+import net.nurik.roman.muzei.BuildConfig
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+
+/**
+ * A disk cache of the processed (scaled, blurred and desaturated) bitmaps the
+ * renderer uploads, so that reloading the same artwork with effects it has already
+ * used, such as when switching between the home and lock screen, doesn't decode
+ * and blur it again.
+ *
+ * Bitmaps are stored in their final ARGB_8888 or RGB_565 config as raw pixels, and
+ * compressed keyframes as their ETC2 data, after a small header. Files are memory
+ * mapped to read them back. Least recently used
+ * entries are deleted once the cache grows past [MAX_SIZE_BYTES], and bitmaps larger
+ * than [MAX_ENTRY_BYTES] aren't cached at all.
+ *
+ * Files are read and written without holding a lock, so that preparing keyframes
+ * ahead doesn't block reading them for the current artwork. Each file is written
+ * to a temporary file and renamed into place, so readers only see complete files.
+ * Only the size bookkeeping is synchronized.
+ */
+object KeyframeDiskCache {
+    private const val TAG = "KeyframeDiskCache"
+
+    private const val DIRECTORY = "keyframes"
+    private const val MAX_SIZE_BYTES = 32L * 1024 * 1024
+    // Larger entries would evict most of the cache for a single bitmap
+    private const val MAX_ENTRY_BYTES = MAX_SIZE_BYTES / 4
+
+    private const val MAGIC = 0x4d4b4632 // MKF2
+    private const val HEADER_BYTES = 4 * 4 // magic, width, height, format
+
+    // The format of the pixels after the header
+    private const val FORMAT_ARGB_8888 = 0
+    private const val FORMAT_RGB_565 = 1
+    private const val FORMAT_ETC2 = 2
+
+    private val invalidFileNameCharacters = Regex("[^A-Za-z0-9._-]")
+
+    // The total size of the cached files, or -1 until the directory is first listed
+    private var totalSize = -1L
+
+    private fun Context.cacheFile(name: String) = File(File(cacheDir, DIRECTORY),
+            name.replace(invalidFileNameCharacters, "_"))
+
+    private fun Bitmap.Config.toFormat() = when (this) {
+        Bitmap.Config.ARGB_8888 -> FORMAT_ARGB_8888
+        Bitmap.Config.RGB_565 -> FORMAT_RGB_565
+        else -> -1
+    }
+
+    private fun formatToConfig(format: Int) = when (format) {
+        FORMAT_ARGB_8888 -> Bitmap.Config.ARGB_8888
+        FORMAT_RGB_565 -> Bitmap.Config.RGB_565
+        else -> null
+    }
+
+    private fun dataSize(format: Int, width: Int, height: Int) = when (format) {
+        FORMAT_ETC2 -> Etc2Image.dataSize(width, height)
+        FORMAT_RGB_565 -> width.toLong() * height * 2
+        else -> width.toLong() * height * 4
+    }
+
+    /**
+     * Get the cached bitmap with the given name, or null if it isn't cached. The
+     * bitmap comes from the [BitmapPool], so it can be returned there when done.
+     */
+    fun get(context: Context, name: String): Bitmap? = read(context, name) {
+            format, width, height, data ->
+        formatToConfig(format)?.let { config ->
+            BitmapPool.get(width, height, config).apply {
+                copyPixelsFromBuffer(data)
+            }
+        }
+    }
+
+    /**
+     * Get the cached compressed image with the given name, or null if it isn't
+     * cached. Its data is read from disk before this returns, so that uploading
+     * it doesn't wait on disk reads.
+     */
+    fun getEtc2(context: Context, name: String): Etc2Image? = read(context, name) {
+            format, width, height, data ->
+        if (format == FORMAT_ETC2) {
+            Etc2Image(width, height, data.load().slice())
+        } else {
+            null
+        }
+    }
+
+    /**
+     * Read the file with the given name, passing its format, size and data to
+     * [convert], which returns null if the entry isn't of the format it wants.
+     */
+    private inline fun <T> read(
+            context: Context,
+            name: String,
+            convert: (format: Int, width: Int, height: Int, data: MappedByteBuffer) -> T?
+    ): T? {
+        val file = context.cacheFile(name)
+        if (!file.exists()) {
+            return null
+        }
+        return try {
+            RandomAccessFile(file, "r").channel.use { channel ->
+                val buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+                val width = buffer.getInt(4)
+                val height = buffer.getInt(8)
+                val format = buffer.getInt(12)
+                if (buffer.getInt(0) != MAGIC || width <= 0 || height <= 0 ||
+                        format !in FORMAT_ARGB_8888..FORMAT_ETC2 ||
+                        channel.size() != HEADER_BYTES + dataSize(format, width, height)) {
+                    throw IOException("Invalid keyframe file")
+                }
+                buffer.position(HEADER_BYTES)
+                convert(format, width, height, buffer)
+            }?.also {
+                file.setLastModified(System.currentTimeMillis())
+            }
+        } catch (e: IOException) {
+            if (BuildConfig.DEBUG) Log.w(TAG, "Unable to read $name", e)
+            delete(file)
+            null
+        }
+    }
+
+    /**
+     * Cache the given bitmap under the given name. Only ARGB_8888 and RGB_565 bitmaps
+     * of at most [MAX_ENTRY_BYTES] are cached.
+     */
+    fun put(context: Context, name: String, bitmap: Bitmap) {
+        val format = bitmap.config?.toFormat() ?: -1
+        if (format < 0 || bitmap.isRecycled) {
+            return
+        }
+        write(context, name, format, bitmap.width, bitmap.height) { buffer ->
+            bitmap.copyPixelsToBuffer(buffer)
+        }
+    }
+
+    /**
+     * Cache the given compressed image under the given name, if it is at most
+     * [MAX_ENTRY_BYTES].
+     */
+    fun put(context: Context, name: String, image: Etc2Image) {
+        write(context, name, FORMAT_ETC2, image.width, image.height) { buffer ->
+            buffer.put(image.data.duplicate())
+        }
+    }
+
+    private inline fun write(
+            context: Context,
+            name: String,
+            format: Int,
+            width: Int,
+            height: Int,
+            writeData: (buffer: MappedByteBuffer) -> Unit
+    ) {
+        val size = HEADER_BYTES + dataSize(format, width, height)
+        if (size > MAX_ENTRY_BYTES) {
+            return
+        }
+        val file = context.cacheFile(name)
+        var tempFile: File? = null
+        try {
+            file.parentFile?.mkdirs()
+            // Unique, so that concurrent writes of the same name don't interleave
+            tempFile = File.createTempFile(file.name, ".tmp", file.parentFile)
+            RandomAccessFile(tempFile, "rw").use { randomAccessFile ->
+                randomAccessFile.setLength(size)
+                val buffer = randomAccessFile.channel.map(
+                        FileChannel.MapMode.READ_WRITE, 0, size)
+                buffer.putInt(MAGIC)
+                buffer.putInt(width)
+                buffer.putInt(height)
+                buffer.putInt(format)
+                writeData(buffer)
+                buffer.force()
+            }
+            commit(context, tempFile, file, size)
+        } catch (e: IOException) {
+            if (BuildConfig.DEBUG) Log.w(TAG, "Unable to write $name", e)
+            tempFile?.delete()
+        }
+    }
+
+    /**
+     * Rename a completely written [tempFile] of [size] bytes to [file], replacing
+     * any previous version, and trim the cache if it has grown too large.
+     */
+    @Synchronized
+    private fun commit(context: Context, tempFile: File, file: File, size: Long) {
+        val replacedSize = file.length()
+        if (!tempFile.renameTo(file)) {
+            throw IOException("Unable to rename $tempFile")
+        }
+        if (totalSize < 0) {
+            trimToSize(context, MAX_SIZE_BYTES)
+            return
+        }
+        totalSize += size - replacedSize
+        if (totalSize > MAX_SIZE_BYTES) {
+            trimToSize(context, MAX_SIZE_BYTES)
+        }
+    }
+
+    @Synchronized
+    private fun delete(file: File) {
+        val length = file.length()
+        if (file.delete() && totalSize >= 0) {
+            totalSize -= length
+        }
+    }
+
+    /**
+     * Delete the least recently used files until the cache holds at most [size] bytes.
+     */
+    @Synchronized
+    fun trimToSize(context: Context, size: Long) {
+        val files = File(context.cacheDir, DIRECTORY).listFiles() ?: return
+        var totalSize = files.sumOf { it.length() }
+        if (totalSize > size) {
+            for (file in files.sortedBy { it.lastModified() }) {
+                if (totalSize <= size) {
+                    break
+                }
+                val length = file.length()
+                if (file.delete()) {
+                    totalSize -= length
+                }
+            }
+        }
+        this.totalSize = totalSize
+    }
+}
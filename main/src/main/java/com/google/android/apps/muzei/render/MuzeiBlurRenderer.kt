@@ -21,23 +21,25 @@ import android.content.Context
 import android.graphics.Color
 import android.graphics.RectF
 import android.opengl.GLES20
-import android.opengl.GLSurfaceView
 import android.opengl.Matrix
 import android.util.Log
-import android.view.animation.AccelerateDecelerateInterpolator
 import androidx.annotation.Keep
-import androidx.core.graphics.scale
 import com.google.android.apps.muzei.ArtDetailOpen
 import com.google.android.apps.muzei.ArtDetailViewport
 import com.google.android.apps.muzei.settings.Prefs
-import com.google.android.apps.muzei.util.ImageBlurrer
+import com.google.android.apps.muzei.util.BlurService
 import com.google.android.apps.muzei.util.TickingFloatAnimator
 import com.google.android.apps.muzei.util.constrain
-import com.google.android.apps.muzei.util.floorEven
 import com.google.android.apps.muzei.util.interpolate
-import com.google.android.apps.muzei.util.roundMult4
 import com.google.android.apps.muzei.util.uninterpolate
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.ensureActive
 import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.launch
+import net.nurik.roman.muzei.BuildConfig
 import javax.microedition.khronos.egl.EGLConfig
 import javax.microedition.khronos.opengles.GL10
 import kotlin.math.ceil
@@ -61,7 +63,7 @@ class MuzeiBlurRenderer(
         private val callbacks: Callbacks,
         private val demoMode: Boolean = false,
         private val preview: Boolean = false
-) : GLSurfaceView.Renderer {
+) : FrameHoldingRenderer {
 
     companion object {
         private const val TAG = "MuzeiBlurRenderer"
@@ -76,6 +78,29 @@ class MuzeiBlurRenderer(
         private const val DEMO_DIM = 64
         private const val DEMO_GREY = 0
         private const val DIM_RANGE = 0.5f // percent of max dim
+        // How long to keep showing the last frame while reloading after an idle release
+        private const val MAX_IDLE_RESUME_HOLD_NANOS = 2000000000L
+
+        // The EGL context the shared GL programs were last built in
+        private var programsContext: Any? = null
+
+        /**
+         * Build the GL programs shared by every renderer, unless they were already
+         * built in the current EGL context. The context, and the programs in it,
+         * survive the surface being destroyed while paused, so resuming doesn't
+         * build them again.
+         */
+        private fun initGlPrograms() {
+            val currentContext = gl.eglGetCurrentContext()
+            if (currentContext != null && currentContext == programsContext) {
+                return
+            }
+            GLColorOverlay.initGl()
+            GLPicture.initGl()
+            GLBlurredPicture.initGl()
+            GLComposite.initGl()
+            programsContext = currentContext
+        }
     }
 
     private val blurKeyframes: Int
@@ -94,15 +119,44 @@ class MuzeiBlurRenderer(
     private var currentGLPictureSet: GLPictureSet
     private var nextGLPictureSet: GLPictureSet
     private lateinit var colorOverlay: GLColorOverlay
+    private lateinit var composite: GLComposite
 
     private var queuedNextImageLoader: ImageLoader? = null
+    // The most recent image passed to loadSession, which is reloaded after an idle release
+    private var lastImageLoader: ImageLoader? = null
+    // The image to reload once the surface is created again after an idle release
+    private var idleImageLoader: ImageLoader? = null
+    private var idleReleased = false
+    // When the engine became visible again after an idle release, until the artwork is drawn
+    private var idleResumeStartNanos = 0L
+    private var frameHeld = false
+
+    // Images are decoded and blurred off the GL thread, which only uploads them
+    private val loadScope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
+    private var loadJob: Job? = null
+    // The image being prepared ahead of being loaded, cancelled when replaced
+    private var prepareAheadImageLoader: ImageLoader? = null
+    // Incremented by each load, so that uploads from superseded loads are dropped
+    @Volatile
+    private var loadGeneration = 0
+    // Uploads textures with a context shared with ours, when available
+    private var uploadThread: GLUploadThread? = null
+    // Uploads waiting for the GPU to finish them before they are shown
+    private val pendingUploads = ArrayDeque<PendingUpload>()
+    // The picture set showing the preview of the load in progress
+    private var previewGLPictureSet: GLPictureSet? = null
 
     private var surfaceCreated: Boolean = false
+    // Whether to blur with a shader rather than preparing blurred keyframes
+    private var shaderBlur: Boolean = false
 
     @Volatile
     private var normalOffsetX: Float = 0f
     @Volatile
     private var zoomAmount: Float = 1f
+    // Set when the offset or zoom change, so that the next frame recomputes the matrices
+    @Volatile
+    private var viewportChanged = false
     private val currentViewport = RectF() // [-1, -1] to [1, 1], flipped
 
     var isBlurred = true
@@ -111,10 +165,15 @@ class MuzeiBlurRenderer(
     private var dimPreferenceName = Prefs.PREF_DIM_AMOUNT
     private var greyPreferenceName = Prefs.PREF_GREY_AMOUNT
     private var blurRelatedToArtDetailMode = false
-    private val blurInterpolator = AccelerateDecelerateInterpolator()
     private val blurAnimator = TickingFloatAnimator(BLUR_ANIMATION_DURATION * if (demoMode) 5 else 1)
     private val crossfadeAnimator = TickingFloatAnimator(CROSSFADE_ANIMATION_DURATION)
 
+    /**
+     * The frame timing of the thread rendering this, if it records any, which is told
+     * what each frame draws and how long image loads block the GL thread.
+     */
+    var frameStats: FrameStats? = null
+
     init {
         val activityManager = context.getSystemService(Context.ACTIVITY_SERVICE) as ActivityManager
         blurKeyframes = if (activityManager.isLowRamDevice) 1 else 2
@@ -142,8 +201,11 @@ class MuzeiBlurRenderer(
         val maxBlurRadiusOverScreenHeight = blurAmount * 0.0001f
         val dm = context.resources.displayMetrics
         val maxBlurPx = (dm.heightPixels * maxBlurRadiusOverScreenHeight).toInt()
+        // Only prescale further than the minimum when the blur engine can't blur by
+        // the full radius
+        val maxBlurRadius = BlurService.engine(context).maxRadius
         blurredSampleSize = 4
-        while (maxBlurPx / blurredSampleSize > ImageBlurrer.MAX_SUPPORTED_BLUR_PIXELS) {
+        while (maxBlurPx / blurredSampleSize > maxBlurRadius) {
             blurredSampleSize = blurredSampleSize shl 1
         }
         maxPrescaledBlurPixels = maxBlurPx / blurredSampleSize
@@ -170,11 +232,11 @@ class MuzeiBlurRenderer(
 
     override fun onSurfaceCreated(unused: GL10, config: EGLConfig) {
         surfaceCreated = false
-        GLES20.glEnable(GLES20.GL_BLEND)
+        gl.glEnable(GLES20.GL_BLEND)
         //        GLES20.glBlendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA);
-        GLES20.glBlendFuncSeparate(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA,
+        gl.glBlendFuncSeparate(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA,
                 GLES20.GL_ONE, GLES20.GL_ONE)
-        GLES20.glClearColor(0f, 0f, 0f, 0f)
+        gl.glClearColor(0f, 0f, 0f, 0f)
 
         // Set the camera position (View matrix)
         Matrix.setLookAtM(viewMatrix, 0,
@@ -182,21 +244,29 @@ class MuzeiBlurRenderer(
                 0f, 0f, -1f,
                 0f, 1f, 0f)
 
-        GLColorOverlay.initGl()
-        GLPicture.initGl()
+        initGlPrograms()
 
         colorOverlay = GLColorOverlay()
+        composite = GLComposite()
+        shaderBlur = GLBlurredPicture.isSupported
+        uploadThread = gl.uploadThreadForCurrentContext()
 
         surfaceCreated = true
         val loader = queuedNextImageLoader
+        val idleLoader = idleImageLoader
+        idleImageLoader = null
         if (loader != null) {
             queuedNextImageLoader = null
             setAndConsumeImageLoader(loader)
+        } else if (idleLoader != null) {
+            // Go straight to the full image, which is mostly read back from the
+            // KeyframeDiskCache rather than decoded and blurred again
+            setAndConsumeImageLoader(idleLoader, immediate = true)
         }
     }
 
     override fun onSurfaceChanged(unused: GL10, width: Int, height: Int) {
-        GLES20.glViewport(0, 0, width, height)
+        gl.glViewport(0, 0, width, height)
         hintViewportSize(width, height)
         if (!demoMode && !preview) {
             // Reset art detail viewports
@@ -214,57 +284,152 @@ class MuzeiBlurRenderer(
     }
 
     override fun onDrawFrame(unused: GL10) {
-        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT)
+        showFinishedUploads()
+        // Until the artwork released while idle is reloaded, keep showing the last
+        // frame drawn with it rather than an empty one
+        frameHeld = idleResumeStartNanos != 0L && !currentGLPictureSet.hasPictures &&
+                System.nanoTime() - idleResumeStartNanos < MAX_IDLE_RESUME_HOLD_NANOS
+        if (frameHeld) {
+            return
+        }
+
+        gl.glClear(GLES20.GL_COLOR_BUFFER_BIT)
 
         Matrix.setIdentityM(modelMatrix, 0)
 
+        frameStats?.setFrameState(when {
+            crossfadeAnimator.isRunning -> FrameStats.STATE_CROSSFADE
+            blurAnimator.isRunning -> FrameStats.STATE_BLUR
+            else -> FrameStats.STATE_IDLE
+        })
         val stillAnimating = crossfadeAnimator.tick() or blurAnimator.tick()
 
-        if (blurRelatedToArtDetailMode) {
+        if (viewportChanged || blurRelatedToArtDetailMode) {
+            viewportChanged = false
             currentGLPictureSet.recomputeTransformMatrices()
             nextGLPictureSet.recomputeTransformMatrices()
         }
 
         var dimAmount = currentGLPictureSet.dimAmount.toFloat()
-        currentGLPictureSet.drawFrame(1f)
         if (crossfadeAnimator.isRunning) {
             dimAmount = interpolate(dimAmount, nextGLPictureSet.dimAmount.toFloat(),
                     crossfadeAnimator.currentValue)
-            nextGLPictureSet.drawFrame(crossfadeAnimator.currentValue)
         }
+        val dimAlpha = (dimAmount * blurAnimator.currentValue / blurKeyframes).toInt()
+        val desaturateAmount = maxGrey / 500f * blurAnimator.currentValue / blurKeyframes
+
+        if (!drawComposite(dimAlpha / 255f, desaturateAmount)) {
+            currentGLPictureSet.drawFrame(1f, desaturateAmount)
+            if (crossfadeAnimator.isRunning) {
+                nextGLPictureSet.drawFrame(crossfadeAnimator.currentValue, desaturateAmount)
+            }
 
-        colorOverlay.color = Color.argb((dimAmount * blurAnimator.currentValue / blurKeyframes).toInt(), 0, 0, 0)
-        colorOverlay.draw(modelMatrix) // don't need any perspective or anything for color overlay
+            colorOverlay.color = Color.argb(dimAlpha, 0, 0, 0)
+            colorOverlay.draw(modelMatrix) // don't need any perspective or anything for color overlay
+        }
 
         if (stillAnimating) {
             callbacks.requestRender()
         }
+
+        if (idleResumeStartNanos != 0L && currentGLPictureSet.hasPictures) {
+            val resumeNanos = System.nanoTime() - idleResumeStartNanos
+            idleResumeStartNanos = 0L
+            frameStats?.recordIdleResume(resumeNanos)
+            if (BuildConfig.DEBUG) {
+                Log.d(TAG, "First frame ${resumeNanos / 1000000}ms after resuming from idle")
+            }
+        }
+    }
+
+    override fun isFrameHeld() = frameHeld
+
+    /**
+     * Whether an image is still being prepared or uploaded. Must be called on the GL
+     * thread.
+     */
+    internal val isLoading get() = loadJob?.isActive == true || pendingUploads.isNotEmpty()
+
+    /**
+     * Draw the current picture set, cross fading to the next, with [GLComposite] in a
+     * single pass, returning false if either set can't be drawn that way.
+     */
+    private fun drawComposite(dimAmount: Float, desaturateAmount: Float): Boolean {
+        val current = if (currentGLPictureSet.hasBitmap) {
+            currentGLPictureSet.compositeLayer() ?: return false
+        } else {
+            null
+        }
+        val next = if (crossfadeAnimator.isRunning && nextGLPictureSet.hasBitmap) {
+            nextGLPictureSet.compositeLayer() ?: return false
+        } else {
+            null
+        }
+        if (current == null && next == null) {
+            return false
+        }
+        composite.draw(current, next, crossfadeAnimator.currentValue,
+                desaturateAmount, dimAmount)
+        return true
     }
 
     @Keep
     fun setNormalOffsetX(x: Float) {
-        normalOffsetX = x.constrain(0f, 1f)
-        onViewportChanged()
+        val offsetX = x.constrain(0f, 1f)
+        if (offsetX != normalOffsetX) {
+            normalOffsetX = offsetX
+            onViewportChanged()
+        }
     }
 
     fun setZoom(zoom: Float) {
-        zoomAmount = interpolate(1f, 1.1f, 1 - zoom.constrain(0f, 1f))
-        onViewportChanged()
+        val zoomAmount = interpolate(1f, 1.1f, 1 - zoom.constrain(0f, 1f))
+        if (zoomAmount != this.zoomAmount) {
+            this.zoomAmount = zoomAmount
+            onViewportChanged()
+        }
     }
 
+    /**
+     * Called from any thread when the offset or zoom change. The matrices are only
+     * recomputed on the GL thread, once for the next frame however many changes
+     * come in before it.
+     */
     private fun onViewportChanged() {
-        currentGLPictureSet.recomputeTransformMatrices()
-        nextGLPictureSet.recomputeTransformMatrices()
+        viewportChanged = true
         if (surfaceCreated) {
             callbacks.requestRender()
         }
     }
 
-    private fun blurRadiusAtFrame(f: Float): Float {
-        return maxPrescaledBlurPixels * blurInterpolator.getInterpolation(f / blurKeyframes)
-    }
+    private fun blurRadiusAtFrame(f: Float) =
+            RenderParams.blurRadiusAtFrame(maxPrescaledBlurPixels, blurKeyframes, f)
+
+    private fun renderParams() = RenderParams(currentHeight, aspectRatio, blurKeyframes,
+            maxPrescaledBlurPixels, blurredSampleSize, shaderBlur,
+            GLBlurredPicture.maxTextureSize, GLPicture.supportsEtc2)
+
+    /**
+     * Whether changes to the blur amount can be shown without reloading the current
+     * artwork, which is only possible when it is blurred by a shader at the sample
+     * size the new amount needs. Must be called on the GL thread. Changes to the
+     * grey and dim amounts are always applied as the artwork is drawn.
+     */
+    val canApplyEffectsWithoutReload: Boolean
+        get() = !crossfadeAnimator.isRunning &&
+                currentGLPictureSet.canApplyEffects(renderParams().blurSampleSize)
 
     fun setAndConsumeImageLoader(imageLoader: ImageLoader, immediate: Boolean = false) {
+        val start = System.nanoTime()
+        consumeImageLoader(imageLoader, immediate)
+        frameStats?.recordImageLoaderBlocked(System.nanoTime() - start)
+    }
+
+    private fun consumeImageLoader(imageLoader: ImageLoader, immediate: Boolean) {
+        if (imageLoader.isCancelled) {
+            // Superseded by a newer load before we got to it
+            return
+        }
         if (!surfaceCreated) {
             queuedNextImageLoader = imageLoader
             return
@@ -275,10 +440,32 @@ class MuzeiBlurRenderer(
             return
         }
 
-        val (width, height) = imageLoader.getSize()
+        // Open the image once and reuse it for the size, luminance, and every decode
+        val session = imageLoader.openSession() ?: return
+        loadSession(imageLoader, session, immediate)
+    }
+
+    /**
+     * Prepare the image on a background thread, then upload it into the next
+     * picture set and start cross fading to it. Any load still being prepared
+     * is cancelled, so only the newest artwork is ever prepared.
+     *
+     * Unless [immediate], a small preview is prepared and cross faded to first,
+     * then replaced by the full image once that is ready. Closes the session
+     * once done with it.
+     */
+    private fun loadSession(
+            imageLoader: ImageLoader,
+            session: ImageDecodeSession,
+            immediate: Boolean
+    ) {
+        val width = session.width
+        val height = session.height
         if (width == 0 || height == 0) {
+            session.close()
             return
         }
+        cancelLoad()
 
         if (immediate) {
             // Stop any running cross fade if we're immediately switching to this new image
@@ -293,8 +480,125 @@ class MuzeiBlurRenderer(
                     aspectRatio)
         }
 
-        nextGLPictureSet.load(imageLoader)
+        lastImageLoader = imageLoader
+        val generation = loadGeneration
+        val preparer = PictureSetPreparer(context, renderParams())
+        val uploadThread = uploadThread
+        loadJob = loadScope.launch {
+            var luminance: Float? = null
+            if (!immediate) {
+                val previewPictures = preparer.preparePreview(session)
+                if (previewPictures == null) {
+                    onLoadFailed(generation)
+                    return@launch
+                }
+                luminance = previewPictures.luminance
+                upload(uploadThread, generation, previewPictures) { showPreview(it) }
+            }
+            ensureActive()
+            val prepared = preparer.prepare(session, luminance, imageLoader.cacheKey)
+            if (prepared == null) {
+                onLoadFailed(generation)
+                return@launch
+            }
+            upload(uploadThread, generation, prepared) {
+                if (immediate) {
+                    show(it, immediate = true)
+                } else {
+                    replacePreview(it)
+                }
+            }
+        }.apply {
+            invokeOnCompletion { session.close() }
+        }
+    }
+
+    /**
+     * Finish switching photos when a load fails without being superseded, as no
+     * cross fade will finish it. A preview already shown finishes it once it has
+     * cross faded in.
+     */
+    private fun onLoadFailed(generation: Int) {
+        if (demoMode || preview) {
+            return
+        }
+        callbacks.queueEventOnGlThread {
+            if (generation == loadGeneration && pendingUploads.isEmpty() &&
+                    !crossfadeAnimator.isRunning) {
+                SwitchingPhotosStateFlow.value = SwitchingPhotosDone(currentGLPictureSet.id)
+            }
+        }
+    }
+
+    private class PendingUpload(
+            val generation: Int,
+            val uploaded: UploadedPictures,
+            val onReady: (UploadedPictures) -> Unit
+    )
+
+    /**
+     * Upload the prepared pictures, on the upload thread if there is one and on the
+     * GL thread otherwise, then pass them to [onReady] on the GL thread once the GPU
+     * has finished uploading them. Uploads for loads superseded in the meantime are
+     * dropped.
+     */
+    private fun upload(
+            uploadThread: GLUploadThread?,
+            generation: Int,
+            prepared: PreparedPictures,
+            onReady: (UploadedPictures) -> Unit
+    ) {
+        val uploading = uploadThread != null && UploadedPictures.upload(uploadThread, prepared,
+                isCancelled = { generation != loadGeneration }) { uploaded ->
+            if (uploaded != null) {
+                callbacks.queueEventOnGlThread {
+                    pendingUploads.addLast(PendingUpload(generation, uploaded, onReady))
+                    showFinishedUploads()
+                }
+            }
+        }
+        if (!uploading) {
+            callbacks.queueEventOnGlThread {
+                if (generation == loadGeneration) {
+                    onReady(UploadedPictures.upload(prepared))
+                } else {
+                    prepared.recycle()
+                }
+            }
+        }
+    }
+
+    /**
+     * Show pending uploads, in order, once the GPU has finished them. Never waits for
+     * the GPU: unfinished uploads are checked again on the next frame.
+     */
+    private fun showFinishedUploads() {
+        while (pendingUploads.isNotEmpty()) {
+            val pending = pendingUploads.first()
+            if (pending.generation != loadGeneration) {
+                pendingUploads.removeFirst()
+                pending.uploaded.destroy()
+                continue
+            }
+            if (!pending.uploaded.isReady()) {
+                callbacks.requestRender()
+                return
+            }
+            pendingUploads.removeFirst()
+            pending.onReady(pending.uploaded)
+        }
+    }
 
+    private fun showPreview(previewPictures: UploadedPictures) {
+        show(previewPictures, immediate = false)
+        previewGLPictureSet = nextGLPictureSet
+    }
+
+    private fun show(uploaded: UploadedPictures, immediate: Boolean) {
+        if (immediate) {
+            crossfadeAnimator.finish()
+        }
+        nextGLPictureSet.setPictures(uploaded)
         crossfadeAnimator.start(if (immediate) 1 else 0, 1) {
             // swap current and next picturesets
             val oldGLPictureSet = currentGLPictureSet
@@ -305,7 +609,6 @@ class MuzeiBlurRenderer(
             if (!demoMode) {
                 SwitchingPhotosStateFlow.value = SwitchingPhotosDone(currentGLPictureSet.id)
             }
-            System.gc()
             val loader = queuedNextImageLoader
             if (loader != null) {
                 queuedNextImageLoader = null
@@ -315,116 +618,134 @@ class MuzeiBlurRenderer(
         callbacks.requestRender()
     }
 
+    /**
+     * Replace the preview shown by the loading picture set with the
+     * full size image and blur keyframes.
+     */
+    private fun replacePreview(uploaded: UploadedPictures) {
+        val previewSet = previewGLPictureSet
+        previewGLPictureSet = null
+        if (previewSet == null) {
+            uploaded.destroy()
+            return
+        }
+        val fullSet = GLPictureSet(previewSet.id)
+        when {
+            currentGLPictureSet === previewSet -> currentGLPictureSet = fullSet
+            nextGLPictureSet === previewSet -> nextGLPictureSet = fullSet
+            else -> {
+                uploaded.destroy()
+                return
+            }
+        }
+        fullSet.setPictures(uploaded)
+        previewSet.destroyPictures()
+        callbacks.requestRender()
+    }
+
+    /**
+     * Prepare the given image's keyframes into the [KeyframeDiskCache] with the
+     * current effects, without showing it, so that loading it later doesn't wait on
+     * decoding and blurring it. Replaces any image still being prepared ahead.
+     */
+    fun prepareAhead(imageLoader: ImageLoader) {
+        val cacheKey = imageLoader.cacheKey ?: return
+        callbacks.queueEventOnGlThread {
+            prepareAheadImageLoader?.cancel()
+            prepareAheadImageLoader = imageLoader
+            if (currentHeight == 0) {
+                // The effects depend on the size of the surface, which isn't known yet
+                return@queueEventOnGlThread
+            }
+            val preparer = PictureSetPreparer(context, renderParams())
+            loadScope.launch {
+                imageLoader.openSession()?.use { session ->
+                    preparer.prepareAhead(session, cacheKey)
+                }
+            }
+        }
+    }
+
+    /**
+     * Cancel any load still being prepared and drop its results.
+     */
+    private fun cancelLoad() {
+        loadJob?.cancel()
+        loadJob = null
+        loadGeneration++
+        previewGLPictureSet = null
+        pendingUploads.forEach { it.uploaded.destroy() }
+        pendingUploads.clear()
+    }
+
     private inner class GLPictureSet(val id: Int) {
         private val projectionMatrix = FloatArray(16)
         private val mvpMatrix = FloatArray(16)
         private val pictures = arrayOfNulls<GLPicture>(blurKeyframes + 1)
-        private var hasBitmap = false
+        // When blurring with a shader, replaces pictures[1..blurKeyframes]
+        private var blurredPicture: GLBlurredPicture? = null
+        private var blurredPictureSampleSize = 0
+        var hasBitmap = false
+            private set
         private var bitmapAspectRatio = 1f
-        var dimAmount = 0
-
-        fun load(imageLoader: ImageLoader) {
-            val (width, height) = imageLoader.getSize()
-            hasBitmap = width != 0 && height != 0
-            bitmapAspectRatio = if (hasBitmap)
-                width * 1f / height
-            else
-                1f
-
-            dimAmount = DEFAULT_MAX_DIM
+        private var luminance = 0f
+        // When only a region of the image is decoded, pictures[0] covers the
+        // horizontal span from regionLeft to regionRight (as fractions of the
+        // image's width) and basePicture is a low resolution copy of the whole image
+        private var regionMode = false
+        private var regionLeft = 0f
+        private var regionRight = 1f
+        private var basePicture: GLPicture? = null
+        private val regionModelMatrix = FloatArray(16)
+        private val regionMvpMatrix = FloatArray(16)
+        private val compositeLayer = GLComposite.Layer()
+        val hasPictures get() = pictures[0] != null
+
+        /**
+         * Derived from the luminance as the set is drawn, so that changes to the
+         * maximum dim apply without reloading.
+         */
+        val dimAmount: Int
+            get() = when {
+                !hasBitmap -> 0
+                demoMode -> DEMO_DIM
+                else -> (maxDim * (1 - DIM_RANGE + DIM_RANGE * sqrt(luminance.toDouble()))).toInt()
+            }
 
+        /**
+         * Take ownership of the uploaded pictures, replacing any pictures already
+         * in this set.
+         */
+        fun setPictures(uploaded: UploadedPictures) {
             destroyPictures()
-
-            if (hasBitmap) {
-                // Calculate image darkness to determine dim amount
-                var tempBitmap = imageLoader.decode(64)
-                val darkness = tempBitmap.darkness()
-                dimAmount = if (demoMode)
-                    DEMO_DIM
-                else
-                    (maxDim * (1 - DIM_RANGE + DIM_RANGE * sqrt(darkness.toDouble()))).toInt()
-                tempBitmap?.recycle()
-
-                // Create the GLPicture objects
-                var success = false
-                var sampleSize = 1
-                do {
-                    val attemptedWidth = (bitmapAspectRatio * currentHeight / sampleSize).toInt()
-                    val attemptedHeight = currentHeight / sampleSize
-                    try {
-                        val image = imageLoader.decode(
-                                attemptedWidth,
-                                attemptedHeight)
-                        pictures[0] = image?.toGLPicture()
-                        success = true
-                    } catch (_: OutOfMemoryError) {
-                        sampleSize = sampleSize shl 1
-                        Log.d(TAG, "Decoding image at ${attemptedWidth}x$attemptedHeight " +
-                                "was too large, trying a sample size of $sampleSize")
-                    }
-                } while (!success)
-                if (maxPrescaledBlurPixels == 0 && maxGrey == 0) {
-                    for (f in 1..blurKeyframes) {
-                        pictures[f] = pictures[0]
-                    }
-                } else {
-                    val sampleSizeTargetHeight: Int = if (maxPrescaledBlurPixels > 0) {
-                        currentHeight / blurredSampleSize
-                    } else {
-                        currentHeight
-                    }
-                    // Note that image width should be a multiple of 4 to avoid
-                    // issues with RenderScript allocations.
-                    val scaledHeight = max(2, sampleSizeTargetHeight.floorEven())
-                    val scaledWidth = max(4, (scaledHeight * bitmapAspectRatio).toInt().roundMult4())
-
-                    // To blur, first load the entire bitmap region, but at a very large
-                    // sample size that's appropriate for the final blurred image
-                    tempBitmap = imageLoader.decode(scaledWidth, scaledHeight)
-
-                    if (tempBitmap != null
-                            && tempBitmap.width != 0 && tempBitmap.height != 0) {
-                        // Next, create a scaled down version of the bitmap so that the blur radius
-                        // looks appropriate (tempBitmap will likely be bigger than the final
-                        // blurred bitmap, and thus the blur may look smaller if we just used
-                        // tempBitmap as the final blurred bitmap).
-
-                        // Note that image width should be a multiple of 4 to avoid
-                        // issues with RenderScript allocations.
-                        val scaledBitmap = tempBitmap.scale(scaledWidth, scaledHeight)
-                        if (tempBitmap != scaledBitmap) {
-                            tempBitmap.recycle()
-                        }
-
-                        // And finally, create a blurred copy for each keyframe.
-                        val blurrer = ImageBlurrer(context, scaledBitmap)
-                        for (f in 1..blurKeyframes) {
-                            val desaturateAmount = maxGrey / 500f * f / blurKeyframes
-                            val blurRadius = if (maxPrescaledBlurPixels > 0) {
-                                blurRadiusAtFrame(f.toFloat())
-                            } else {
-                                0f
-                            }
-                            val blurredBitmap = blurrer.blurBitmap(blurRadius, desaturateAmount)
-                            pictures[f] = blurredBitmap?.toGLPicture()
-                            blurredBitmap?.recycle()
-                        }
-                        blurrer.destroy()
-
-                        scaledBitmap.recycle()
-                    } else {
-                        Log.e(TAG, "ImageLoader failed to decode the image")
-                        for (f in 1..blurKeyframes) {
-                            pictures[f] = null
-                        }
-                    }
-                }
+            hasBitmap = true
+            bitmapAspectRatio = uploaded.bitmapAspectRatio
+            luminance = uploaded.luminance
+
+            regionMode = uploaded.regionMode
+            regionLeft = uploaded.regionLeft
+            regionRight = uploaded.regionRight
+            Matrix.setIdentityM(regionModelMatrix, 0)
+            Matrix.translateM(regionModelMatrix, 0, regionLeft + regionRight - 1, 0f, 0f)
+            Matrix.scaleM(regionModelMatrix, 0, regionRight - regionLeft, 1f, 1f)
+            basePicture = uploaded.basePicture
+            uploaded.pictures.copyInto(pictures)
+            blurredPicture = uploaded.blurredPicture
+            blurredPictureSampleSize = uploaded.blurredPictureSampleSize
+            if (BuildConfig.DEBUG) {
+                Log.d(TAG, "Picture set $id uses ${textureBytes / 1024} KB of textures")
             }
 
             recomputeTransformMatrices()
-            callbacks.requestRender()
         }
 
+        /**
+         * The GPU memory used by this set's textures.
+         */
+        val textureBytes: Long
+            get() = (pictures.distinct() + basePicture).sumOf { it?.textureBytes ?: 0L } +
+                    (blurredPicture?.textureBytes ?: 0L)
+
         fun recomputeTransformMatrices() {
             val screenToBitmapAspectRatio = aspectRatio / bitmapAspectRatio
             if (screenToBitmapAspectRatio == 0f) {
@@ -495,15 +816,72 @@ class MuzeiBlurRenderer(
                     1f, 10f)
         }
 
-        fun drawFrame(globalAlpha: Float) {
+        private fun computeMvpMatrices() {
+            Matrix.multiplyMM(mvpMatrix, 0, viewMatrix, 0, modelMatrix, 0)
+            Matrix.multiplyMM(mvpMatrix, 0, projectionMatrix, 0, mvpMatrix, 0)
+            if (regionMode) {
+                Matrix.multiplyMM(regionMvpMatrix, 0, mvpMatrix, 0, regionModelMatrix, 0)
+            }
+        }
+
+        /**
+         * This set's pictures for the current frame as a [GLComposite.Layer], or null
+         * if they can't be drawn as one, such as when only a region of the image or
+         * tiles of it are uploaded.
+         */
+        fun compositeLayer(): GLComposite.Layer? {
+            if (regionMode) {
+                return null
+            }
+            computeMvpMatrices()
+            if (!compositeLayer.setMvpMatrix(mvpMatrix)) {
+                return null
+            }
+            val blurFrame = blurAnimator.currentValue
+            val blurredPicture = blurredPicture
+            if (blurredPicture != null) {
+                val blurredAlpha = blurredAlpha(blurFrame)
+                compositeLayer.loTexture = pictures[0]?.texture ?: 0
+                compositeLayer.hiTexture = if (blurredAlpha > 0) {
+                    blurredPicture.blur(blurRadius(blurredPicture, blurFrame))
+                } else {
+                    compositeLayer.loTexture
+                }
+                compositeLayer.hiAlpha = blurredAlpha
+            } else {
+                val lo = floor(blurFrame.toDouble()).toInt()
+                val hi = ceil(blurFrame.toDouble()).toInt()
+                compositeLayer.loTexture = pictures[lo]?.texture ?: 0
+                compositeLayer.hiTexture = pictures[hi]?.texture ?: 0
+                compositeLayer.hiAlpha = blurFrame - lo
+            }
+            return compositeLayer.takeIf { it.loTexture != 0 && it.hiTexture != 0 }
+        }
+
+        fun drawFrame(globalAlpha: Float, desaturateAmount: Float) {
             if (!hasBitmap) {
                 return
             }
 
-            Matrix.multiplyMM(mvpMatrix, 0, viewMatrix, 0, modelMatrix, 0)
-            Matrix.multiplyMM(mvpMatrix, 0, projectionMatrix, 0, mvpMatrix, 0)
+            computeMvpMatrices()
 
             val blurFrame = blurAnimator.currentValue
+            if (regionMode && blurRelatedToArtDetailMode && globalAlpha > 0) {
+                val drawsRegion = blurredPicture?.let { blurredAlpha(blurFrame) < 1 }
+                        ?: (blurFrame < 1)
+                if (drawsRegion) {
+                    // Art Detail mode may be focused outside of the decoded region. Draw
+                    // the base once at the set's alpha, rather than under each keyframe
+                    // pass, so that it isn't blended twice under the region while fading
+                    basePicture?.draw(mvpMatrix, globalAlpha, desaturateAmount)
+                }
+            }
+
+            blurredPicture?.let { picture ->
+                drawBlurredFrame(picture, globalAlpha, desaturateAmount)
+                return
+            }
+
             val lo = floor(blurFrame.toDouble()).toInt()
             val hi = ceil(blurFrame.toDouble()).toInt()
 
@@ -518,7 +896,7 @@ class MuzeiBlurRenderer(
                         return
                     }
 
-                    pictures[lo]?.draw(mvpMatrix, globalAlpha)
+                    drawPicture(pictures[lo], globalAlpha, desaturateAmount)
                 }
                 globalAlpha == 1f -> {
                     // Simple drawing
@@ -526,8 +904,8 @@ class MuzeiBlurRenderer(
                         return
                     }
 
-                    pictures[lo]?.draw(mvpMatrix, 1f)
-                    pictures[hi]?.draw(mvpMatrix, localHiAlpha)
+                    drawPicture(pictures[lo], 1f, desaturateAmount)
+                    drawPicture(pictures[hi], localHiAlpha, desaturateAmount)
                 }
                 else -> {
                     // If there's both a global and local alpha, re-compose alphas, to
@@ -543,13 +921,79 @@ class MuzeiBlurRenderer(
 
                     val newLocalLoAlpha = globalAlpha * (localHiAlpha - 1) / (globalAlpha * localHiAlpha - 1)
                     val newLocalHiAlpha = globalAlpha * localHiAlpha
-                    pictures[lo]?.draw(mvpMatrix, newLocalLoAlpha)
-                    pictures[hi]?.draw(mvpMatrix, newLocalHiAlpha)
+                    drawPicture(pictures[lo], newLocalLoAlpha, desaturateAmount)
+                    drawPicture(pictures[hi], newLocalHiAlpha, desaturateAmount)
+                }
+            }
+        }
+
+        /**
+         * Draw the frame when blurring with a shader: rather than cross fading between
+         * keyframes, the sharp picture fades to the blurred picture over the first
+         * keyframe and from there only the blur radius and desaturation change.
+         */
+        private fun drawBlurredFrame(
+                blurredPicture: GLBlurredPicture,
+                globalAlpha: Float,
+                desaturateAmount: Float
+        ) {
+            val blurFrame = blurAnimator.currentValue
+            val blurredAlpha = blurredAlpha(blurFrame)
+            val blurRadius = blurRadius(blurredPicture, blurFrame)
+            when {
+                globalAlpha <= 0 -> {
+                    // Nothing to draw
+                }
+                blurredAlpha <= 0 -> drawPicture(pictures[0], globalAlpha, desaturateAmount)
+                blurredAlpha >= 1 -> blurredPicture.draw(mvpMatrix, globalAlpha,
+                        blurRadius, desaturateAmount)
+                else -> {
+                    // Re-compose alphas the same way as cross fading between keyframes
+                    drawPicture(pictures[0],
+                            globalAlpha * (blurredAlpha - 1) / (globalAlpha * blurredAlpha - 1),
+                            desaturateAmount)
+                    blurredPicture.draw(mvpMatrix, globalAlpha * blurredAlpha,
+                            blurRadius, desaturateAmount)
+                }
+            }
+        }
+
+        private fun blurredAlpha(blurFrame: Float) = if (maxPrescaledBlurPixels > 0) {
+            min(1f, blurFrame)
+        } else {
+            0f
+        }
+
+        // Scale the prescaled blur radius to the size of the blurred picture
+        private fun blurRadius(blurredPicture: GLBlurredPicture, blurFrame: Float) =
+                if (currentHeight > 0) {
+                    blurRadiusAtFrame(blurFrame) *
+                            blurredPicture.height * blurredSampleSize / currentHeight
+                } else {
+                    0f
                 }
+
+        /**
+         * Whether the blurred picture was loaded at the given sample size.
+         */
+        fun canApplyEffects(blurSampleSize: Int) = blurredPicture != null &&
+                blurredPictureSampleSize == blurSampleSize
+
+        private fun drawPicture(picture: GLPicture?, alpha: Float, desaturateAmount: Float) {
+            if (regionMode && picture === pictures[0]) {
+                picture?.draw(regionMvpMatrix, alpha, desaturateAmount)
+            } else {
+                picture?.draw(mvpMatrix, alpha, desaturateAmount)
             }
         }
 
         fun destroyPictures() {
+            basePicture?.destroy()
+            basePicture = null
+            blurredPicture?.destroy()
+            blurredPicture = null
+            blurredPictureSampleSize = 0
+            regionMode = false
             for (i in pictures.indices) {
                 if (pictures[i] != null) {
                     pictures[i]?.destroy()
@@ -559,7 +1003,55 @@ class MuzeiBlurRenderer(
         }
     }
 
+    /**
+     * Release every texture while the wallpaper is hidden, so that the GL surface can
+     * be released too. The artwork is reloaded once the surface is created again; its
+     * processed keyframes are kept in the [KeyframeDiskCache] rather than in memory.
+     * Must be called on the GL thread while its context is still current.
+     */
+    fun releaseGpuResources() {
+        idleReleased = true
+        abandonIdleResume()
+        if (!surfaceCreated) {
+            return
+        }
+        val releasedBytes = currentGLPictureSet.textureBytes + nextGLPictureSet.textureBytes
+        cancelLoad()
+        // Loads started from here on wait for the surface to be created again
+        surfaceCreated = false
+        crossfadeAnimator.finish()
+        currentGLPictureSet.destroyPictures()
+        nextGLPictureSet.destroyPictures()
+        idleImageLoader = lastImageLoader
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, "Released ${releasedBytes / 1024} KB of textures while idle")
+        }
+    }
+
+    /**
+     * Note that the engine became visible again at [startNanos], returning whether the
+     * GPU resources were released and the GL surface needs to be created again.
+     */
+    fun resumeFromIdle(startNanos: Long): Boolean {
+        if (!idleReleased) {
+            return false
+        }
+        idleReleased = false
+        idleResumeStartNanos = startNanos
+        return true
+    }
+
+    private fun abandonIdleResume() {
+        if (idleResumeStartNanos != 0L) {
+            idleResumeStartNanos = 0L
+            frameStats?.recordAbandonedIdleResume()
+        }
+    }
+
     fun destroy() {
+        abandonIdleResume()
+        cancelLoad()
+        prepareAheadImageLoader?.cancel()
         currentGLPictureSet.destroyPictures()
         nextGLPictureSet.destroyPictures()
     }
@@ -573,15 +1065,12 @@ class MuzeiBlurRenderer(
 
         blurRelatedToArtDetailMode = artDetailMode
         this.isBlurred = isBlurred
-        blurAnimator.start(endValue = if (isBlurred) blurKeyframes else 0) {
-            if (isBlurred && artDetailMode) {
-                System.gc()
-            }
-        }
+        blurAnimator.start(endValue = if (isBlurred) blurKeyframes else 0)
         callbacks.requestRender()
     }
 
-    fun interface Callbacks {
+    interface Callbacks {
+        fun queueEventOnGlThread(event: () -> Unit)
         fun requestRender()
     }
 }
\ No newline at end of file
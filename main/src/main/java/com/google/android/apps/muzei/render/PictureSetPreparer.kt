@@ -0,0 +1,453 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.apps.muzei.render
+
+import android.content.Context
+import android.graphics.Bitmap
+import android.graphics.Canvas
+import android.graphics.Paint
+import android.graphics.Rect
+import android.util.Log
+import android.view.animation.AccelerateDecelerateInterpolator
+import com.google.android.apps.muzei.util.BitmapPool
+import com.google.android.apps.muzei.util.BlurService
+import com.google.android.apps.muzei.util.ImageBlurrer
+import com.google.android.apps.muzei.util.floorEven
+import com.google.android.apps.muzei.util.roundMult4
+import kotlin.math.ceil
+import kotlin.math.floor
+import kotlin.math.max
+import kotlin.math.min
+
+/**
+ * The renderer state that determines how an image is prepared, captured on the
+ * GL thread when a load starts.
+ */
+internal data class RenderParams(
+        val currentHeight: Int,
+        val aspectRatio: Float,
+        val blurKeyframes: Int,
+        val maxPrescaledBlurPixels: Int,
+        val blurredSampleSize: Int,
+        val shaderBlur: Boolean,
+        val maxTextureSize: Int,
+        val supportsEtc2: Boolean
+) {
+    companion object {
+        private val blurInterpolator = AccelerateDecelerateInterpolator()
+
+        fun blurRadiusAtFrame(maxPrescaledBlurPixels: Int, blurKeyframes: Int, f: Float) =
+                maxPrescaledBlurPixels * blurInterpolator.getInterpolation(f / blurKeyframes)
+    }
+
+    /**
+     * Whether the image is blurred at all. Desaturation and dimming don't need any
+     * preparation, as they are applied as the pictures are drawn.
+     */
+    val hasBlur get() = maxPrescaledBlurPixels > 0
+
+    /**
+     * The sample size, relative to the screen height, at which images are blurred
+     */
+    val blurSampleSize get() = if (maxPrescaledBlurPixels > 0) blurredSampleSize else 1
+
+    fun keyframeBlurRadius(f: Int) = if (maxPrescaledBlurPixels > 0) {
+        blurRadiusAtFrame(maxPrescaledBlurPixels, blurKeyframes, f.toFloat())
+    } else {
+        0f
+    }
+
+    /**
+     * Whether keyframes are blurred enough to hide the loss of precision of RGB_565
+     * and texture compression.
+     */
+    val lowPrecisionKeyframes get() = !shaderBlur && maxPrescaledBlurPixels > 0
+
+    /**
+     * Whether keyframes of the given size are compressed as ETC2 as they are prepared,
+     * which needs them to be uploaded as a single texture.
+     */
+    fun compressKeyframes(width: Int, height: Int) = lowPrecisionKeyframes && supportsEtc2 &&
+            width <= maxTextureSize && height <= maxTextureSize
+}
+
+/**
+ * The bitmaps for a picture set, ready to be uploaded on the GL thread.
+ *
+ * [pictures] holds the image followed by its blurred keyframes, which are the
+ * image itself when there is no blur and null when [blurSource] is blurred
+ * by a shader instead. Keyframes compressed as ETC2 are in [compressedPictures]
+ * rather than [pictures]. When [regionMode], the image only covers the horizontal
+ * span from [regionLeft] to [regionRight] and [base] is a low resolution copy
+ * of the whole image.
+ */
+internal class PreparedPictures(
+        val bitmapAspectRatio: Float,
+        val luminance: Float,
+        val pictures: Array<Bitmap?>
+) {
+    val compressedPictures = arrayOfNulls<Etc2Image>(pictures.size)
+    var blurSource: Bitmap? = null
+    var blurSourceSampleSize = 0
+    var regionMode = false
+    var regionLeft = 0f
+    var regionRight = 1f
+    var base: Bitmap? = null
+
+    /**
+     * Return every bitmap to the [BitmapPool].
+     */
+    fun recycle() {
+        pictures.forEach { BitmapPool.put(it) }
+        BitmapPool.put(blurSource)
+        BitmapPool.put(base)
+    }
+}
+
+/**
+ * Decodes, scales, blurs and caches the bitmaps for a [MuzeiBlurRenderer] picture
+ * set. Everything it needs from the renderer is captured in [params], so it can run
+ * on a background thread while the GL thread keeps drawing.
+ */
+internal class PictureSetPreparer(
+        private val context: Context,
+        private val params: RenderParams
+) {
+    companion object {
+        private const val TAG = "PictureSetPreparer"
+
+        // Only decode the region the wallpaper can pan across when it is
+        // at most this fraction of the image's width
+        private const val REGION_DECODE_MAX_PAN_FRACTION = 0.75f
+        // The height of the placeholder shown while the full image loads
+        private const val PREVIEW_HEIGHT = 64
+    }
+
+    // Dithering hides the banding RGB_565 would otherwise add to smooth blurs
+    private val ditherPaint = Paint(Paint.DITHER_FLAG)
+
+    /**
+     * Prepare a small, soft preview of the image for every keyframe, returning
+     * null if the session was cancelled before it could be prepared.
+     */
+    fun preparePreview(session: ImageDecodeSession): PreparedPictures? {
+        val bitmapAspectRatio = session.width * 1f / session.height
+        val previewWidth = max(4, (PREVIEW_HEIGHT * bitmapAspectRatio).toInt().roundMult4())
+        val previewBitmap = session.decodeExact(previewWidth, PREVIEW_HEIGHT) ?: return null
+        val prepared = PreparedPictures(bitmapAspectRatio,
+                session.luminance ?: previewBitmap.luminanceStats().mean,
+                arrayOfNulls(params.blurKeyframes + 1))
+        val pictures = prepared.pictures
+        pictures[0] = previewBitmap
+        if (!params.hasBlur) {
+            pictures.fill(previewBitmap)
+        } else if (params.shaderBlur && previewWidth <= params.maxTextureSize) {
+            // Previews too wide to be a single texture are blurred on the CPU below
+            prepared.blurSource = previewBitmap
+        } else {
+            // Scale the blur radius down to match the size of the preview
+            val blurScale = PREVIEW_HEIGHT * 1f /
+                    max(1, params.currentHeight / params.blurredSampleSize)
+            val blurrer = ImageBlurrer(context, previewBitmap,
+                    BlurService.previewEngine(context))
+            for (f in 1..params.blurKeyframes) {
+                // The blurrer limits the radius to what its engine supports
+                pictures[f] = blurrer.blurBitmap(params.keyframeBlurRadius(f) * blurScale)
+            }
+            blurrer.destroy()
+            toLowPrecisionKeyframes(pictures)
+        }
+        return prepared
+    }
+
+    /**
+     * Prepare the image and its blurred keyframes, returning null if the session
+     * was cancelled before all of them could be prepared. A [cacheKey] uniquely
+     * identifying the image lets processed bitmaps be reused across loads.
+     */
+    fun prepare(
+            session: ImageDecodeSession,
+            knownLuminance: Float? = null,
+            cacheKey: String? = null
+    ): PreparedPictures? {
+        val width = session.width
+        val height = session.height
+        if (width == 0 || height == 0) {
+            return null
+        }
+        val bitmapAspectRatio = width * 1f / height
+
+        // Calculate image luminance to determine dim amount, unless
+        // it was already computed by the preview or when the artwork was loaded
+        val luminance = knownLuminance ?: session.luminance ?: run {
+            val tempBitmap = session.decode(64)
+            tempBitmap.luminanceStats().mean.also {
+                BitmapPool.put(tempBitmap)
+            }
+        }
+        val prepared = PreparedPictures(bitmapAspectRatio, luminance,
+                arrayOfNulls(params.blurKeyframes + 1))
+        val pictures = prepared.pictures
+
+        // Very wide images (i.e., panoramas) can only ever be panned across
+        // a portion of their width, so only decode that region
+        val panWidthFraction = panWidthFraction(bitmapAspectRatio)
+        var regionMode = panWidthFraction <= REGION_DECODE_MAX_PAN_FRACTION
+        val region = Rect(0, 0, width, height)
+        if (regionMode) {
+            region.left = floor(width * (1 - panWidthFraction) / 2).toInt()
+            region.right = ceil(width * (1 + panWidthFraction) / 2).toInt()
+            // Art Detail mode can focus on any part of the image, so keep a
+            // low resolution copy of the whole image to draw under the region
+            val baseHeight = max(2, params.currentHeight / 4)
+            val baseWidth = max(2, (baseHeight * bitmapAspectRatio).toInt())
+            prepared.base = session.decodeExact(baseWidth, baseHeight)
+        }
+        if (session.isCancelled) {
+            prepared.recycle()
+            return null
+        }
+        prepared.regionLeft = region.left * 1f / width
+        prepared.regionRight = region.right * 1f / width
+
+        var success = false
+        var sampleSize = 1
+        do {
+            val attemptedWidth = (bitmapAspectRatio * params.currentHeight / sampleSize).toInt()
+            val attemptedHeight = params.currentHeight / sampleSize
+            try {
+                val regionImage = if (regionMode) {
+                    session.decodeRegion(region, attemptedHeight)
+                } else {
+                    null
+                }
+                // Fall back to decoding the whole image if the
+                // format doesn't support decoding a region
+                regionMode = regionImage != null
+                pictures[0] = regionImage ?: session.decode(
+                        attemptedWidth,
+                        attemptedHeight)
+                success = true
+            } catch (_: OutOfMemoryError) {
+                sampleSize = sampleSize shl 1
+                Log.d(TAG, "Decoding image at ${attemptedWidth}x$attemptedHeight " +
+                        "was too large, trying a sample size of $sampleSize")
+            }
+        } while (!success)
+        prepared.regionMode = regionMode
+        if (!regionMode) {
+            BitmapPool.put(prepared.base)
+            prepared.base = null
+        }
+        if (session.isCancelled) {
+            prepared.recycle()
+            return null
+        }
+
+        if (!params.hasBlur) {
+            pictures.fill(pictures[0])
+        } else {
+            prepareBlurred(session, prepared, cacheKey)
+        }
+
+        if (session.isCancelled) {
+            prepared.recycle()
+            return null
+        }
+        return prepared
+    }
+
+    /**
+     * Fill the [KeyframeDiskCache] with the image's scaled and blurred keyframes, so
+     * that a later [prepare] with the same [cacheKey] and params only reads them back.
+     * The full size image isn't decoded.
+     */
+    fun prepareAhead(session: ImageDecodeSession, cacheKey: String) {
+        if (!params.hasBlur || session.width == 0 || session.height == 0) {
+            return
+        }
+        val prepared = PreparedPictures(session.width * 1f / session.height, 0f,
+                arrayOfNulls(params.blurKeyframes + 1))
+        prepareBlurred(session, prepared, cacheKey)
+        prepared.recycle()
+    }
+
+    private fun prepareBlurred(
+            session: ImageDecodeSession,
+            prepared: PreparedPictures,
+            cacheKey: String?
+    ) {
+        val pictures = prepared.pictures
+        val blurKeyframes = params.blurKeyframes
+        val sampleSizeTargetHeight = params.currentHeight / params.blurSampleSize
+        // Note that image width should be a multiple of 4 to avoid
+        // issues with RenderScript allocations.
+        var scaledHeight = max(2, sampleSizeTargetHeight.floorEven())
+        var scaledWidth = max(4, (scaledHeight * prepared.bitmapAspectRatio).toInt().roundMult4())
+        val scaledSize = max(scaledWidth, scaledHeight)
+        if (params.shaderBlur && scaledSize > params.maxTextureSize) {
+            // The blur source is a single texture, so scale wide panoramas down to
+            // fit. The blur radius is scaled to the size it is actually drawn from.
+            scaledHeight = max(2, (scaledHeight.toLong() * params.maxTextureSize /
+                    scaledSize).toInt().floorEven())
+            scaledWidth = max(4, min(params.maxTextureSize and 0x03.inv(),
+                    (scaledHeight * prepared.bitmapAspectRatio).toInt().roundMult4()))
+        }
+
+        // Reuse any keyframes already processed for this blur
+        val compressedPictures = prepared.compressedPictures
+        val compress = params.compressKeyframes(scaledWidth, scaledHeight)
+        if (!params.shaderBlur && cacheKey != null) {
+            for (f in 1..blurKeyframes) {
+                val name = keyframeCacheName(cacheKey, scaledWidth, scaledHeight, f)
+                if (compress) {
+                    compressedPictures[f] = KeyframeDiskCache.getEtc2(context, name)
+                } else {
+                    pictures[f] = KeyframeDiskCache.get(context, name)
+                }
+            }
+        }
+        if (!params.shaderBlur && (1..blurKeyframes).all {
+                    pictures[it] != null || compressedPictures[it] != null }) {
+            // Nothing left to blur
+            return
+        }
+
+        // To blur, load the entire bitmap region at exactly the size of the
+        // final blurred image so that the blur radius looks appropriate
+        // (a larger bitmap would make the blur look smaller).
+        val scaledBitmap = loadScaledBitmap(session, cacheKey, scaledWidth, scaledHeight)
+        if (scaledBitmap != null && scaledBitmap.width != 0 && scaledBitmap.height != 0) {
+            if (params.shaderBlur) {
+                // Blur as it is drawn
+                prepared.blurSource = scaledBitmap
+                prepared.blurSourceSampleSize = params.blurSampleSize
+                return
+            }
+            // Then create a blurred copy for each keyframe not in the cache.
+            val blurrer = ImageBlurrer(context, scaledBitmap)
+            for (f in 1..blurKeyframes) {
+                if (session.isCancelled) {
+                    break
+                }
+                if (pictures[f] != null || compressedPictures[f] != null) {
+                    continue
+                }
+                // Cache the keyframe as it is uploaded, so that reading it back
+                // doesn't have to convert or encode it again
+                val blurredBitmap = blurrer.blurBitmap(params.keyframeBlurRadius(f))
+                        ?.let { toLowPrecision(it) } ?: continue
+                val name = cacheKey?.let {
+                    keyframeCacheName(it, scaledWidth, scaledHeight, f)
+                }
+                if (compress) {
+                    val image = blurredBitmap.encodeEtc2()
+                    BitmapPool.put(blurredBitmap)
+                    compressedPictures[f] = image
+                    name?.let { KeyframeDiskCache.put(context, it, image) }
+                } else {
+                    pictures[f] = blurredBitmap
+                    name?.let { KeyframeDiskCache.put(context, it, blurredBitmap) }
+                }
+            }
+            blurrer.destroy()
+            BitmapPool.put(scaledBitmap)
+        } else {
+            BitmapPool.put(scaledBitmap)
+            if (!session.isCancelled) {
+                Log.e(TAG, "Failed to decode the image $session")
+            }
+            for (f in 1..blurKeyframes) {
+                BitmapPool.put(pictures[f])
+                pictures[f] = null
+                compressedPictures[f] = null
+            }
+        }
+    }
+
+    /**
+     * Convert the blurred keyframes to RGB_565, halving their memory, if they are
+     * blurred enough to hide it.
+     */
+    private fun toLowPrecisionKeyframes(pictures: Array<Bitmap?>) {
+        for (f in 1..params.blurKeyframes) {
+            pictures[f] = pictures[f]?.let { toLowPrecision(it) }
+        }
+    }
+
+    /**
+     * Convert a blurred keyframe to RGB_565 as [toLowPrecisionKeyframes] does,
+     * returning the given bitmap to the [BitmapPool] when it is replaced.
+     */
+    private fun toLowPrecision(bitmap: Bitmap): Bitmap {
+        if (!params.lowPrecisionKeyframes || bitmap.config == Bitmap.Config.RGB_565) {
+            return bitmap
+        }
+        return BitmapPool.get(bitmap.width, bitmap.height, Bitmap.Config.RGB_565).also {
+            Canvas(it).drawBitmap(bitmap, 0f, 0f, ditherPaint)
+            BitmapPool.put(bitmap)
+        }
+    }
+
+    /**
+     * Load the unblurred image at exactly the given size, from the
+     * [KeyframeDiskCache] if it was already scaled to that size.
+     */
+    private fun loadScaledBitmap(
+            session: ImageDecodeSession,
+            cacheKey: String?,
+            width: Int,
+            height: Int
+    ): Bitmap? {
+        val name = cacheKey?.let { keyframeCacheName(it, width, height, 0) }
+        name?.let { KeyframeDiskCache.get(context, it) }?.let { return it }
+        return session.decodeExact(width, height)?.also { scaledBitmap ->
+            if (name != null) {
+                KeyframeDiskCache.put(context, name, scaledBitmap)
+            }
+        }
+    }
+
+    /**
+     * The [KeyframeDiskCache] name of the given keyframe of the image at the given
+     * size and the current blur, where keyframe 0 is the unblurred image.
+     */
+    private fun keyframeCacheName(cacheKey: String, width: Int, height: Int, keyframe: Int) =
+            if (keyframe == 0) {
+                "${cacheKey}_${width}x$height"
+            } else {
+                "${cacheKey}_${width}x${height}_${keyframe}of${params.blurKeyframes}_" +
+                        "${params.keyframeBlurRadius(keyframe)}"
+            }
+
+    /**
+     * Return the fraction of the image's width, centered on the image, that the
+     * wallpaper can pan across outside of Art Detail mode.
+     */
+    private fun panWidthFraction(bitmapAspectRatio: Float): Float {
+        val screenToBitmapAspectRatio = params.aspectRatio / bitmapAspectRatio
+        if (screenToBitmapAspectRatio == 0f) {
+            return 1f
+        }
+        // This mirrors MuzeiBlurRenderer's recomputeTransformMatrices() without
+        // the zoomAmount, which only ever narrows the visible span
+        val scaledBitmapToScreenAspectRatio = max(1f, screenToBitmapAspectRatio) /
+                screenToBitmapAspectRatio
+        val maxPanScreenWidths = min(1.8f, scaledBitmapToScreenAspectRatio)
+        return maxPanScreenWidths / scaledBitmapToScreenAspectRatio
+    }
+}
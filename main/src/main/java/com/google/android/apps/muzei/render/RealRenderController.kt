@@ -17,10 +17,13 @@
 package com.google.android.apps.muzei.render
 
 import android.content.Context
+import android.net.Uri
 import androidx.lifecycle.LifecycleOwner
 import com.google.android.apps.muzei.api.MuzeiContract
 import com.google.android.apps.muzei.room.MuzeiDatabase
 import com.google.android.apps.muzei.room.contentUri
+import com.google.android.apps.muzei.room.imageInfo
+import com.google.android.apps.muzei.sync.NextArtwork
 import com.google.android.apps.muzei.util.collectIn
 import kotlinx.coroutines.flow.filterNotNull
 
@@ -35,6 +38,8 @@ class RealRenderController(
      * use [MuzeiContract.Artwork.CONTENT_URI].
      */
     private var currentArtworkUri = MuzeiContract.Artwork.CONTENT_URI
+    private var currentImageInfo: ImageInfo? = null
+    private var currentCacheKey: String? = null
 
     override fun onCreate(owner: LifecycleOwner) {
         super.onCreate(owner)
@@ -46,10 +51,25 @@ class RealRenderController(
         val database = MuzeiDatabase.getInstance(context)
         database.artworkDao().getCurrentArtworkFlow().filterNotNull().collectIn(owner) { artwork ->
             currentArtworkUri = artwork.contentUri
+            currentImageInfo = artwork.imageInfo
+            currentCacheKey = cacheKey(artwork.imageUri)
             reloadCurrentArtwork()
         }
+        NextArtwork.getUriFlow(context).filterNotNull().collectIn(owner) { nextArtworkUri ->
+            // Blur the next artwork before it is loaded, so that switching to it only
+            // reads its keyframes back from the KeyframeDiskCache
+            renderer.prepareAhead(ContentUriImageLoader(context.contentResolver,
+                    nextArtworkUri, cacheKey = cacheKey(nextArtworkUri)))
+        }
     }
 
+    /**
+     * Key processed bitmaps by the provider's URI rather than the artwork's id, which
+     * is only known once the artwork is inserted, so that they can be prepared ahead.
+     */
+    private fun cacheKey(imageUri: Uri) = "artwork_$imageUri"
+
     override suspend fun openDownloadedCurrentArtwork() =
-            ContentUriImageLoader(context.contentResolver, currentArtworkUri)
+            ContentUriImageLoader(context.contentResolver, currentArtworkUri,
+                    currentImageInfo, currentCacheKey)
 }
\ No newline at end of file
@@ -70,35 +70,37 @@ abstract class RenderController(
     private lateinit var coroutineScope: CoroutineScope
     private var destroyed = false
     private var queuedImageLoader: ImageLoader? = null
+    // The most recently requested load, cancelled when superseded by the next one
+    private var latestImageLoader: ImageLoader? = null
     private val sharedPreferenceChangeListener = SharedPreferences.OnSharedPreferenceChangeListener { _, key ->
         if (onLockScreen) {
             when (key) {
                 Prefs.PREF_LOCK_BLUR_AMOUNT -> {
                     renderer.recomputeMaxPrescaledBlurPixels()
-                    throttledForceReloadCurrentArtwork()
+                    applyEffectsOrReloadCurrentArtwork()
                 }
                 Prefs.PREF_LOCK_DIM_AMOUNT -> {
                     renderer.recomputeMaxDimAmount()
-                    throttledForceReloadCurrentArtwork()
+                    callbacks.requestRender()
                 }
                 Prefs.PREF_LOCK_GREY_AMOUNT -> {
                     renderer.recomputeGreyAmount()
-                    throttledForceReloadCurrentArtwork()
+                    callbacks.requestRender()
                 }
             }
         } else {
             when (key) {
                 Prefs.PREF_BLUR_AMOUNT -> {
                     renderer.recomputeMaxPrescaledBlurPixels()
-                    throttledForceReloadCurrentArtwork()
+                    applyEffectsOrReloadCurrentArtwork()
                 }
                 Prefs.PREF_DIM_AMOUNT -> {
                     renderer.recomputeMaxDimAmount()
-                    throttledForceReloadCurrentArtwork()
+                    callbacks.requestRender()
                 }
                 Prefs.PREF_GREY_AMOUNT -> {
                     renderer.recomputeGreyAmount()
-                    throttledForceReloadCurrentArtwork()
+                    callbacks.requestRender()
                 }
             }
         }
@@ -118,6 +120,8 @@ abstract class RenderController(
     }
 
     override fun onDestroy(owner: LifecycleOwner) {
+        latestImageLoader?.cancel()
+        latestImageLoader = null
         queuedImageLoader = null
         Prefs.getSharedPreferences(context)
                 .unregisterOnSharedPreferenceChangeListener(sharedPreferenceChangeListener)
@@ -129,6 +133,20 @@ abstract class RenderController(
         throttledForceReloadHandler.sendEmptyMessageDelayed(0, 250)
     }
 
+    /**
+     * Redraw with the new blur amount when the renderer can apply it to the current
+     * artwork as it is drawn, only reloading the artwork when it can't.
+     */
+    private fun applyEffectsOrReloadCurrentArtwork() {
+        callbacks.queueEventOnGlThread {
+            if (renderer.canApplyEffectsWithoutReload) {
+                callbacks.requestRender()
+            } else {
+                throttledForceReloadCurrentArtwork()
+            }
+        }
+    }
+
     protected abstract suspend fun openDownloadedCurrentArtwork(): ImageLoader
 
     fun reloadCurrentArtwork(reloadType: ReloadType = ReloadWhenVisible) {
@@ -138,6 +156,10 @@ abstract class RenderController(
         }
         coroutineScope.launch(Dispatchers.Main) {
             val imageLoader = openDownloadedCurrentArtwork()
+            // Drop the previous load, whether it is still queued or already decoding,
+            // so that rapid artwork changes don't pile up full decodes
+            latestImageLoader?.cancel()
+            latestImageLoader = imageLoader
 
             callbacks.queueEventOnGlThread {
                 if (visible || reloadType != ReloadWhenVisible) {
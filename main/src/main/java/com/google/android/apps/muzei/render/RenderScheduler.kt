@@ -0,0 +1,51 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.apps.muzei.render
+
+import android.view.Choreographer
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Coalesces render requests to at most one [render] per vsync, however often they
+ * come in: the first request schedules a [Choreographer] frame callback and later
+ * ones are dropped until it runs. Must be created on a thread with a Looper, such
+ * as the main thread, but requests can come from any thread.
+ */
+class RenderScheduler(private val render: () -> Unit) : Choreographer.FrameCallback {
+    private val choreographer = Choreographer.getInstance()
+    private val scheduled = AtomicBoolean()
+
+    fun requestRender() {
+        if (scheduled.compareAndSet(false, true)) {
+            choreographer.postFrameCallback(this)
+        }
+    }
+
+    override fun doFrame(frameTimeNanos: Long) {
+        scheduled.set(false)
+        render()
+    }
+
+    /**
+     * Drop the render request waiting for the next vsync, if any.
+     */
+    fun cancel() {
+        if (scheduled.compareAndSet(true, false)) {
+            choreographer.removeFrameCallback(this)
+        }
+    }
+}
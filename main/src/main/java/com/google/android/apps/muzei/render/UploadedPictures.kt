@@ -0,0 +1,167 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.apps.muzei.render
+
+import android.graphics.Bitmap
+
+/**
+ * The GL pictures for a picture set, uploaded from [PreparedPictures]. Uploading only
+ * creates textures, which are shared between contexts, so it can be done either on
+ * the GL thread or a [GLUploadThread].
+ */
+internal class UploadedPictures private constructor(
+        private val prepared: PreparedPictures
+) {
+    companion object {
+        /**
+         * Upload the prepared pictures on the current thread.
+         */
+        fun upload(prepared: PreparedPictures) = UploadedPictures(prepared).apply {
+            uploads.forEach { (picture, bitmap) -> picture.upload(bitmap) }
+            compressedUploads.forEach { (picture, image) -> picture.upload(image) }
+            finishUpload()
+        }
+
+        /**
+         * Upload the prepared pictures on the given upload thread a step at a time,
+         * so that the thread never holds up newer work for long, then call [onUploaded]
+         * on that thread with the pictures, or with null if the upload was cancelled.
+         * Returns false, without taking ownership of the prepared pictures, if the
+         * upload thread can't take the upload.
+         */
+        fun upload(
+                uploadThread: GLUploadThread,
+                prepared: PreparedPictures,
+                isCancelled: () -> Boolean,
+                onUploaded: (UploadedPictures?) -> Unit
+        ): Boolean {
+            val uploaded = UploadedPictures(prepared)
+            val steps = uploaded.uploads.flatMap { (picture, bitmap) ->
+                (0 until picture.uploadSteps).map { step -> { picture.uploadStep(bitmap, step) } }
+            } + uploaded.compressedUploads.map { (picture, image) -> { picture.upload(image) } }
+            return uploadThread.post(object : Runnable {
+                private var nextStep = 0
+
+                override fun run() {
+                    if (isCancelled()) {
+                        uploaded.destroy()
+                        onUploaded(null)
+                        return
+                    }
+                    if (nextStep < steps.size) {
+                        steps[nextStep++]()
+                        if (!uploadThread.post(this)) {
+                            // The upload thread is quitting along with its context
+                            uploaded.destroy()
+                            onUploaded(null)
+                        }
+                        return
+                    }
+                    uploaded.finishUpload()
+                    uploaded.fence = uploadThread.insertFence()
+                    onUploaded(uploaded)
+                }
+            })
+        }
+    }
+
+    val bitmapAspectRatio = prepared.bitmapAspectRatio
+    val luminance = prepared.luminance
+    val regionMode = prepared.regionMode
+    val regionLeft = prepared.regionLeft
+    val regionRight = prepared.regionRight
+    val blurredPictureSampleSize = prepared.blurSourceSampleSize
+
+    // Each picture with the bitmap or compressed image it is uploaded from
+    private val uploads = mutableListOf<Pair<GLPicture, Bitmap>>()
+    private val compressedUploads = mutableListOf<Pair<GLPicture, Etc2Image>>()
+
+    val basePicture = prepared.base?.let { createPicture(it) }
+    val pictures: Array<GLPicture?>
+    var blurredPicture: GLBlurredPicture? = null
+        private set
+
+    // The fence to wait for before drawing pictures uploaded on a GLUploadThread
+    private var fence = 0L
+    private var bitmapsRecycled = false
+
+    init {
+        val image = prepared.pictures[0]
+        val imagePicture = image?.let { createPicture(it) }
+        pictures = Array(prepared.pictures.size) { f ->
+            val bitmap = prepared.pictures[f]
+            if (f == 0 || bitmap === image) {
+                imagePicture
+            } else {
+                bitmap?.let { createPicture(it) }
+                        ?: prepared.compressedPictures[f]?.let { createPicture(it) }
+            }
+        }
+    }
+
+    private fun createPicture(bitmap: Bitmap): GLPicture? {
+        if (bitmap.width == 0 || bitmap.height == 0) {
+            return null
+        }
+        return GLPicture(bitmap.width, bitmap.height).also { picture ->
+            uploads += picture to bitmap
+        }
+    }
+
+    private fun createPicture(image: Etc2Image) =
+            GLPicture(image.width, image.height, compressed = true).also { picture ->
+                compressedUploads += picture to image
+            }
+
+    private fun finishUpload() {
+        blurredPicture = prepared.blurSource?.let { GLBlurredPicture(it) }
+        recycleBitmaps()
+    }
+
+    private fun recycleBitmaps() {
+        if (!bitmapsRecycled) {
+            bitmapsRecycled = true
+            prepared.recycle()
+        }
+    }
+
+    /**
+     * Whether the GPU has finished uploading the pictures, so that they can be drawn.
+     * Must be called on the GL thread.
+     */
+    fun isReady(): Boolean {
+        if (!GLUploadThread.isFenceSignaled(fence)) {
+            return false
+        }
+        fence = 0L
+        return true
+    }
+
+    /**
+     * Destroy the pictures and return any bitmaps not yet uploaded to the pool,
+     * for uploads that won't be shown.
+     */
+    fun destroy() {
+        basePicture?.destroy()
+        pictures.distinct().forEach { it?.destroy() }
+        blurredPicture?.destroy()
+        blurredPicture = null
+        GLUploadThread.deleteFence(fence)
+        fence = 0L
+        recycleBitmaps()
+    }
+}
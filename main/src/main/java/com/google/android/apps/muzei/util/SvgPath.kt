@@ -0,0 +1,41 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.apps.muzei.util
+
+import android.graphics.Path
+import java.text.ParseException
+
+/**
+ * Parse the given SVG path data into a [Path].
+ */
+@Throws(ParseException::class)
+internal fun SvgPathParser.parsePath(s: String): Path = Path().apply {
+    fillType = Path.FillType.WINDING
+    parsePath(s, object : SvgPathParser.PathBuilder {
+        override fun moveTo(x: Float, y: Float) = this@apply.moveTo(x, y)
+
+        override fun lineTo(x: Float, y: Float) = this@apply.lineTo(x, y)
+
+        override fun quadTo(x1: Float, y1: Float, x2: Float, y2: Float) =
+                this@apply.quadTo(x1, y1, x2, y2)
+
+        override fun cubicTo(x1: Float, y1: Float, x2: Float, y2: Float, x3: Float, y3: Float) =
+                this@apply.cubicTo(x1, y1, x2, y2, x3, y3)
+
+        override fun close() = this@apply.close()
+    })
+}
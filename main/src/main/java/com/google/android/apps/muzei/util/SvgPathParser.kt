@@ -16,11 +16,11 @@
 
 package com.google.android.apps.muzei.util
 
-import android.graphics.Path
-import android.graphics.PointF
-
 import java.text.ParseException
 
+/**
+ * Parses SVG path data into a [PathBuilder], such as an Android `Path` via [parsePath].
+ */
 internal class SvgPathParser(
         private val transformX: (x: Float) -> Float = { it },
         private val transformY: (y: Float) -> Float = { it }
@@ -33,26 +33,45 @@ internal class SvgPathParser(
         private const val TOKEN_EOF = 4
     }
 
+    /**
+     * Receives the segments of a parsed path, in the parser's transformed coordinates.
+     */
+    interface PathBuilder {
+        fun moveTo(x: Float, y: Float)
+        fun lineTo(x: Float, y: Float)
+        fun quadTo(x1: Float, y1: Float, x2: Float, y2: Float)
+        fun cubicTo(x1: Float, y1: Float, x2: Float, y2: Float, x3: Float, y3: Float)
+        fun close()
+    }
+
+    private class Point {
+        var x = 0f
+        var y = 0f
+
+        fun set(x: Float, y: Float) {
+            this.x = x
+            this.y = y
+        }
+
+        fun set(point: Point) = set(point.x, point.y)
+    }
+
     private lateinit var pathString: String
     private var length: Int = 0
     private var currentToken: Int = 0
-    private val currentPoint = PointF()
+    private val currentPoint = Point()
     private var currentIndex: Int = 0
 
     @Throws(ParseException::class)
-    fun parsePath(s: String): Path {
+    fun parsePath(s: String, p: PathBuilder) {
         currentPoint.set(java.lang.Float.NaN, java.lang.Float.NaN)
         pathString = s
         currentIndex = 0
         length = pathString.length
 
-        val tempPoint1 = PointF()
-        val tempPoint2 = PointF()
-        val tempPoint3 = PointF()
-
-        val p = Path().apply {
-            fillType = Path.FillType.WINDING
-        }
+        val tempPoint1 = Point()
+        val tempPoint2 = Point()
+        val tempPoint3 = Point()
 
         var firstMove = true
         while (currentIndex < length) {
@@ -160,7 +179,6 @@ internal class SvgPathParser(
                 }
             }
         }
-        return p
     }
 
     private fun advanceToNextToken(): Int {
@@ -198,7 +216,7 @@ internal class SvgPathParser(
     }
 
     @Throws(ParseException::class)
-    private fun consumeAndTransformPoint(out: PointF, relative: Boolean) {
+    private fun consumeAndTransformPoint(out: Point, relative: Boolean) {
         out.x = transformX(consumeValue())
         out.y = transformY(consumeValue())
         if (relative) {
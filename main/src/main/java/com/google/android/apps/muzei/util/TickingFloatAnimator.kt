@@ -34,7 +34,7 @@ class TickingFloatAnimator(private val duration: Int) {
     var isRunning = false
         private set
 
-    fun start(startValue: Int = currentValue.toInt(), endValue: Int, onEnd: () -> Unit) {
+    fun start(startValue: Int = currentValue.toInt(), endValue: Int, onEnd: () -> Unit = { }) {
         this.startValue = startValue
         this.endValue = endValue
         this.onEnd = onEnd
@@ -21,7 +21,7 @@ import android.graphics.Bitmap
 import android.util.Log
 import androidx.lifecycle.DefaultLifecycleObserver
 import androidx.lifecycle.LifecycleOwner
-import com.google.android.apps.muzei.render.ImageLoader
+import com.google.android.apps.muzei.render.DecodedArtworkCache
 import com.google.android.apps.muzei.room.Artwork
 import com.google.android.apps.muzei.room.MuzeiDatabase
 import com.google.android.apps.muzei.room.contentUri
@@ -74,8 +74,8 @@ class WearableController(private val context: Context) : DefaultLifecycleObserve
             return@withContext
         }
 
-        val image: Bitmap = ImageLoader.decode(
-                context.contentResolver, artwork.contentUri,
+        val image: Bitmap = DecodedArtworkCache.get(
+                context.contentResolver, artwork.id, artwork.contentUri,
                 320) ?: return@withContext
 
         val asset = withContext(Dispatchers.IO) {
@@ -22,7 +22,6 @@ import android.appwidget.AppWidgetManager
 import android.content.ComponentName
 import android.content.Context
 import android.content.Intent
-import android.graphics.Bitmap
 import android.os.Build
 import android.os.Bundle
 import android.util.Log
@@ -31,7 +30,8 @@ import android.view.View
 import android.widget.RemoteViews
 import androidx.annotation.LayoutRes
 import androidx.annotation.RequiresApi
-import com.google.android.apps.muzei.render.ImageLoader
+import com.google.android.apps.muzei.render.DecodedArtworkCache
+import com.google.android.apps.muzei.render.centerCropTo
 import com.google.android.apps.muzei.room.Artwork
 import com.google.android.apps.muzei.room.MuzeiDatabase
 import com.google.android.apps.muzei.room.Provider
@@ -113,20 +113,22 @@ suspend fun updateAppWidget(context: Context) = coroutineScope {
             var widgetHeight = TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP,
                     extras.getInt(AppWidgetManager.OPTION_APPWIDGET_MAX_HEIGHT).toFloat(), displayMetrics).toInt()
             widgetHeight = max(min(widgetHeight, displayMetrics.heightPixels), minWidgetSize)
-            var success = false
-            while (!success) {
+            // Halving the size on each retry stops once it reaches zero, as there's
+            // no bitmap to crop the artwork to
+            while (widgetWidth > 0 && widgetHeight > 0) {
                 val remoteViews = createRemoteViews(context, provider, artwork,
                         widgetWidth, widgetHeight)
                         ?: return@launch
                 try {
                     appWidgetManager.updateAppWidget(widgetId, remoteViews)
-                    success = true
+                    return@launch
                 } catch (_: IllegalArgumentException) {
                     Log.w(TAG, "App widget size $widgetWidth x $widgetHeight exceeded maximum memory, reducing quality")
                     widgetWidth /= 2
                     widgetHeight /= 2
                 }
             }
+            Log.w(TAG, "Unable to fit app widget $widgetId within the maximum memory")
         }
     }
 }
@@ -156,13 +158,13 @@ private suspend fun createRemoteViews(
         PendingIntent.FLAG_UPDATE_CURRENT or PendingIntent.FLAG_IMMUTABLE)
     val smallWidgetHeight = context.resources.getDimensionPixelSize(
             R.dimen.widget_small_height_breakpoint)
-    val image = ImageLoader.decode(
-            context.contentResolver, imageUri,
+    val image = DecodedArtworkCache.get(
+            context.contentResolver, artwork.id, imageUri,
             widgetWidth, widgetHeight) ?: return null
 
-    // Even after using sample size to scale an image down, it might be larger than the
-    // maximum bitmap memory usage for widgets
-    val scaledImage = image.centerCrop(widgetWidth, widgetHeight).scale(widgetWidth, widgetHeight)
+    // The cached image is shared and might be larger than the maximum bitmap memory
+    // usage for widgets, so send a copy cropped to the widget's size
+    val scaledImage = image.centerCropTo(widgetWidth, widgetHeight)
     @LayoutRes val widgetLayout = if (widgetHeight < smallWidgetHeight)
         R.layout.widget_small
     else
@@ -179,62 +181,3 @@ private suspend fun createRemoteViews(
     }
     return remoteViews
 }
-
-private fun Bitmap.centerCrop(widgetWidth: Int, widgetHeight: Int): Bitmap {
-    if (width == 0 || height == 0 || widgetWidth == 0 || widgetHeight == 0) {
-        return this
-    }
-    return when {
-        width > height && widgetWidth < widgetHeight -> {
-            Bitmap.createBitmap(
-                this,
-                (width - height) / 2,
-                0,
-                width - (width - height) / 2,
-                height
-            )
-        }
-        height > width && widgetWidth > widgetHeight -> {
-            Bitmap.createBitmap(
-                this,
-                0,
-                (height - width) / 2,
-                width,
-                height - (height - width) / 2
-            )
-        }
-        else -> {
-            this
-        }
-    }
-}
-
-
-private fun Bitmap.scale(widgetWidth: Int, widgetHeight: Int): Bitmap? {
-    if (width == 0 || height == 0 ||
-            widgetWidth == 0 || widgetHeight == 0) {
-        return null
-    }
-    val largestDimension = max(widgetWidth, widgetHeight)
-    var width = width
-    var height = height
-    when {
-        width > height -> {
-            // landscape
-            val ratio = width.toFloat() / largestDimension
-            width = largestDimension
-            height = (height / ratio).toInt()
-        }
-        height > width -> {
-            // portrait
-            val ratio = height.toFloat() / largestDimension
-            height = largestDimension
-            width = (width / ratio).toInt()
-        }
-        else -> {
-            height = largestDimension
-            width = largestDimension
-        }
-    }
-    return Bitmap.createScaledBitmap(this, width, height, true)
-}
\ No newline at end of file
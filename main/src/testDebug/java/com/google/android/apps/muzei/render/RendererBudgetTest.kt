@@ -0,0 +1,107 @@
+/*
+ * Copyright 2026 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.apps.muzei.render
+
+import android.app.Application
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.ParameterizedRobolectricTestRunner
+import org.robolectric.RuntimeEnvironment
+import org.robolectric.annotation.Config
+import org.robolectric.annotation.GraphicsMode
+
+/**
+ * Drives the renderer with the [RendererHarness] on the JVM, checking that what each
+ * frame draws and uploads stays within budget, both when blurring with shaders and
+ * with keyframes blurred on the CPU.
+ *
+ * Keyframes are driven against OpenGL ES 2.0, which has no ETC2, as the platform's
+ * texture encoder isn't available on the JVM.
+ */
+@RunWith(ParameterizedRobolectricTestRunner::class)
+@Config(application = Application::class, sdk = [35])
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+class RendererBudgetTest(
+        private val name: String,
+        private val createGl: () -> RecordingGL
+) {
+
+    companion object {
+        // Compositing both picture sets while blurring one of them for the first
+        // time: a copy down to each smaller level, two blur passes and the composite
+        private const val MAX_DRAWS_PER_FRAME = 8
+        // A 2:1 artwork at the height of the surface plus its blur source, which is
+        // a quarter of that height. Keyframes are uploaded along with the artwork
+        // instead, but as RGB_565 they take less.
+        private const val MAX_UPLOADED_BYTES_PER_FRAME =
+                RendererHarness.HEIGHT * 2L * RendererHarness.HEIGHT * 4 * 17 / 16
+
+        @JvmStatic
+        @ParameterizedRobolectricTestRunner.Parameters(name = "{0}")
+        fun parameters() = listOf(
+                arrayOf("shader blur", { RecordingGL() }),
+                arrayOf("keyframes", {
+                    RecordingGL(version = "OpenGL ES 2.0", supportsRenderToTexture = false)
+                }))
+    }
+
+    private val frames by lazy {
+        RendererHarness(RuntimeEnvironment.getApplication()).run(name, createGl())
+    }
+
+    private fun framesOf(step: String) = frames.filter { it.step == "$name: $step" }
+
+    @Test
+    fun load_uploadsArtwork() {
+        val load = framesOf("load")
+        assertTrue("No frames drawn while loading", load.isNotEmpty())
+        assertTrue("Nothing uploaded while loading", load.sumOf { it.textureUploads } > 0)
+    }
+
+    @Test
+    fun everyFrame_staysWithinBudget() {
+        for (frame in frames) {
+            assertTrue("${frame.step}: ${frame.drawCalls} draw calls",
+                    frame.drawCalls <= MAX_DRAWS_PER_FRAME)
+            assertTrue("${frame.step}: ${frame.uploadedBytes} bytes uploaded",
+                    frame.uploadedBytes <= MAX_UPLOADED_BYTES_PER_FRAME)
+        }
+    }
+
+    @Test
+    fun scroll_drawsOnceWithoutUploading() {
+        val scroll = framesOf("scroll")
+        assertTrue("No frames drawn while scrolling", scroll.isNotEmpty())
+        for (frame in scroll) {
+            assertEquals("Draw calls while scrolling", 1, frame.drawCalls)
+            assertEquals("Uploads while scrolling", 0, frame.textureUploads)
+        }
+        assertTrue("Frames drawn for an unchanged scroll",
+                framesOf("unchanged scroll").isEmpty())
+    }
+
+    @Test
+    fun blurAnimation_uploadsNothing() {
+        for (step in listOf("unblur", "blur")) {
+            val blur = framesOf(step)
+            assertTrue("No frames drawn for $step", blur.isNotEmpty())
+            assertEquals("Uploads for $step", 0, blur.sumOf { it.textureUploads })
+        }
+    }
+}
@@ -23,7 +23,7 @@ import java.util.ArrayDeque
  * Save the given [ids] into [SharedPreferences] for later retrieval via [getRecentIds].
  */
 public fun SharedPreferences.Editor.putRecentIds(key: String, ids: ArrayDeque<Long>) {
-    putString(key, ids.joinToString(","))
+    putString(key, ids.toRecentIdsString())
 }
 
 /**
@@ -38,18 +38,3 @@ public fun SharedPreferences.getRecentIds(key: String): ArrayDeque<Long> {
  * Gets the recent ids out of a [Bundle].
  */
 public fun Bundle.getRecentIds(key: String): ArrayDeque<Long> = getString(key, "").toRecentIds()
-
-private fun String.toRecentIds(): ArrayDeque<Long> {
-    val ids = ArrayDeque<Long>()
-    splitToSequence(',').filter {
-        it.isNotEmpty()
-    }.map {
-        it.toLong()
-    }.forEach { id ->
-        // Remove the id if it exists in the list already
-        ids.remove(id)
-        // Then add it to the end of the list
-        ids.add(id)
-    }
-    return ids
-}
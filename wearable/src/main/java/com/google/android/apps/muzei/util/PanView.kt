@@ -174,7 +174,8 @@ class PanView @JvmOverloads constructor(context: Context, attrs: AttributeSet? =
                 (scalingFactor * width).toInt(),
                 (scalingFactor * height).toInt(),
                 true /* filter */)
-        blurredImage = scaledImage.blur(context)
+        // Reuse the previous blurred image's memory when the size hasn't changed
+        blurredImage = scaledImage.blur(context, dest = blurredImage)
         scaledImage?.let {
             // Center the image
             offsetX = ((currentWidth - it.width) / 2).toFloat()